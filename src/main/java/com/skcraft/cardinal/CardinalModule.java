@@ -1,5 +1,6 @@
 package com.skcraft.cardinal;
 
+import com.google.common.base.Splitter;
 import com.google.inject.AbstractModule;
 import com.google.inject.Provides;
 import com.google.inject.Singleton;
@@ -7,6 +8,7 @@ import com.google.inject.name.Named;
 import com.google.inject.name.Names;
 import com.skcraft.cardinal.api.WebService;
 import com.skcraft.cardinal.service.claim.ClaimMap;
+import com.skcraft.cardinal.service.claim.CountingClaimMap;
 import com.skcraft.cardinal.service.claim.DatabaseClaimMap;
 import com.skcraft.cardinal.service.hive.DefaultHive;
 import com.skcraft.cardinal.service.hive.Hive;
@@ -20,9 +22,12 @@ import com.skcraft.cardinal.service.remotecommand.DefaultRemoteCommandManager;
 import com.skcraft.cardinal.service.remotecommand.RemoteCommandManager;
 import com.skcraft.cardinal.util.event.EventBus;
 import com.skcraft.cardinal.util.event.MultimapEventBus;
+import com.skcraft.cardinal.util.sql.RoutingDataSource;
 import com.zaxxer.hikari.HikariDataSource;
 
 import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 
 import static com.google.common.base.Preconditions.*;
@@ -43,19 +48,52 @@ public class CardinalModule extends AbstractModule {
         bind(RemoteCommandManager.class).to(DefaultRemoteCommandManager.class).in(Singleton.class);
         bind(Hive.class).to(DefaultHive.class).in(Singleton.class);
         bind(MojangIdMapping.class).to(DatabaseMojangIdMapping.class).in(Singleton.class);
-        bind(ClaimMap.class).to(DatabaseClaimMap.class).in(Singleton.class);
+        bind(DatabaseClaimMap.class).in(Singleton.class);
+        bind(ClaimMap.class).to(CountingClaimMap.class).in(Singleton.class);
         bind(PartyManager.class).to(DatabasePartyManager.class).in(Singleton.class);
         bind(NoticeManager.class).to(WebNoticeManager.class).in(Singleton.class);
     }
 
+    /**
+     * Provide the data source for the primary database.
+     *
+     * <p>If {@code dataSource.replicas} is set to a comma-separated list of
+     * JDBC URLs, reads made to fill caches go to those replicas, except
+     * for {@code dataSource.replicaWriteWindow} milliseconds (2000 by
+     * default) after a write. Replicas use the same username and password
+     * as the primary.</p>
+     */
     @Provides
+    @Singleton
     protected DataSource provideDataSource(@Named("dataSource.url") String url,
                                            @Named("dataSource.username") String username,
                                            @Named("dataSource.password") String password) {
+        HikariDataSource primary = createDataSource(url, username, password);
+
+        List<DataSource> replicas = new ArrayList<>();
+        for (String replicaUrl : Splitter.on(',').trimResults().omitEmptyStrings().split(properties.getProperty("dataSource.replicas", ""))) {
+            HikariDataSource replica = createDataSource(replicaUrl, username, password);
+            replica.setReadOnly(true);
+            replicas.add(replica);
+        }
+
+        if (replicas.isEmpty()) {
+            return primary;
+        }
+        long writeWindow = Long.parseLong(properties.getProperty("dataSource.replicaWriteWindow", "2000"));
+        return new RoutingDataSource(primary, replicas, writeWindow);
+    }
+
+    private static HikariDataSource createDataSource(String url, String username, String password) {
         HikariDataSource ds = new HikariDataSource();
         ds.setJdbcUrl(url);
         ds.setUsername(username);
         ds.setPassword(password);
+        // DAOs only use a few distinct statement shapes (see BatchStatements),
+        // so each connection can keep all of them prepared
+        ds.addDataSourceProperty("cachePrepStmts", "true");
+        ds.addDataSourceProperty("prepStmtCacheSize", "250");
+        ds.addDataSourceProperty("prepStmtCacheSqlLimit", "8192");
         return ds;
     }
 }
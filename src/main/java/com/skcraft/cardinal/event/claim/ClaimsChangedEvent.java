@@ -0,0 +1,19 @@
+package com.skcraft.cardinal.event.claim;
+
+import com.skcraft.cardinal.util.ChunkPosition;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Posted by {@link com.skcraft.cardinal.service.claim.ClaimCache} when the
+ * claim, owner or party of chunks that were already cached has changed,
+ * either because claims were written through the cache or because a
+ * refresh found different data in the database.
+ *
+ * <p>The event is posted from the thread that made the change.</p>
+ */
+@Data
+public class ClaimsChangedEvent {
+    private final List<ChunkPosition> chunks;
+}
@@ -0,0 +1,19 @@
+package com.skcraft.cardinal.event.claim;
+
+import com.skcraft.cardinal.util.ChunkPosition;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Posted by {@link com.skcraft.cardinal.service.claim.ClaimCache} after a
+ * batch of chunks has been loaded into the cache for the first time, or
+ * after every claim has been preloaded again.
+ *
+ * <p>The event is posted from the thread that loaded the batch. A full
+ * preload posts one event for every thousand claims.</p>
+ */
+@Data
+public class ClaimsLoadedEvent {
+    private final List<ChunkPosition> chunks;
+}
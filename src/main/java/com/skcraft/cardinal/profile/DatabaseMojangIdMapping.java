@@ -1,9 +1,9 @@
 package com.skcraft.cardinal.profile;
 
-import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 import com.google.inject.Inject;
 import com.skcraft.cardinal.util.DataAccessException;
+import com.skcraft.cardinal.util.sql.BatchStatements;
 
 import javax.sql.DataSource;
 import java.sql.Connection;
@@ -62,33 +62,34 @@ public class DatabaseMojangIdMapping implements MojangIdMapping {
             try (Connection conn = ds.getConnection()) {
                 conn.setAutoCommit(true);
 
-                PreparedStatement stmt = conn.prepareStatement("" +
-                        "INSERT INTO user_id " +
-                        "(uuid, name) " +
-                        "VALUES " +
-                        Strings.repeat("(?, ?), ", unknown.size() - 1) + "(?, ?) " +
-                        "ON DUPLICATE KEY UPDATE name = VALUES(name)");
-
-                int index = 1;
-                for (MojangId mojangId : unknown) {
-                    stmt.setString(index++, mojangId.getUuid().toString());
-                    stmt.setString(index++, mojangId.getName());
-                }
+                for (List<MojangId> batch : BatchStatements.partition(unknown)) {
+                    PreparedStatement stmt = conn.prepareStatement("" +
+                            "INSERT INTO user_id " +
+                            "(uuid, name) " +
+                            "VALUES " + BatchStatements.placeholders("(?, ?)", batch.size()) + " " +
+                            "ON DUPLICATE KEY UPDATE name = VALUES(name)");
+
+                    int index = 1;
+                    for (MojangId mojangId : batch) {
+                        stmt.setString(index++, mojangId.getUuid().toString());
+                        stmt.setString(index++, mojangId.getName());
+                    }
 
-                stmt.execute();
+                    stmt.execute();
 
-                stmt = conn.prepareStatement("SELECT * FROM user_id WHERE uuid IN (" + Strings.repeat("?, ", unknown.size() - 1) + "?)");
+                    stmt = conn.prepareStatement("SELECT * FROM user_id WHERE uuid IN (" + BatchStatements.placeholders("?", batch.size()) + ")");
 
-                index = 1;
-                for (MojangId mojangId : unknown) {
-                    stmt.setString(index++, mojangId.getUuid().toString());
-                }
+                    index = 1;
+                    for (MojangId mojangId : batch) {
+                        stmt.setString(index++, mojangId.getUuid().toString());
+                    }
 
-                try (ResultSet rs = stmt.executeQuery()) {
-                    while (rs.next()) {
-                        MojangId mojangId = new MojangId(UUID.fromString(rs.getString("uuid")), rs.getString("name"));
-                        results.put(mojangId, rs.getInt("id"));
-                        cache.put(mojangId, rs.getInt("id"));
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            MojangId mojangId = new MojangId(UUID.fromString(rs.getString("uuid")), rs.getString("name"));
+                            results.put(mojangId, rs.getInt("id"));
+                            cache.put(mojangId, rs.getInt("id"));
+                        }
                     }
                 }
             } catch (SQLException e) {
@@ -0,0 +1,110 @@
+package com.skcraft.cardinal.service.claim;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Decides how many chunk states {@link PopulateWorker}s should load per
+ * database query and how long they should wait to fill a batch.
+ *
+ * <p>The batch size grows additively while queries of full batches
+ * complete well within the target latency, and is halved whenever a query
+ * is slower than the target or fails. The wait time follows the average
+ * query latency, because waiting longer than a round trip to collect more
+ * requests does not pay off, and is capped by the maximum collect time.
+ * When the queue is empty, workers do not wait at all and load the first
+ * request that arrives immediately.</p>
+ *
+ * <p>One policy is shared by all the workers of a {@link ClaimCache}.</p>
+ */
+public class AdaptiveBatchPolicy {
+
+    private static final double LATENCY_SMOOTHING = 0.2;
+
+    private final int minBatchSize;
+    private final int maxBatchSize;
+    private final long targetLatency;
+    private final long maxCollectTime;
+    private volatile int batchSize;
+    private volatile long waitTime;
+    private volatile double averageLatency;
+
+    /**
+     * Create a new policy from the given configuration.
+     *
+     * @param config The configuration
+     */
+    public AdaptiveBatchPolicy(ClaimCacheConfig config) {
+        checkArgument(config.getMinBatchSize() >= 1, "minBatchSize >= 1");
+        checkArgument(config.getMaxBatchSize() >= config.getMinBatchSize(), "maxBatchSize >= minBatchSize");
+        checkArgument(config.getTargetBatchLatency() > 0, "targetBatchLatency > 0");
+        checkArgument(config.getMaxCollectTime() >= 0, "maxCollectTime >= 0");
+        this.minBatchSize = config.getMinBatchSize();
+        this.maxBatchSize = config.getMaxBatchSize();
+        this.targetLatency = config.getTargetBatchLatency();
+        this.maxCollectTime = config.getMaxCollectTime();
+        this.batchSize = Math.min(Math.max(config.getInitialBatchSize(), minBatchSize), maxBatchSize);
+        this.waitTime = maxCollectTime;
+    }
+
+    /**
+     * Get the number of states to load in one query.
+     *
+     * @return The batch size
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Get the maximum time to wait for more requests to fill a batch when
+     * the queue is busy.
+     *
+     * @return The wait time in milliseconds
+     */
+    public long getWaitTime() {
+        return waitTime;
+    }
+
+    /**
+     * Get the moving average of the time taken by one batch query.
+     *
+     * @return The latency in milliseconds
+     */
+    public double getAverageLatency() {
+        return averageLatency;
+    }
+
+    /**
+     * Record a successful batch query.
+     *
+     * @param size The number of states in the batch
+     * @param elapsedNanos The time taken by the query
+     */
+    public synchronized void recordSuccess(int size, long elapsedNanos) {
+        double latency = elapsedNanos / 1e6;
+        averageLatency = averageLatency == 0 ? latency : averageLatency * (1 - LATENCY_SMOOTHING) + latency * LATENCY_SMOOTHING;
+
+        int batchSize = this.batchSize;
+        if (latency > targetLatency) {
+            batchSize = Math.max(minBatchSize, batchSize / 2);
+        } else if (size >= batchSize && latency < targetLatency / 2.0) {
+            batchSize = Math.min(maxBatchSize, batchSize + Math.max(1, batchSize / 4));
+        }
+        this.batchSize = batchSize;
+        this.waitTime = Math.min(maxCollectTime, Math.round(averageLatency));
+    }
+
+    /**
+     * Record a failed batch query.
+     */
+    public synchronized void recordFailure() {
+        batchSize = Math.max(minBatchSize, batchSize / 2);
+    }
+
+    @Override
+    public String toString() {
+        return "AdaptiveBatchPolicy{batchSize=" + batchSize + ", waitTime=" + waitTime
+                + "ms, averageLatency=" + String.format("%.1f", averageLatency) + "ms}";
+    }
+
+}
@@ -1,5 +1,10 @@
 package com.skcraft.cardinal.service.claim;
 
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.skcraft.cardinal.util.ChunkPosition;
 import com.skcraft.cardinal.util.WorldVector3i;
 import com.skcraft.cardinal.service.party.Party;
 import lombok.Getter;
@@ -7,6 +12,7 @@ import lombok.Setter;
 import lombok.ToString;
 
 import javax.annotation.Nullable;
+import java.util.concurrent.CancellationException;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -19,18 +25,38 @@ import static com.google.common.base.Preconditions.checkNotNull;
  * instance will be updated with the claim and {@link #isLoaded()} becomes
  * {@code true}.</p>
  *
+ * <p>While a state is waiting in the populate queue, {@link #isPending()}
+ * is {@code true}. A worker that fills a state out of turn (such as when
+ * a whole region is loaded at once) clears the flag so that the queued
+ * entry is skipped when it is eventually reached.</p>
+ *
  * <p>If a request to invalidate a cache entry for a certain chunk
  * position is made, the chunk state for that position is removed from
  * the cache. If a new request for claim data is made for that chunk
  * position, a new ChunkState instance is made.</p>
  */
-@ToString
+@ToString(exclude = "loadFuture")
 class ChunkState implements ClaimEntry {
     @Getter
     private final WorldVector3i position;
-    private ClaimData data;
+    @Getter
+    private final ChunkPosition chunk;
+    private volatile ClaimData data;
+    @Getter @Setter
+    private volatile boolean loaded;
+    @Getter @Setter
+    private volatile boolean pending;
+    @Getter @Setter
+    private int generation;
     @Getter @Setter
-    private boolean loaded;
+    private boolean queued; // Guarded by the lock of PopulateQueue
+    @Getter @Setter
+    private boolean detached; // A copy made by CompactChunkStore
+    @Getter @Setter
+    private int accessTime; // From the clock of RegionEvictor, racy
+    @Getter @Setter
+    private long queueTime; // From System.nanoTime() when queued by queueChunk(), or 0
+    private volatile SettableFuture<ClaimEntry> loadFuture; // Created on demand
 
     /**
      * Create a new instance.
@@ -40,6 +66,146 @@ class ChunkState implements ClaimEntry {
     public ChunkState(WorldVector3i position) {
         checkNotNull(position, "position");
         this.position = position;
+        this.chunk = ChunkPosition.of(position);
+    }
+
+    /**
+     * Create a new instance.
+     *
+     * @param chunk The position of the chunk
+     */
+    public ChunkState(ChunkPosition chunk) {
+        checkNotNull(chunk, "chunk");
+        this.position = chunk.toVector();
+        this.chunk = chunk;
+    }
+
+    /**
+     * Get the packed chunk coordinates.
+     *
+     * @return The packed coordinates
+     * @see ChunkPosition#getKey()
+     */
+    public long getKey() {
+        return chunk.getKey();
+    }
+
+    /**
+     * Get a future that completes once this state has been loaded, or with
+     * the state that replaced it in the cache. The future is cancelled if
+     * the state is invalidated before it is loaded.
+     *
+     * @return The future
+     */
+    public ListenableFuture<ClaimEntry> getLoadFuture() {
+        if (loaded) {
+            return Futures.immediateFuture(this);
+        }
+        SettableFuture<ClaimEntry> future;
+        synchronized (this) {
+            future = loadFuture;
+            if (future == null) {
+                future = SettableFuture.create();
+                loadFuture = future;
+            }
+        }
+        if (loaded) {
+            completeLoad(this); // Loaded before the future was published
+        }
+        return future;
+    }
+
+    /**
+     * Record an access at the given time, only writing the field if the
+     * time has changed so that reads don't dirty the state's cache line.
+     *
+     * @param time The time from {@link RegionEvictor#getClock()}
+     */
+    public void touch(int time) {
+        if (accessTime != time) {
+            accessTime = time;
+        }
+    }
+
+    /**
+     * Get whether anyone is waiting on the load future.
+     *
+     * @return True if a load future was requested and has not completed
+     */
+    public boolean hasLoadFuture() {
+        return loadFuture != null;
+    }
+
+    /**
+     * Complete the load future, if one was requested, with the given entry.
+     *
+     * @param entry The entry
+     */
+    public void completeLoad(ClaimEntry entry) {
+        SettableFuture<ClaimEntry> future = takeLoadFuture();
+        if (future != null) {
+            future.set(entry);
+        }
+    }
+
+    /**
+     * Complete the load future, if one was requested, with the result of
+     * another future.
+     *
+     * @param other The other future
+     */
+    public void forwardLoad(ListenableFuture<ClaimEntry> other) {
+        SettableFuture<ClaimEntry> future = takeLoadFuture();
+        if (future != null) {
+            forward(other, future);
+        }
+    }
+
+    /**
+     * Cancel the load future, if one was requested.
+     */
+    public void cancelLoad() {
+        SettableFuture<ClaimEntry> future = takeLoadFuture();
+        if (future != null) {
+            future.cancel(false);
+        }
+    }
+
+    /**
+     * Complete one future with the result of another, cancelling it if the
+     * other is cancelled.
+     *
+     * @param from The future to wait on
+     * @param to The future to complete
+     */
+    static void forward(ListenableFuture<ClaimEntry> from, SettableFuture<ClaimEntry> to) {
+        Futures.addCallback(from, new FutureCallback<ClaimEntry>() {
+            @Override
+            public void onSuccess(ClaimEntry result) {
+                to.set(result);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                if (t instanceof CancellationException) {
+                    to.cancel(false);
+                } else {
+                    to.setException(t);
+                }
+            }
+        });
+    }
+
+    @Nullable
+    private SettableFuture<ClaimEntry> takeLoadFuture() {
+        if (loadFuture == null) {
+            return null;
+        }
+        synchronized (this) {
+            SettableFuture<ClaimEntry> future = loadFuture;
+            loadFuture = null;
+            return future;
+        }
     }
 
     public void setData(Claim claim, @Nullable Party party) {
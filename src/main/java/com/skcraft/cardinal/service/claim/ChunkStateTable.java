@@ -0,0 +1,382 @@
+package com.skcraft.cardinal.service.claim;
+
+import com.skcraft.cardinal.util.ChunkPosition;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * An index of {@link ChunkState}s for a single world, keyed by the packed
+ * chunk coordinates stored in each state.
+ *
+ * <p>Reads never block and never take a lock. The table is an open
+ * addressing hash table with linear probing. An empty slot only ever
+ * becomes occupied, an occupied slot only becomes a tombstone or takes
+ * another state with the same key, and a tombstone may be reused for a
+ * state with any key. No slot goes back to empty, and a present key stays
+ * in its slot, so a reader probing a slot array can never miss a key that
+ * is present. Writers serialize on the table's monitor and rebuild the
+ * slot array when it becomes too full, publishing the new array only
+ * after it has been completely filled.</p>
+ *
+ * <p>If the table is given a {@link CompactChunkStore}, states that have
+ * finished loading can be moved into the store with {@link #settle}. From
+ * then on, {@link #get(long)} returns a detached copy of the state from
+ * the store, and writes to the key replace the stored state. A state is
+ * always added to its destination before it is removed from its source,
+ * whichever way it moves. Because {@link #get(long)} reads the slot array
+ * before the store, it reads the slot array again when the store misses,
+ * which finds a state that moved out of the store in the meantime.</p>
+ */
+class ChunkStateTable {
+
+    private static final int MIN_CAPACITY = 64;
+    private static final ChunkState TOMBSTONE = new ChunkState(ChunkPosition.of("", 0, 0));
+
+    private volatile AtomicReferenceArray<ChunkState> slots;
+    @Nullable
+    private final CompactChunkStore compact;
+    private int size;
+    private int used; // Occupied slots plus tombstones
+
+    ChunkStateTable() {
+        this(null);
+    }
+
+    ChunkStateTable(@Nullable CompactChunkStore compact) {
+        this.slots = new AtomicReferenceArray<>(MIN_CAPACITY);
+        this.compact = compact;
+    }
+
+    private static int indexFor(long key, int mask) {
+        return ChunkPosition.mix(key) & mask;
+    }
+
+    /**
+     * Get the state for the given key without blocking.
+     *
+     * @param key The packed chunk coordinates
+     * @return The state, or null if there is none
+     */
+    @Nullable
+    public ChunkState get(long key) {
+        ChunkState state = getAttached(key);
+        if (state == null && compact != null) {
+            state = compact.get(key);
+            if (state == null) {
+                // The state may have been moved out of the store and into
+                // the slot array after the slot array was read
+                state = getAttached(key);
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Record an access to the given state at the given time, in the
+     * compact store if the state is a detached copy.
+     *
+     * @param state The state, which may be a detached copy
+     * @param time The time from {@link RegionEvictor#getClock()}
+     */
+    public void touch(ChunkState state, int time) {
+        if (state.isDetached() && compact != null) {
+            if (state.getAccessTime() != time) {
+                compact.touch(state.getKey(), time);
+            }
+        } else {
+            state.touch(time);
+        }
+    }
+
+    @Nullable
+    private ChunkState getAttached(long key) {
+        AtomicReferenceArray<ChunkState> slots = this.slots;
+        int mask = slots.length() - 1;
+        int i = indexFor(key, mask);
+        while (true) {
+            ChunkState state = slots.get(i);
+            if (state == null) {
+                return null;
+            } else if (state != TOMBSTONE && state.getKey() == key) {
+                return state;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    /**
+     * Put the state into the table, replacing any existing state with the
+     * same key.
+     *
+     * @param state The state
+     * @return The previous state, or null
+     */
+    @Nullable
+    public synchronized ChunkState put(ChunkState state) {
+        ChunkState previous = insert(state, true);
+        if (compact != null) {
+            ChunkState stored = compact.get(state.getKey());
+            if (stored != null) {
+                compact.remove(state.getKey());
+                if (previous == null) {
+                    previous = stored;
+                }
+            }
+        }
+        return previous;
+    }
+
+    /**
+     * Put the state into the table only if there is no existing state with
+     * the same key.
+     *
+     * @param state The state
+     * @return The existing state if there was one, otherwise null
+     */
+    @Nullable
+    public synchronized ChunkState putIfAbsent(ChunkState state) {
+        if (compact != null) {
+            ChunkState stored = compact.get(state.getKey());
+            if (stored != null) {
+                return stored;
+            }
+        }
+        return insert(state, false);
+    }
+
+    /**
+     * Put the state into the table if there is no existing state with the
+     * same key, or if the given predicate accepts the existing state.
+     *
+     * @param state The state
+     * @param replaceExisting A predicate that decides whether to replace an existing state
+     * @return True if the state was put into the table
+     */
+    public synchronized boolean putIf(ChunkState state, Predicate<ChunkState> replaceExisting) {
+        ChunkState existing = get(state.getKey());
+        if (existing == null || replaceExisting.test(existing)) {
+            insert(state, true);
+            if (compact != null) {
+                compact.remove(state.getKey());
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Remove the given state if it is still the state for its key.
+     *
+     * @param state The state
+     * @return True if the state was removed
+     */
+    public synchronized boolean remove(ChunkState state) {
+        if (getAttached(state.getKey()) == state) {
+            removeAttached(state.getKey());
+            return true;
+        } else if (state.isDetached() && compact != null) {
+            return compact.remove(state.getKey(), state.getGeneration());
+        }
+        return false;
+    }
+
+    /**
+     * Remove the state for the given key.
+     *
+     * @param key The packed chunk coordinates
+     * @return The removed state, or null
+     */
+    @Nullable
+    public synchronized ChunkState remove(long key) {
+        ChunkState removed = removeAttached(key);
+        if (compact != null) {
+            ChunkState stored = compact.get(key);
+            if (stored != null) {
+                compact.remove(key);
+                if (removed == null) {
+                    removed = stored;
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Move the given state into the compact store if it is still the state
+     * for its key and it has finished loading, with nobody waiting on it.
+     *
+     * <p>If the table has no compact store, this method does nothing.</p>
+     *
+     * @param state The state
+     * @return True if the state was moved
+     */
+    public synchronized boolean settle(ChunkState state) {
+        if (compact == null || getAttached(state.getKey()) != state) {
+            return false;
+        }
+        // The queued flag is read without the queue's lock, but a state
+        // that is queued without being pending is skipped by the workers
+        if (!state.isLoaded() || state.isPending() || state.isQueued() || state.hasLoadFuture()) {
+            return false;
+        }
+        compact.put(state);
+        removeAttached(state.getKey());
+        return true;
+    }
+
+    /**
+     * Remove the given state if it is still the state for its key and it
+     * has finished loading, without being queued or pending a load again.
+     *
+     * <p>States are only ever marked as pending while they are outside the
+     * table or while the table's lock is held, so a state that passes the
+     * check can't start loading before it is removed.</p>
+     *
+     * @param state The state, which may be a detached copy
+     * @return True if the state was removed
+     */
+    public synchronized boolean evict(ChunkState state) {
+        if (getAttached(state.getKey()) == state) {
+            if (!state.isLoaded() || state.isPending() || state.isQueued()) {
+                return false;
+            }
+            removeAttached(state.getKey());
+            return true;
+        } else if (state.isDetached() && compact != null) {
+            return compact.remove(state.getKey(), state.getGeneration());
+        }
+        return false;
+    }
+
+    /**
+     * Mark the given state as pending a load, first moving it back out of
+     * the compact store if it is a detached copy.
+     *
+     * @param state The state, which may be a detached copy
+     * @return The state that was marked, which is in the table, or null if the state is no longer in the table
+     */
+    @Nullable
+    public synchronized ChunkState attachPending(ChunkState state) {
+        if (getAttached(state.getKey()) == state) {
+            state.setPending(true);
+            return state;
+        } else if (state.isDetached() && compact != null) {
+            ChunkState stored = compact.get(state.getKey());
+            if (stored != null && stored.getGeneration() == state.getGeneration()) {
+                state.setDetached(false);
+                state.setPending(true);
+                insert(state, true);
+                compact.remove(state.getKey());
+                return state;
+            }
+        }
+        return null;
+    }
+
+    @Nullable
+    private ChunkState removeAttached(long key) {
+        AtomicReferenceArray<ChunkState> slots = this.slots;
+        int mask = slots.length() - 1;
+        int i = indexFor(key, mask);
+        while (true) {
+            ChunkState existing = slots.get(i);
+            if (existing == null) {
+                return null;
+            } else if (existing != TOMBSTONE && existing.getKey() == key) {
+                slots.set(i, TOMBSTONE);
+                size--;
+                return existing;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    /**
+     * Call the given consumer for every state in the table.
+     *
+     * <p>The iteration is performed over the slot array at the time of
+     * the call and so it is not affected by concurrent writes.</p>
+     *
+     * @param consumer The consumer
+     */
+    public void forEach(Consumer<ChunkState> consumer) {
+        AtomicReferenceArray<ChunkState> slots = this.slots;
+        for (int i = 0; i < slots.length(); i++) {
+            ChunkState state = slots.get(i);
+            if (state != null && state != TOMBSTONE) {
+                consumer.accept(state);
+            }
+        }
+        if (compact != null) {
+            compact.forEach(consumer);
+        }
+    }
+
+    public synchronized int size() {
+        return compact != null ? size + compact.size() : size;
+    }
+
+    private ChunkState insert(ChunkState state, boolean replace) {
+        long key = state.getKey();
+        AtomicReferenceArray<ChunkState> slots = this.slots;
+        int mask = slots.length() - 1;
+        int i = indexFor(key, mask);
+        int free = -1;
+        while (true) {
+            ChunkState existing = slots.get(i);
+            if (existing == null) {
+                break;
+            } else if (existing == TOMBSTONE) {
+                if (free == -1) {
+                    free = i;
+                }
+            } else if (existing.getKey() == key) {
+                if (replace) {
+                    slots.set(i, state);
+                }
+                return existing;
+            }
+            i = (i + 1) & mask;
+        }
+
+        if (free != -1) {
+            slots.set(free, state);
+        } else {
+            slots.set(i, state);
+            used++;
+        }
+        size++;
+
+        if (used * 2 > slots.length()) {
+            rehash();
+        }
+
+        return null;
+    }
+
+    private void rehash() {
+        AtomicReferenceArray<ChunkState> old = this.slots;
+        int capacity = MIN_CAPACITY;
+        while (capacity < size * 4) {
+            capacity <<= 1;
+        }
+        AtomicReferenceArray<ChunkState> slots = new AtomicReferenceArray<>(capacity);
+        int mask = capacity - 1;
+        for (int j = 0; j < old.length(); j++) {
+            ChunkState state = old.get(j);
+            if (state != null && state != TOMBSTONE) {
+                int i = indexFor(state.getKey(), mask);
+                while (slots.get(i) != null) {
+                    i = (i + 1) & mask;
+                }
+                slots.set(i, state);
+            }
+        }
+        this.used = size;
+        this.slots = slots;
+    }
+
+}
@@ -1,58 +1,118 @@
 package com.skcraft.cardinal.service.claim;
 
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.skcraft.cardinal.event.ReloadEvent;
+import com.skcraft.cardinal.profile.MojangId;
+import com.skcraft.cardinal.event.claim.ClaimsChangedEvent;
+import com.skcraft.cardinal.event.claim.ClaimsLoadedEvent;
+import com.skcraft.cardinal.util.ChunkArea;
+import com.skcraft.cardinal.util.ChunkPosition;
+import com.skcraft.cardinal.util.DataAccessException;
+import com.skcraft.cardinal.util.RetryMutex;
+import com.skcraft.cardinal.util.WorldIds;
 import com.skcraft.cardinal.util.WorldVector3i;
+import com.skcraft.cardinal.util.concurrent.Deferred;
+import com.skcraft.cardinal.util.concurrent.Deferreds;
 import com.skcraft.cardinal.service.party.Party;
 import com.skcraft.cardinal.service.party.PartyCache;
 import com.skcraft.cardinal.util.event.EventBus;
 import com.skcraft.cardinal.util.event.Subscribe;
-import gnu.trove.iterator.TLongObjectIterator;
-import gnu.trove.map.hash.TLongObjectHashMap;
 import lombok.Getter;
 import lombok.extern.java.Log;
 
 import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.logging.Level;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 
 /**
  * Loads claims asynchronously when they are requested, and then later
  * provides that information on demand.
  *
  * <p>Claims are loaded in batches whenever possible to minimize round trips
- * to the underlying database, which does mean that there may be a maximum
- * delay of one second (plus the time it takes for the database response)
- * for claim data that was requested to be made available. Claim data can
+ * to the underlying database. When the workers are idle, a request is
+ * loaded immediately; when they are busy, requests are collected into
+ * batches whose size and collection time adapt to the measured database
+ * latency (see {@link AdaptiveBatchPolicy}), which means that there may be
+ * a delay of up to {@link ClaimCacheConfig#getMaxCollectTime()} (plus the
+ * time it takes for the database response) for claim data that was
+ * requested to be made available. Requests for chunks nearest to online
+ * players (see {@link #updatePlayerChunks(Collection)}) are loaded
+ * first. Claim data can
  * be requested on a chunk-by-chunk basis using
  * {@link #queueChunk(WorldVector3i)}, which should be called when
  * chunks are being loaded in a world. When chunks are being unloaded
  * from a world, then {@link #invalidateChunk(WorldVector3i)} should be
  * called.</p>
  *
+ * <p>Code that needs to act once claim data is available can use
+ * {@link #queueChunk(ChunkPosition, ListeningExecutorService)} or
+ * {@link #queueChunks(Collection, ListeningExecutorService)}, which return
+ * a {@link Deferred} that completes when the data has been loaded and runs
+ * callbacks on the given executor, instead of polling
+ * {@link #getIfPresent(WorldVector3i)}.</p>
+ *
  * <p>If changes are made to claims, then {@link #put(Collection)}
  * can be used to inform the cache of updates. Only claims that have been
  * requested previously (through {@link #queueChunk(WorldVector3i)})
  * will be updated; claims not yet requested will not be cached.</p>
  *
- * <p>Multiple read attempts share a read lock and will minimally block,
- * but writes to the cache (through {@code put()}) require a write
- * lock that will block other threads. However, the update is brief and
- * the block should not last for very long. Asynchronous updates (as
- * data is pulled from the underlying database) do not involve any locks.</p>
+ * <p>Reads (through {@link #getIfPresent(WorldVector3i)}) never take a lock
+ * and never block, so they are safe to call from the world tick thread even
+ * while chunks are being queued or invalidated in bulk. Chunk states are
+ * stored in a flat {@link ChunkStateTable} per world, and the tables are
+ * kept in an array indexed by the world's ID from {@link WorldIds}. Writes
+ * to a world (through {@code queueChunk()}, {@code invalidateChunk()} or
+ * {@code put()}) only serialize with other writes to the same world.
+ * Asynchronous updates (as data is pulled from the underlying database) do
+ * not involve any locks.</p>
+ *
+ * <p>If {@link ClaimCacheConfig#isPresenceIndex()} is enabled, an index of
+ * every claimed chunk is kept in memory, and chunks that are not in the
+ * index are marked as loaded (and unclaimed) as soon as they are queued,
+ * without a database query. A {@link ClaimsLoadedEvent} is still posted
+ * for each of them.</p>
+ *
+ * <p>If {@link ClaimCacheConfig#isPreload()} is enabled, every claim on
+ * the server is loaded into memory at startup instead, and once that has
+ * completed, no chunk needs to be loaded from the database.</p>
+ *
+ * <p>If {@link ClaimCacheConfig#getSnapshotFile()} is set, the loaded
+ * claims are written to a {@link ClaimSnapshot} from time to time and
+ * read back at startup, so claims can be served before they have been
+ * loaded from the database again.</p>
+ *
+ * <p>If {@link ClaimCacheConfig#getMaxChunks()} is set, chunks are also
+ * removed without being invalidated, a region at a time, once the cache
+ * grows past the limit (see {@link RegionEvictor}).</p>
  *
  * <p>When the database is unable to retrieve claim data, the attempt
  * will be aborted and no claim data will be available for that chunk. This
@@ -70,41 +130,274 @@ public class ClaimCache {
      */
     public static final int DEFAULT_WORKER_COUNT = 2;
 
-    private final LoadingCache<String, TLongObjectHashMap<ChunkState>> statesByWorld = CacheBuilder.newBuilder()
-            .build(new CacheLoader<String, TLongObjectHashMap<ChunkState>>() {
-                @Override
-                public TLongObjectHashMap<ChunkState> load(@Nullable String key) throws Exception {
-                    return new TLongObjectHashMap<>();
-                }
-            });
+    /**
+     * The entry returned for every unclaimed chunk that is not in the cache
+     * once every claim has been preloaded.
+     */
+    private static final ClaimEntry UNCLAIMED = new UnclaimedEntry();
+
+    private final Object worldsLock = new Object();
+    private volatile ChunkStateTable[] statesByWorld = new ChunkStateTable[0]; // Indexed by world ID
 
     @Getter
     private final ClaimMap claimMap;
     private final PartyCache parties;
-    private final BlockingQueue<ChunkState> statePopulateQueue = new LinkedBlockingQueue<>();
-    private final ReadWriteLock stateLock = new ReentrantReadWriteLock();
+    private final EventBus eventBus;
+    private final ClaimCacheConfig config;
+    @Getter
+    private final AdaptiveBatchPolicy batchPolicy;
+    @Nullable
+    private final ClaimPresenceIndex presenceIndex;
+    private final RetryMutex presenceIndexLoad = new RetryMutex(this::loadPresenceIndex);
+    @Nullable
+    private final ClaimPreloader preloader;
+    private final RetryMutex preload = new RetryMutex(this::preloadClaims);
+    private final PopulateQueue statePopulateQueue;
+    private final LongAdder wastedLoadCount = new LongAdder();
+    private final Object snapshotLock = new Object();
+    @Nullable
+    private final CompactChunkStore.Dictionary compactDictionary;
+    @Nullable
+    private final RegionEvictor evictor;
+    private volatile List<ChunkPosition> playerChunks = Collections.emptyList();
+    private final ClaimCacheMetrics metrics;
 
-    @Inject
     public ClaimCache(ClaimMap claims, PartyCache parties, EventBus eventBus) {
-        this(claims, parties, eventBus, DEFAULT_WORKER_COUNT);
+        this(claims, parties, eventBus, new ClaimCacheConfig());
     }
 
     public ClaimCache(ClaimMap claims, PartyCache parties, EventBus eventBus, int workerThreadCount) {
+        this(claims, parties, eventBus, createConfig(workerThreadCount));
+    }
+
+    @Inject
+    public ClaimCache(ClaimMap claims, PartyCache parties, EventBus eventBus, ClaimCacheConfig config) {
         checkNotNull(claims, "claims");
         checkNotNull(parties, "parties");
-        checkArgument(workerThreadCount >= 1, "workerThreadCount >= 1");
+        checkNotNull(eventBus, "eventBus");
+        checkNotNull(config, "config");
+        checkArgument(config.getWorkerCount() >= 1, "workerCount >= 1");
+        checkArgument(!config.isRegionPrefetch() || config.getMaxChunks() > 0, "regionPrefetch requires maxChunks > 0");
+        checkArgument(!config.isPreload() || !config.isPresenceIndex(), "preload already knows every claimed chunk, so presenceIndex can't also be enabled");
+        checkArgument(!config.isPreload() || !config.isRegionPrefetch(), "preload already loads every claim, so regionPrefetch can't also be enabled");
+        checkArgument(config.getSnapshotFile() == null || config.getServerId() != null, "snapshotFile requires serverId");
         this.claimMap = claims;
         this.parties = parties;
+        this.eventBus = eventBus;
+        this.config = config;
+        this.batchPolicy = new AdaptiveBatchPolicy(config);
+        this.metrics = new ClaimCacheMetrics(this, batchPolicy);
+        this.statePopulateQueue = new PopulateQueue(config.getReprioritizeInterval(), this::isCached, this::release);
+        this.presenceIndex = config.isPresenceIndex() ? new ClaimPresenceIndex() : null;
+        this.preloader = config.isPreload() ? new ClaimPreloader(this, claims, parties) : null;
+        this.compactDictionary = config.isCompactStates() ? new CompactChunkStore.Dictionary() : null;
+        this.evictor = config.getMaxChunks() > 0 ? new RegionEvictor(this, config.getMaxChunks(), config.getViewDistance(), config.isPreload()) : null;
+        int workerThreadCount = config.getWorkerCount();
 
         ThreadFactory threadFactory = new ThreadFactoryBuilder()
                 .setDaemon(true)
                 .setNameFormat("Plume Chunk State Worker #%d").build();
 
         for (int i = 0; i < workerThreadCount; i++) {
-            threadFactory.newThread(new PopulateWorker(claims, parties, statePopulateQueue)).start();
+            threadFactory.newThread(new PopulateWorker(this, claims, parties, statePopulateQueue, batchPolicy)).start();
         }
 
         eventBus.register(this);
+
+        if (config.getJmxName() != null) {
+            metrics.register(config.getJmxName());
+        }
+
+        File snapshotFile = config.getSnapshotFile();
+        if (snapshotFile != null) {
+            loadSnapshot(snapshotFile);
+            ScheduledExecutorService snapshotScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setDaemon(true)
+                    .setNameFormat("Claim Snapshot Writer").build());
+            snapshotScheduler.scheduleWithFixedDelay(() -> {
+                try {
+                    saveSnapshot();
+                } catch (Exception e) {
+                    log.log(Level.WARNING, "Failed to write the claim snapshot", e);
+                }
+            }, config.getSnapshotInterval(), config.getSnapshotInterval(), TimeUnit.MILLISECONDS);
+        }
+
+        if (evictor != null) {
+            ScheduledExecutorService evictionScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setDaemon(true)
+                    .setNameFormat("Claim Cache Evictor").build());
+            evictionScheduler.scheduleWithFixedDelay(() -> {
+                try {
+                    evictor.evict();
+                } catch (Exception e) {
+                    log.log(Level.WARNING, "Failed to evict chunks from the claim cache", e);
+                }
+            }, config.getEvictionInterval(), config.getEvictionInterval(), TimeUnit.MILLISECONDS);
+        }
+
+        if (presenceIndex != null) {
+            presenceIndexLoad.start();
+        }
+        if (preloader != null) {
+            preload.start();
+        }
+    }
+
+    private static ClaimCacheConfig createConfig(int workerThreadCount) {
+        ClaimCacheConfig config = new ClaimCacheConfig();
+        config.setWorkerCount(workerThreadCount);
+        return config;
+    }
+
+    /**
+     * Get the configuration that the cache was created with.
+     *
+     * @return The configuration
+     */
+    public ClaimCacheConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Get the progress of preloading every claim, if
+     * {@link ClaimCacheConfig#isPreload()} is enabled.
+     *
+     * @return The progress, or null if preloading is disabled
+     */
+    @Nullable
+    public PreloadProgress getPreloadProgress() {
+        return preloader != null ? preloader.getProgress() : null;
+    }
+
+    /**
+     * Set the chunks that online players are in, so that chunks nearest to
+     * players are loaded first.
+     *
+     * <p>This method is intended to be called every tick and is cheap when
+     * no player has moved to another chunk since the last call.</p>
+     *
+     * @param chunks The chunks, one for each online player
+     */
+    public void updatePlayerChunks(Collection<ChunkPosition> chunks) {
+        checkNotNull(chunks, "chunks");
+        statePopulateQueue.setPlayers(chunks);
+        if (evictor != null) {
+            playerChunks = ImmutableList.copyOf(chunks);
+        }
+    }
+
+    /**
+     * Get the chunks that online players were last known to be in.
+     *
+     * <p>This is only kept up to date if the cache has a size limit.</p>
+     *
+     * @return The chunks
+     */
+    List<ChunkPosition> getPlayerChunks() {
+        return playerChunks;
+    }
+
+    /**
+     * Get a snapshot of the cache's metrics.
+     *
+     * @return The metrics
+     */
+    public ClaimCacheStats getStats() {
+        return metrics.snapshot();
+    }
+
+    ClaimCacheMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Get the number of chunks in the cache for each world, including
+     * chunks that are waiting to be loaded.
+     *
+     * @return A map of world names to the number of chunks
+     */
+    public Map<String, Integer> getResidentCounts() {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        ChunkStateTable[] statesByWorld = this.statesByWorld;
+        for (int world = 0; world < statesByWorld.length; world++) {
+            if (statesByWorld[world] != null) {
+                counts.put(WorldIds.getName(world), statesByWorld[world].size());
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Get the number of chunks that were evicted because the cache was
+     * over {@link ClaimCacheConfig#getMaxChunks()}.
+     *
+     * @return The number of evicted chunks
+     */
+    public long getEvictedCount() {
+        return evictor != null ? evictor.getEvictedChunkCount() : 0;
+    }
+
+    /**
+     * Get the number of regions that had chunks evicted because the cache
+     * was over {@link ClaimCacheConfig#getMaxChunks()}, counting a region
+     * again each time.
+     *
+     * @return The number of evicted regions
+     */
+    public long getEvictedRegionCount() {
+        return evictor != null ? evictor.getEvictedRegionCount() : 0;
+    }
+
+    /**
+     * Evict chunks now if the cache is over its size limit, instead of
+     * waiting for the next scheduled check.
+     *
+     * @return The number of evicted chunks
+     * @throws IllegalStateException Thrown if the cache has no size limit
+     */
+    public int evict() {
+        checkState(evictor != null, "The cache has no size limit");
+        return evictor.evict();
+    }
+
+    /**
+     * Get the number of chunks waiting to be loaded from the database.
+     *
+     * @return The number of chunks
+     */
+    public int getQueueSize() {
+        return statePopulateQueue.size();
+    }
+
+    /**
+     * Get the number of load requests that were skipped because the chunk
+     * was already waiting to be loaded.
+     *
+     * @return The number of duplicate requests
+     */
+    public long getDuplicateLoadCount() {
+        return statePopulateQueue.getDuplicateCount();
+    }
+
+    /**
+     * Get the number of load requests that were dropped before reaching
+     * the database because the chunk was invalidated in the meantime.
+     *
+     * @return The number of cancelled loads
+     */
+    public long getCancelledLoadCount() {
+        return statePopulateQueue.getCancelledCount();
+    }
+
+    /**
+     * Get the number of chunks that were loaded from the database but had
+     * been invalidated while the query was running.
+     *
+     * @return The number of wasted loads
+     */
+    public long getWastedLoadCount() {
+        return wastedLoadCount.sum();
     }
 
     @Subscribe
@@ -122,22 +415,128 @@ public class ClaimCache {
      */
     public void queueChunk(WorldVector3i position) {
         checkNotNull(position, "position");
-        Lock lock = stateLock.writeLock();
-        try {
-            lock.lock();
-            TLongObjectHashMap<ChunkState> states = statesByWorld.getUnchecked(position.getWorldId());
-            long key = toLong(position);
-            ChunkState state = states.get(key);
-            if (state == null) {
-                state = new ChunkState(position);
-                states.put(key, state);
+        queueChunk(ChunkPosition.of(position));
+    }
+
+    /**
+     * Request claim data for the given position.
+     *
+     * <p>The method will submit a request to the queue but will not wait until
+     * the data has been fetched.</p>
+     *
+     * @param chunk The position of the chunk
+     */
+    public void queueChunk(ChunkPosition chunk) {
+        checkNotNull(chunk, "chunk");
+        while (true) {
+            ChunkStateTable states = getStates(chunk.getWorld());
+            ChunkState existing = states.get(chunk.getKey());
+            if (existing != null) {
+                if (evictor != null) {
+                    states.touch(existing, evictor.getClock());
+                }
+                return;
+            }
+            ChunkState state = new ChunkState(chunk);
+            if (evictor != null) {
+                state.touch(evictor.getClock());
+            }
+            boolean known = isKnownUnclaimed(chunk);
+            if (known) {
+                state.setLoaded(true); // Known to be unclaimed
+            } else {
+                state.setPending(true);
+                state.setQueueTime(System.nanoTime());
+            }
+            if (states.putIfAbsent(state) != null) {
+                return;
+            }
+            if (findStates(chunk.getWorld()) != states) {
+                continue; // The world was invalidated while the state was being added, so add it to the new table
+            }
+            if (known) {
+                states.settle(state);
+                post(new ClaimsLoadedEvent(Collections.singletonList(chunk)));
+            } else {
                 statePopulateQueue.add(state);
             }
-        } finally {
-            lock.unlock();
+            return;
         }
     }
 
+    /**
+     * Request claim data for the given position and get a handle that
+     * completes once the data is available.
+     *
+     * <p>If the data is already cached, the returned handle is already
+     * complete. If the chunk is invalidated before its data is loaded, the
+     * handle is cancelled.</p>
+     *
+     * @param position The position of the chunk
+     * @param executor The default executor for callbacks on the handle
+     * @return A handle that completes with the claim entry
+     */
+    public Deferred<ClaimEntry> queueChunk(WorldVector3i position, ListeningExecutorService executor) {
+        checkNotNull(position, "position");
+        return queueChunk(ChunkPosition.of(position), executor);
+    }
+
+    /**
+     * Request claim data for the given position and get a handle that
+     * completes once the data is available.
+     *
+     * <p>If the data is already cached, the returned handle is already
+     * complete. If the chunk is invalidated before its data is loaded, the
+     * handle is cancelled.</p>
+     *
+     * @param chunk The position of the chunk
+     * @param executor The default executor for callbacks on the handle
+     * @return A handle that completes with the claim entry
+     */
+    public Deferred<ClaimEntry> queueChunk(ChunkPosition chunk, ListeningExecutorService executor) {
+        checkNotNull(chunk, "chunk");
+        checkNotNull(executor, "executor");
+        return Deferreds.makeDeferred(queueAndWatch(chunk), executor);
+    }
+
+    /**
+     * Request claim data for several positions and get a handle that
+     * completes once the data for all of them is available.
+     *
+     * <p>If any of the chunks is invalidated before its data is loaded,
+     * the handle is cancelled.</p>
+     *
+     * @param chunks The positions of the chunks
+     * @param executor The default executor for callbacks on the handle
+     * @return A handle that completes with the claim entries, in the same order as the positions
+     */
+    public Deferred<List<ClaimEntry>> queueChunks(Collection<ChunkPosition> chunks, ListeningExecutorService executor) {
+        checkNotNull(chunks, "chunks");
+        checkNotNull(executor, "executor");
+        List<ListenableFuture<ClaimEntry>> futures = new ArrayList<>(chunks.size());
+        for (ChunkPosition chunk : chunks) {
+            checkNotNull(chunk, "chunk");
+            futures.add(queueAndWatch(chunk));
+        }
+        return Deferreds.makeDeferred(Futures.allAsList(futures), executor);
+    }
+
+    private ListenableFuture<ClaimEntry> queueAndWatch(ChunkPosition chunk) {
+        queueChunk(chunk);
+        ChunkState state = getStates(chunk.getWorld()).get(chunk.getKey());
+        if (state == null) {
+            return Futures.immediateCancelledFuture(); // Invalidated right away
+        } else if (state.isLoaded()) {
+            return Futures.immediateFuture(state);
+        }
+
+        // Give each caller its own future so that cancelling one handle
+        // does not cancel the others waiting on the same chunk
+        SettableFuture<ClaimEntry> future = SettableFuture.create();
+        ChunkState.forward(state.getLoadFuture(), future);
+        return future;
+    }
+
     /**
      * Remove cached claim data for the given position.
      *
@@ -145,29 +544,58 @@ public class ClaimCache {
      */
     public void invalidateChunk(WorldVector3i position) {
         checkNotNull(position, "position");
-        Lock lock = stateLock.writeLock();
-        try {
-            lock.lock();
-            TLongObjectHashMap<ChunkState> states = statesByWorld.getUnchecked(position.getWorldId());
-            states.remove(toLong(position));
-        } finally {
-            lock.unlock();
+        invalidate(WorldIds.find(position.getWorldId()), ChunkPosition.pack(position.getX(), position.getZ()));
+    }
+
+    /**
+     * Remove cached claim data for the given position.
+     *
+     * @param chunk The position of the chunk
+     */
+    public void invalidateChunk(ChunkPosition chunk) {
+        checkNotNull(chunk, "chunk");
+        invalidate(chunk.getWorld(), chunk.getKey());
+    }
+
+    private void invalidate(int world, long key) {
+        ChunkStateTable states = findStates(world);
+        if (states != null) {
+            if (preloader != null) {
+                // Preloaded claims can't be loaded again without another scan
+                ChunkState state = states.get(key);
+                if (state != null && state.getClaim() == null && states.remove(state)) {
+                    state.setPending(false); // Cancel any load in progress
+                    state.cancelLoad();
+                }
+            } else {
+                ChunkState state = states.remove(key);
+                if (state != null) {
+                    state.setPending(false); // Cancel any load in progress
+                    state.cancelLoad();
+                }
+            }
         }
     }
 
     /**
      * Removed cache claim data for all chunks in a given world.
      *
+     * <p>If {@link ClaimCacheConfig#isPreload()} is enabled, this method
+     * does nothing.</p>
+     *
      * @param worldName The world name
      */
     public void invalidateChunksInWorld(String worldName) {
         checkNotNull(worldName, "worldName");
-        Lock lock = stateLock.writeLock();
-        try {
-            lock.lock();
-            statesByWorld.invalidate(worldName);
-        } finally {
-            lock.unlock();
+        int world = WorldIds.find(worldName);
+        if (world != -1 && preloader == null) {
+            synchronized (worldsLock) {
+                if (world < statesByWorld.length) {
+                    ChunkStateTable[] states = statesByWorld.clone();
+                    states[world] = null;
+                    statesByWorld = states;
+                }
+            }
         }
     }
 
@@ -177,25 +605,60 @@ public class ClaimCache {
      * <p>This method is the recommended method to use to get claim data
      * while the world is ticking.</p>
      *
+     * <p>Once every claim has been preloaded, chunks that are not in the
+     * cache are unclaimed, and one shared entry without a position is
+     * returned for all of them.</p>
+     *
      * @param position The position of the chunk
      * @return The claim entry, otherwise null
      */
     @Nullable
     public ClaimEntry getIfPresent(WorldVector3i position) {
         checkNotNull(position, "position");
-        Lock lock = stateLock.readLock();
-        try {
-            lock.lock();
-            TLongObjectHashMap<ChunkState> states = statesByWorld.getUnchecked(position.getWorldId());
-            long key = toLong(position);
-            ChunkState state = states.get(key);
-            if (state == null) {
-                return null;
-            } else {
-                return state.isLoaded() ? state : null;
+        return getIfPresent(WorldIds.find(position.getWorldId()), ChunkPosition.pack(position.getX(), position.getZ()));
+    }
+
+    /**
+     * Get a claim for the given position if it has been cached.
+     *
+     * <p>This method is the recommended method to use to get claim data
+     * while the world is ticking.</p>
+     *
+     * <p>Once every claim has been preloaded, chunks that are not in the
+     * cache are unclaimed, and one shared entry without a position is
+     * returned for all of them.</p>
+     *
+     * @param chunk The position of the chunk
+     * @return The claim entry, otherwise null
+     */
+    @Nullable
+    public ClaimEntry getIfPresent(ChunkPosition chunk) {
+        checkNotNull(chunk, "chunk");
+        return getIfPresent(chunk.getWorld(), chunk.getKey());
+    }
+
+    @Nullable
+    private ClaimEntry getIfPresent(int world, long key) {
+        ChunkStateTable states = findStates(world);
+        ChunkState state = states != null ? states.get(key) : null;
+        if (state == null) {
+            if (world != -1 && preloader != null && preloader.isComplete()) {
+                // Every claim is in memory, so anything missing is unclaimed
+                metrics.recordHit();
+                return UNCLAIMED;
+            }
+            metrics.recordMiss();
+            return null;
+        } else {
+            if (evictor != null) {
+                states.touch(state, evictor.getClock());
+            }
+            if (state.isLoaded()) {
+                metrics.recordHit();
+                return state;
             }
-        } finally {
-            lock.unlock();
+            metrics.recordMiss();
+            return null;
         }
     }
 
@@ -205,21 +668,25 @@ public class ClaimCache {
      */
     public void refreshAll() {
         log.info("Reloading all claims...");
-        Lock lock = stateLock.writeLock();
-        try {
-            lock.lock();
-            for (TLongObjectHashMap<ChunkState> states : statesByWorld.asMap().values()) {
-                TLongObjectIterator<ChunkState> it = states.iterator();
-                while (it.hasNext()) {
-                    it.advance();
-                    ChunkState state = it.value();
-                    if (state.isLoaded()) {
-                        statePopulateQueue.add(state);
+        if (presenceIndex != null) {
+            presenceIndexLoad.restart();
+        }
+        if (preloader != null) {
+            preload.restart();
+            return;
+        }
+        for (ChunkStateTable states : statesByWorld) {
+            if (states == null) {
+                continue;
+            }
+            states.forEach(state -> {
+                if (state.isLoaded()) {
+                    ChunkState attached = states.attachPending(state);
+                    if (attached != null) {
+                        statePopulateQueue.add(attached);
                     }
                 }
-            }
-        } finally {
-            lock.unlock();
+            });
         }
     }
 
@@ -227,63 +694,472 @@ public class ClaimCache {
      * Write the given claim data to the cache, only writing data for claims
      * that are already in the cache or are pending load.
      *
+     * <p>One {@link ClaimsChangedEvent} is posted with every loaded chunk
+     * whose claim differs from what was cached, and one
+     * {@link ClaimsLoadedEvent} with every chunk that was waiting to be
+     * loaded.</p>
+     *
      * @param claims The claims
      */
     public void putAll(Collection<Claim> claims) {
         checkNotNull(claims, "claims");
-        Lock lock = stateLock.writeLock();
-        try {
-            lock.lock();
-            for (Claim claim : claims) {
-                if (claim != null) {
-                    WorldVector3i position = new WorldVector3i(claim.getPosition().getWorldId(), claim.getPosition().getX(), 0, claim.getPosition().getZ());
-                    TLongObjectHashMap<ChunkState> states = statesByWorld.getUnchecked(position.getWorldId());
-
-                    String partyName = claim.getParty();
-                    Party party = null;
-                    if (partyName != null) {
-                        party = parties.get(partyName);
-                    }
+        Set<String> partyNames = new HashSet<>();
+        for (Claim claim : claims) {
+            if (claim != null && claim.getParty() != null) {
+                partyNames.add(claim.getParty());
+            }
+        }
+        Map<String, Party> loadedParties = partyNames.isEmpty() ? Collections.emptyMap() : parties.getAll(partyNames);
+        List<ChunkPosition> loaded = new ArrayList<>();
+        List<ChunkPosition> changed = new ArrayList<>();
+
+        for (Claim claim : claims) {
+            if (claim != null) {
+                ChunkPosition chunk = ChunkPosition.of(claim.getPosition());
+                ChunkStateTable states = getStates(chunk.getWorld());
+
+                String partyName = claim.getParty();
+                Party party = null;
+                if (partyName != null) {
+                    party = loadedParties.get(partyName.toLowerCase());
+                }
 
-                    ChunkState state = new ChunkState(position);
-                    state.setData(claim, party);
-                    state.setLoaded(true);
-                    states.put(toLong(position), state);
+                if (presenceIndex != null) {
+                    presenceIndex.set(chunk, true);
                 }
+
+                ChunkState state = new ChunkState(chunk);
+                state.setData(claim, party);
+                put(states, state, loaded, changed);
             }
-        } finally {
-            lock.unlock();
         }
+
+        postEvents(loaded, changed);
     }
 
     /**
      * Set the given positions as unclaimed in the cache if those positions
      * are already cached.
      *
+     * <p>One {@link ClaimsChangedEvent} is posted with every loaded chunk
+     * whose claim differs from what was cached, and one
+     * {@link ClaimsLoadedEvent} with every chunk that was waiting to be
+     * loaded.</p>
+     *
      * @param positions The positions
      */
     public void putAsUnclaimed(Collection<WorldVector3i> positions) {
         checkNotNull(positions, "positions");
-        Lock lock = stateLock.writeLock();
+        List<ChunkPosition> loaded = new ArrayList<>();
+        List<ChunkPosition> changed = new ArrayList<>();
+        for (WorldVector3i position : positions) {
+            if (position != null) {
+                ChunkPosition chunk = ChunkPosition.of(position);
+                ChunkStateTable states = getStates(chunk.getWorld());
+                if (presenceIndex != null) {
+                    presenceIndex.set(chunk, false);
+                }
+                put(states, new ChunkState(chunk), loaded, changed);
+            }
+        }
+
+        postEvents(loaded, changed);
+    }
+
+    /**
+     * Write a claim by the given owner to the cache for every chunk in the
+     * given areas, in one pass over the areas.
+     *
+     * <p>One {@link ClaimsChangedEvent} is posted with every loaded chunk
+     * whose claim differs from what was cached, and one
+     * {@link ClaimsLoadedEvent} with every chunk that was waiting to be
+     * loaded.</p>
+     *
+     * @param areas A union of areas, which may overlap
+     * @param server The server ID of the claims
+     * @param owner The owner
+     * @param partyName The party of the claims, or null
+     */
+    public void putArea(Collection<ChunkArea> areas, String server, MojangId owner, @Nullable String partyName) {
+        checkNotNull(areas, "areas");
+        checkNotNull(server, "server");
+        checkNotNull(owner, "owner");
+        Party party = partyName != null ? parties.get(partyName) : null;
+        Date now = new Date();
+        List<ChunkPosition> loaded = new ArrayList<>();
+        List<ChunkPosition> changed = new ArrayList<>();
+
+        for (ChunkArea area : areas) {
+            ChunkStateTable states = getStates(WorldIds.get(area.getWorldId()));
+            area.forEach(chunk -> {
+                if (presenceIndex != null) {
+                    presenceIndex.set(chunk, true);
+                }
+                Claim claim = new Claim(server, chunk.toVector());
+                claim.setOwner(owner);
+                claim.setParty(partyName);
+                claim.setIssueTime(now);
+                ChunkState state = new ChunkState(chunk);
+                state.setData(claim, party);
+                put(states, state, loaded, changed);
+            });
+        }
+
+        postEvents(loaded, changed);
+    }
+
+    /**
+     * Set every chunk in the given areas as unclaimed in the cache, in one
+     * pass over the areas.
+     *
+     * <p>One {@link ClaimsChangedEvent} is posted with every loaded chunk
+     * whose claim differs from what was cached, and one
+     * {@link ClaimsLoadedEvent} with every chunk that was waiting to be
+     * loaded.</p>
+     *
+     * @param areas A union of areas, which may overlap
+     */
+    public void putAreaAsUnclaimed(Collection<ChunkArea> areas) {
+        checkNotNull(areas, "areas");
+        List<ChunkPosition> loaded = new ArrayList<>();
+        List<ChunkPosition> changed = new ArrayList<>();
+
+        for (ChunkArea area : areas) {
+            ChunkStateTable states = getStates(WorldIds.get(area.getWorldId()));
+            area.forEach(chunk -> {
+                if (presenceIndex != null) {
+                    presenceIndex.set(chunk, false);
+                }
+                put(states, new ChunkState(chunk), loaded, changed);
+            });
+        }
+
+        postEvents(loaded, changed);
+    }
+
+    /**
+     * Replace the state of a chunk with the given state, marking it as
+     * loaded, and record the chunk if it was waiting to be loaded or if its
+     * loaded claim changed.
+     *
+     * @param states The chunk states of the world
+     * @param state The new state
+     * @param loaded The list of chunks loaded for the first time to add to
+     * @param changed The list of changed chunks to add to
+     */
+    private void put(ChunkStateTable states, ChunkState state, List<ChunkPosition> loaded, List<ChunkPosition> changed) {
+        state.setLoaded(true);
+        if (evictor != null) {
+            state.touch(evictor.getClock());
+        }
+        if (preloader != null) {
+            state.setGeneration(preloader.getGeneration());
+        }
+        ChunkState previous = states.put(state);
+        if (previous != null) {
+            previous.completeLoad(state);
+        }
+        states.settle(state);
+        if (previous != null) {
+            if (!previous.isLoaded()) {
+                loaded.add(state.getChunk());
+            } else if (isChanged(previous.getClaim(), state.getClaim())) {
+                changed.add(state.getChunk());
+            }
+        }
+    }
+
+    private void postEvents(List<ChunkPosition> loaded, List<ChunkPosition> changed) {
+        if (!loaded.isEmpty()) {
+            post(new ClaimsLoadedEvent(loaded));
+        }
+        if (!changed.isEmpty()) {
+            post(new ClaimsChangedEvent(changed));
+        }
+    }
+
+    /**
+     * Test whether the given state is the one in the cache for its chunk,
+     * meaning that it has not been invalidated.
+     *
+     * @param state The state
+     * @return True if the state is in the cache
+     */
+    boolean isCached(ChunkState state) {
+        ChunkStateTable states = findStates(state.getChunk().getWorld());
+        return states != null && states.get(state.getKey()) == state;
+    }
+
+    /**
+     * Move the given state into the compact store of its world, if compact
+     * states are enabled and the state has finished loading.
+     *
+     * @param state The state
+     */
+    void settle(ChunkState state) {
+        ChunkStateTable states = findStates(state.getChunk().getWorld());
+        if (states != null) {
+            states.settle(state);
+        }
+    }
+
+    /**
+     * Resolve anyone waiting on a state that was dropped without being
+     * loaded, using the state that replaced it if there is one.
+     *
+     * @param state The dropped state
+     */
+    void release(ChunkState state) {
+        ChunkStateTable states = findStates(state.getChunk().getWorld());
+        ChunkState current = states != null ? states.get(state.getKey()) : null;
+        if (current != null && current != state) {
+            state.forwardLoad(current.getLoadFuture());
+        } else {
+            state.cancelLoad();
+        }
+    }
+
+    /**
+     * Test whether the claim for a chunk has changed in a way that matters
+     * to listeners.
+     *
+     * @param previous The previous claim, or null if the chunk was unclaimed
+     * @param current The current claim, or null if the chunk is unclaimed
+     * @return True if the chunk was claimed or unclaimed, or its owner or party changed
+     */
+    static boolean isChanged(@Nullable Claim previous, @Nullable Claim current) {
+        if (previous == null || current == null) {
+            return previous != current;
+        }
+        return !Objects.equals(previous.getOwner(), current.getOwner()) || !Objects.equals(previous.getParty(), current.getParty());
+    }
+
+    void post(Object event) {
+        eventBus.post(event);
+    }
+
+    void recordWastedLoad() {
+        wastedLoadCount.increment();
+    }
+
+    /**
+     * Write every loaded claim to the snapshot file.
+     *
+     * <p>This is done periodically, but should also be called when the
+     * server shuts down.</p>
+     *
+     * @throws IllegalStateException If no snapshot file is configured
+     * @throws DataAccessException If the snapshot can't be written
+     */
+    public void saveSnapshot() {
+        File file = config.getSnapshotFile();
+        checkState(file != null, "No snapshot file is configured");
+
+        synchronized (snapshotLock) {
+            long highWaterMark = System.currentTimeMillis();
+            List<Claim> claims = new ArrayList<>();
+            forEachStates(states -> states.forEach(state -> {
+                Claim claim = state.getClaim();
+                if (state.isLoaded() && claim != null) {
+                    claims.add(claim);
+                }
+            }));
+
+            try {
+                ClaimSnapshot.write(file, config.getServerId(), claims, highWaterMark);
+            } catch (IOException e) {
+                throw new DataAccessException("Could not write the claim snapshot to " + file.getAbsolutePath(), e);
+            }
+        }
+    }
+
+    private void loadSnapshot(File file) {
+        if (!file.exists()) {
+            return;
+        }
+
+        ClaimSnapshot snapshot;
         try {
-            lock.lock();
-            for (WorldVector3i position : positions) {
-                if (position != null) {
-                    TLongObjectHashMap<ChunkState> states = statesByWorld.getUnchecked(position.getWorldId());
-                    ChunkState state = new ChunkState(position);
-                    state.setLoaded(true);
-                    states.put(toLong(position), state);
+            snapshot = ClaimSnapshot.open(file);
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Failed to read the claim snapshot at " + file.getAbsolutePath(), e);
+            return;
+        }
+
+        if (!snapshot.getServerId().equals(config.getServerId())) {
+            log.warning("Ignoring the claim snapshot at " + file.getAbsolutePath() + " because it was written for the server '" + snapshot.getServerId() + "'");
+            return;
+        }
+
+        long age = System.currentTimeMillis() - snapshot.getHighWaterMark();
+        if (age > config.getMaxSnapshotAge()) {
+            log.info("Ignoring the claim snapshot at " + file.getAbsolutePath() + " because it is " + TimeUnit.MILLISECONDS.toMinutes(age) + " minute(s) old");
+            return;
+        }
+
+        List<Claim> claims = new ArrayList<>(snapshot.size());
+        Set<String> partyNames = new HashSet<>();
+        snapshot.forEach(claim -> {
+            claims.add(claim);
+            if (claim.getParty() != null) {
+                partyNames.add(claim.getParty());
+            }
+        });
+
+        Map<String, Party> loadedParties = Collections.emptyMap();
+        if (!partyNames.isEmpty()) {
+            try {
+                loadedParties = parties.getAll(partyNames);
+            } catch (DataAccessException e) {
+                log.log(Level.WARNING, "Failed to load the parties of the claims in the snapshot, so they will be filled in later", e);
+            }
+        }
+
+        List<ChunkPosition> loaded = new ArrayList<>();
+        List<ChunkState> filled = new ArrayList<>();
+        for (Claim claim : claims) {
+            ChunkPosition chunk = ChunkPosition.of(claim.getPosition());
+            Party party = claim.getParty() != null ? loadedParties.get(claim.getParty().toLowerCase()) : null;
+            ChunkState state = new ChunkState(chunk);
+            state.setData(claim, party);
+            state.setLoaded(true);
+            ChunkStateTable states = getStates(chunk.getWorld());
+            if (states.putIfAbsent(state) == null) {
+                loaded.add(chunk);
+                filled.add(state);
+                states.settle(state);
+            }
+        }
+
+        log.info("Loaded " + filled.size() + " claim(s) from a snapshot taken " + TimeUnit.MILLISECONDS.toSeconds(age) + " second(s) ago");
+        if (!loaded.isEmpty()) {
+            post(new ClaimsLoadedEvent(loaded));
+        }
+
+        // The preload scan replaces every state, so the snapshot only has
+        // to be checked against the database when it is disabled
+        if (preloader == null && !filled.isEmpty()) {
+            List<ChunkState> queued = new ArrayList<>(filled.size());
+            for (ChunkState state : filled) {
+                ChunkState attached = getStates(state.getChunk().getWorld()).attachPending(state);
+                if (attached != null) {
+                    queued.add(attached);
                 }
             }
-        } finally {
-            lock.unlock();
+            statePopulateQueue.addAll(queued);
         }
     }
 
-    protected static long toLong(WorldVector3i position) {
-        int msw = position.getX();
-        int lsw = position.getZ();
-        return ((long) msw << 32) + lsw - Integer.MIN_VALUE;
+    private boolean isKnownUnclaimed(ChunkPosition chunk) {
+        if (preloader != null && preloader.isComplete()) {
+            return true; // Claimed chunks were all put in the table by the preloader
+        }
+        return presenceIndex != null && !presenceIndex.mayBeClaimed(chunk);
+    }
+
+    private boolean preloadClaims() {
+        try {
+            return preloader.load();
+        } catch (UnsupportedOperationException e) {
+            log.log(Level.WARNING, "The claim map can't be scanned, so claims can't be preloaded", e);
+            return false;
+        }
+    }
+
+    private boolean loadPresenceIndex() {
+        log.info("Building index of claimed chunks...");
+        try {
+            presenceIndex.rebuild(claimMap::scanClaimedChunks);
+        } catch (UnsupportedOperationException e) {
+            log.log(Level.WARNING, "The claim map can't be scanned, so the index of claimed chunks has been disabled", e);
+            return false;
+        }
+        log.info("Indexed claimed chunks in " + presenceIndex.getRegionCount() + " region(s)");
+        return true;
+    }
+
+    private static class UnclaimedEntry implements ClaimEntry {
+        @Nullable
+        @Override
+        public WorldVector3i getPosition() {
+            return null;
+        }
+
+        @Nullable
+        @Override
+        public Claim getClaim() {
+            return null;
+        }
+
+        @Nullable
+        @Override
+        public Party getParty() {
+            return null;
+        }
+
+        @Override
+        public boolean isLoaded() {
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return "UnclaimedEntry";
+        }
+    }
+
+    /**
+     * Call the given consumer with the chunk states of every world.
+     *
+     * @param consumer The consumer
+     */
+    void forEachStates(Consumer<ChunkStateTable> consumer) {
+        for (ChunkStateTable states : statesByWorld) {
+            if (states != null) {
+                consumer.accept(states);
+            }
+        }
+    }
+
+    /**
+     * Get the chunk states for a world without creating them.
+     *
+     * @param world The world ID, or -1
+     * @return The chunk states, or null
+     */
+    @Nullable
+    private ChunkStateTable findStates(int world) {
+        ChunkStateTable[] statesByWorld = this.statesByWorld;
+        if (world < 0 || world >= statesByWorld.length) {
+            return null;
+        }
+        return statesByWorld[world];
+    }
+
+    /**
+     * Get the chunk states for a world, creating them if necessary.
+     *
+     * @param world The world ID
+     * @return The chunk states
+     */
+    ChunkStateTable getStates(int world) {
+        ChunkStateTable states = findStates(world);
+        if (states != null) {
+            return states;
+        }
+        synchronized (worldsLock) {
+            ChunkStateTable[] statesByWorld = this.statesByWorld;
+            if (world < statesByWorld.length && statesByWorld[world] != null) {
+                return statesByWorld[world];
+            }
+            statesByWorld = Arrays.copyOf(statesByWorld, Math.max(statesByWorld.length, world + 1));
+            states = compactDictionary != null
+                    ? new ChunkStateTable(new CompactChunkStore(world, compactDictionary))
+                    : new ChunkStateTable();
+            statesByWorld[world] = states;
+            this.statesByWorld = statesByWorld;
+            return states;
+        }
     }
 
 }
@@ -0,0 +1,184 @@
+package com.skcraft.cardinal.service.claim;
+
+import lombok.Data;
+
+import java.io.File;
+
+/**
+ * Tuning options for {@link ClaimCache}.
+ *
+ * <p>Options are read when the cache is created, so changes made to
+ * an instance afterwards have no effect.</p>
+ */
+@Data
+public class ClaimCacheConfig {
+
+    /**
+     * The number of worker threads used to load claim data asynchronously.
+     */
+    private int workerCount = ClaimCache.DEFAULT_WORKER_COUNT;
+
+    /**
+     * The number of chunks that workers start out loading per query.
+     *
+     * @see AdaptiveBatchPolicy
+     */
+    private int initialBatchSize = 100;
+
+    /**
+     * The smallest number of chunks per query that the batch size will
+     * shrink to when the database is slow.
+     */
+    private int minBatchSize = 10;
+
+    /**
+     * The largest number of chunks per query that the batch size will
+     * grow to when the database is fast.
+     */
+    private int maxBatchSize = 500;
+
+    /**
+     * The time, in milliseconds, that one batch query should take. Batches
+     * shrink when queries take longer and grow when they take much less.
+     */
+    private long targetBatchLatency = 100;
+
+    /**
+     * The longest time, in milliseconds, that a worker will wait for more
+     * requests to fill a batch when the queue is busy.
+     */
+    private long maxCollectTime = 1000;
+
+    /**
+     * The minimum time, in milliseconds, between ranking the load queue
+     * again by distance to players after players have moved.
+     */
+    private long reprioritizeInterval = 250;
+
+    /**
+     * Whether to load claim data for the whole 32x32 chunk region around
+     * a requested chunk, rather than only the requested chunk.
+     *
+     * <p>Every chunk in the region is cached after one range query, so
+     * later requests for neighbouring chunks need no database query at
+     * all. This helps when players explore new terrain, at the cost of
+     * caching entries for chunks that may never be loaded.</p>
+     *
+     * <p>Prefetched chunks are never invalidated by the host, so this
+     * requires {@link #getMaxChunks()} to be set for them to be evicted
+     * again.</p>
+     */
+    private boolean regionPrefetch = false;
+
+    /**
+     * Whether to keep an in-memory index of every claimed chunk on the
+     * server, so that chunks known to be unclaimed are marked as loaded
+     * immediately without a database query.
+     *
+     * <p>The index is built at startup (and again on reload) by scanning
+     * every claim for the server. Claims that are changed in the database
+     * by anything other than this server, without also notifying the cache
+     * through {@link ClaimCache#putAll(java.util.Collection)}, will not be
+     * seen until the next reload.</p>
+     *
+     * <p>This can't be combined with {@link #isPreload()}.</p>
+     */
+    private boolean presenceIndex = false;
+
+    /**
+     * Whether to load every claim on the server into memory at startup
+     * (and again on reload) with one streaming scan, instead of loading
+     * claims as chunks are requested.
+     *
+     * <p>Once the first scan has completed, no chunk needs a database query
+     * and {@link ClaimCache#getIfPresent(com.skcraft.cardinal.util.ChunkPosition)}
+     * answers for every chunk, queued or not. Claimed chunks stay cached
+     * when they are invalidated. Use {@link PreloadProgress#estimateBytes(long)}
+     * to judge whether a server's claims fit comfortably in memory.</p>
+     *
+     * <p>This can't be combined with {@link #isPresenceIndex()} or
+     * {@link #isRegionPrefetch()}, which would only repeat its work.</p>
+     */
+    private boolean preload = false;
+
+    /**
+     * Whether to store chunks that have finished loading as a few
+     * primitive fields in arrays, instead of as one object graph per chunk.
+     *
+     * <p>This reduces the memory used by a large cache to between a half
+     * and a quarter, which matters most with {@link #isPreload()}, but
+     * every read of a stored chunk creates a short-lived copy of its
+     * state.</p>
+     */
+    private boolean compactStates = false;
+
+    /**
+     * The maximum number of chunks to keep in the cache, or 0 for no limit.
+     *
+     * <p>Without a limit, chunks are only removed when they are
+     * invalidated. With a limit, whole regions are evicted when the cache
+     * grows past it, starting with regions that have not been used for the
+     * longest and are furthest from players (see
+     * {@link ClaimCache#updatePlayerChunks(java.util.Collection)}). Chunks
+     * that are waiting to be loaded are never evicted, and neither are
+     * regions within {@link #getViewDistance()} of a player.</p>
+     */
+    private int maxChunks = 0;
+
+    /**
+     * The view distance of the server, in chunks. Regions that are this
+     * close to a player are never evicted, because their chunks are likely
+     * to be loaded in the world and would otherwise not be cached again
+     * until the host queues them again.
+     */
+    private int viewDistance = 10;
+
+    /**
+     * The time, in milliseconds, between checks of the cache's size against
+     * {@link #getMaxChunks()}.
+     */
+    private long evictionInterval = 10 * 1000;
+
+    /**
+     * The JMX object name to register the cache's metrics under, or null
+     * to not register them.
+     *
+     * @see ClaimCacheMXBean
+     */
+    private String jmxName = null;
+
+    /**
+     * The file to keep a snapshot of the loaded claims in, or null to not
+     * keep a snapshot.
+     *
+     * <p>The snapshot is read when the cache is created, so that claims
+     * near players can be served right after a restart. The claims from
+     * the snapshot are then loaded again from the database in the
+     * background (or by the preload scan, if enabled). Chunks that are
+     * not in the snapshot are loaded as usual.</p>
+     *
+     * @see ClaimCache#saveSnapshot()
+     */
+    private File snapshotFile = null;
+
+    /**
+     * The ID of the server whose claims are cached, which is required if
+     * {@link #snapshotFile} is set.
+     *
+     * <p>The ID is written into the snapshot, and a snapshot that was
+     * written for another server is not read.</p>
+     */
+    private String serverId = null;
+
+    /**
+     * The time, in milliseconds, between writing the snapshot file.
+     */
+    private long snapshotInterval = 5 * 60 * 1000;
+
+    /**
+     * The maximum age, in milliseconds, of a snapshot that will be read at
+     * startup. Older snapshots are ignored.
+     */
+    private long maxSnapshotAge = 24 * 60 * 60 * 1000;
+
+}
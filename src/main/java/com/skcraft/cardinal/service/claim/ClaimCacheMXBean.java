@@ -0,0 +1,52 @@
+package com.skcraft.cardinal.service.claim;
+
+/**
+ * The JMX view of the metrics of a {@link ClaimCache}, registered under
+ * {@link ClaimCacheConfig#getJmxName()}.
+ *
+ * <p>Latencies are in milliseconds. See {@link ClaimCacheStats} for the
+ * meaning of each value.</p>
+ */
+public interface ClaimCacheMXBean {
+
+    int getQueueSize();
+
+    int getResidentCount();
+
+    long getHitCount();
+
+    long getMissCount();
+
+    double getHitRate();
+
+    long getLoadCount();
+
+    double getLoadLatencyMean();
+
+    double getLoadLatency50thPercentile();
+
+    double getLoadLatency99thPercentile();
+
+    long getBatchCount();
+
+    double getBatchLatencyMean();
+
+    double getBatchLatency50thPercentile();
+
+    double getBatchLatency99thPercentile();
+
+    int getBatchSize();
+
+    long getFailedBatchCount();
+
+    long getRetriedChunkCount();
+
+    long getDuplicateLoadCount();
+
+    long getCancelledLoadCount();
+
+    long getWastedLoadCount();
+
+    long getEvictedCount();
+
+}
@@ -0,0 +1,218 @@
+package com.skcraft.cardinal.service.claim;
+
+import com.skcraft.cardinal.util.LatencyHistogram;
+import lombok.extern.java.Log;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Collects the metrics of a {@link ClaimCache} and its workers.
+ *
+ * <p>Recording only updates {@link LongAdder}s and
+ * {@link LatencyHistogram}s, so it never locks or allocates and is safe
+ * to do on the read path of the cache.</p>
+ */
+@Log
+class ClaimCacheMetrics implements ClaimCacheMXBean {
+
+    private final ClaimCache cache;
+    private final AdaptiveBatchPolicy policy;
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder failedBatchCount = new LongAdder();
+    private final LongAdder retriedChunkCount = new LongAdder();
+    private final LatencyHistogram loadLatency = new LatencyHistogram();
+    private final LatencyHistogram batchLatency = new LatencyHistogram();
+
+    ClaimCacheMetrics(ClaimCache cache, AdaptiveBatchPolicy policy) {
+        this.cache = checkNotNull(cache, "cache");
+        this.policy = checkNotNull(policy, "policy");
+    }
+
+    /**
+     * Register the metrics with the platform MBean server, logging a
+     * warning if that fails.
+     *
+     * @param name The object name
+     */
+    void register(String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(new StandardMBean(this, ClaimCacheMXBean.class, true), new ObjectName(name));
+        } catch (JMException e) {
+            log.log(Level.WARNING, "Could not register the claim cache metrics with JMX as " + name, e);
+        }
+    }
+
+    void recordHit() {
+        hitCount.increment();
+    }
+
+    void recordMiss() {
+        missCount.increment();
+    }
+
+    /**
+     * Record the time that a chunk took from being queued to being loaded.
+     *
+     * @param nanos The time in nanoseconds
+     */
+    void recordLoad(long nanos) {
+        loadLatency.record(nanos);
+    }
+
+    /**
+     * Record the time that a worker took to load a batch.
+     *
+     * @param nanos The time in nanoseconds
+     */
+    void recordBatch(long nanos) {
+        batchLatency.record(nanos);
+    }
+
+    /**
+     * Record a batch that failed and whose chunks were queued again.
+     *
+     * @param size The number of chunks in the batch
+     */
+    void recordFailedBatch(int size) {
+        failedBatchCount.increment();
+        retriedChunkCount.add(size);
+    }
+
+    /**
+     * Create a snapshot of the metrics.
+     *
+     * @return The snapshot
+     */
+    ClaimCacheStats snapshot() {
+        return new ClaimCacheStats(
+                getQueueSize(),
+                getResidentCount(),
+                getHitCount(),
+                getMissCount(),
+                loadLatency.snapshot(),
+                batchLatency.snapshot(),
+                getBatchSize(),
+                getFailedBatchCount(),
+                getRetriedChunkCount(),
+                getDuplicateLoadCount(),
+                getCancelledLoadCount(),
+                getWastedLoadCount(),
+                getEvictedCount());
+    }
+
+    @Override
+    public int getQueueSize() {
+        return cache.getQueueSize();
+    }
+
+    @Override
+    public int getResidentCount() {
+        int[] count = new int[1];
+        cache.forEachStates(states -> count[0] += states.size());
+        return count[0];
+    }
+
+    @Override
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    @Override
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    @Override
+    public double getHitRate() {
+        long hits = getHitCount();
+        long total = hits + getMissCount();
+        return total > 0 ? (double) hits / total : 1;
+    }
+
+    @Override
+    public long getLoadCount() {
+        return loadLatency.snapshot().getCount();
+    }
+
+    @Override
+    public double getLoadLatencyMean() {
+        return loadLatency.snapshot().getMean(TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public double getLoadLatency50thPercentile() {
+        return loadLatency.snapshot().getPercentile(50, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public double getLoadLatency99thPercentile() {
+        return loadLatency.snapshot().getPercentile(99, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public long getBatchCount() {
+        return batchLatency.snapshot().getCount();
+    }
+
+    @Override
+    public double getBatchLatencyMean() {
+        return batchLatency.snapshot().getMean(TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public double getBatchLatency50thPercentile() {
+        return batchLatency.snapshot().getPercentile(50, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public double getBatchLatency99thPercentile() {
+        return batchLatency.snapshot().getPercentile(99, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public int getBatchSize() {
+        return policy.getBatchSize();
+    }
+
+    @Override
+    public long getFailedBatchCount() {
+        return failedBatchCount.sum();
+    }
+
+    @Override
+    public long getRetriedChunkCount() {
+        return retriedChunkCount.sum();
+    }
+
+    @Override
+    public long getDuplicateLoadCount() {
+        return cache.getDuplicateLoadCount();
+    }
+
+    @Override
+    public long getCancelledLoadCount() {
+        return cache.getCancelledLoadCount();
+    }
+
+    @Override
+    public long getWastedLoadCount() {
+        return cache.getWastedLoadCount();
+    }
+
+    @Override
+    public long getEvictedCount() {
+        return cache.getEvictedCount();
+    }
+
+}
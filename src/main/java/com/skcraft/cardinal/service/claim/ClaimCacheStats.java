@@ -0,0 +1,94 @@
+package com.skcraft.cardinal.service.claim;
+
+import com.skcraft.cardinal.util.LatencyHistogram;
+import lombok.Data;
+
+/**
+ * An immutable snapshot of the metrics of a {@link ClaimCache}, from
+ * {@link ClaimCache#getStats()}.
+ *
+ * <p>Counts are totals since the cache was created. The values are read
+ * one at a time without stopping the cache, so they may not be exactly
+ * consistent with each other.</p>
+ */
+@Data
+public class ClaimCacheStats {
+
+    /**
+     * The number of chunks waiting to be loaded.
+     */
+    private final int queueSize;
+
+    /**
+     * The number of chunks in the cache, including chunks waiting to be
+     * loaded.
+     */
+    private final int residentCount;
+
+    /**
+     * The number of calls to {@code getIfPresent()} that returned an entry.
+     */
+    private final long hitCount;
+
+    /**
+     * The number of calls to {@code getIfPresent()} that returned null.
+     */
+    private final long missCount;
+
+    /**
+     * The time from {@code queueChunk()} until each chunk was loaded.
+     */
+    private final LatencyHistogram.Snapshot loadLatency;
+
+    /**
+     * The time taken by each batch of queries made by the workers.
+     */
+    private final LatencyHistogram.Snapshot batchLatency;
+
+    /**
+     * The number of chunks that the workers currently load per batch.
+     */
+    private final int batchSize;
+
+    /**
+     * The number of batches that failed with a database error.
+     */
+    private final long failedBatchCount;
+
+    /**
+     * The number of chunks that were queued again after a failed batch.
+     */
+    private final long retriedChunkCount;
+
+    /**
+     * See {@link ClaimCache#getDuplicateLoadCount()}.
+     */
+    private final long duplicateLoadCount;
+
+    /**
+     * See {@link ClaimCache#getCancelledLoadCount()}.
+     */
+    private final long cancelledLoadCount;
+
+    /**
+     * See {@link ClaimCache#getWastedLoadCount()}.
+     */
+    private final long wastedLoadCount;
+
+    /**
+     * See {@link ClaimCache#getEvictedCount()}.
+     */
+    private final long evictedCount;
+
+    /**
+     * Get the fraction of calls to {@code getIfPresent()} that returned
+     * an entry.
+     *
+     * @return The hit rate between 0 and 1, or 1 if there were no calls
+     */
+    public double getHitRate() {
+        long total = hitCount + missCount;
+        return total > 0 ? (double) hitCount / total : 1;
+    }
+
+}
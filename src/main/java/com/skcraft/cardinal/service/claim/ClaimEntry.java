@@ -13,8 +13,10 @@ public interface ClaimEntry {
     /**
      * Get the chunk position of the claim.
      *
-     * @return The chunk position
+     * @return The chunk position, or null for the shared entry of unclaimed
+     *         chunks returned by {@link ClaimCache#getIfPresent(WorldVector3i)}
      */
+    @Nullable
     WorldVector3i getPosition();
 
     /**
@@ -0,0 +1,86 @@
+package com.skcraft.cardinal.service.claim;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.skcraft.cardinal.profile.MojangId;
+
+import javax.annotation.Nullable;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Shares one instance of each owner and party name between all the claims
+ * that are loaded, so that memory scales with the number of distinct
+ * owners rather than with the number of claimed chunks.
+ *
+ * <p>Instances are held with weak references and are dropped once no
+ * claim refers to them. Because instances are shared, the owners that are
+ * returned must not be modified. If an owner is seen with a new name, the
+ * new instance replaces the pooled one, and claims that were loaded
+ * earlier keep the old name until they are loaded again.</p>
+ */
+public final class ClaimInterner {
+
+    private static final ConcurrentMap<UUID, MojangId> owners = CacheBuilder.newBuilder()
+            .weakValues()
+            .<UUID, MojangId>build()
+            .asMap();
+    private static final Interner<String> names = Interners.newWeakInterner();
+
+    private ClaimInterner() {
+    }
+
+    /**
+     * Get the pooled owner with the given UUID and name, creating it if
+     * it is not in the pool.
+     *
+     * @param uuid The UUID
+     * @param name The name
+     * @return The owner
+     */
+    public static MojangId owner(UUID uuid, String name) {
+        checkNotNull(uuid, "uuid");
+        checkNotNull(name, "name");
+        MojangId owner = owners.get(uuid);
+        if (owner != null && owner.getName().equals(name)) {
+            return owner;
+        }
+        return intern(new MojangId(uuid, name));
+    }
+
+    /**
+     * Get the pooled instance of the given owner, adding the owner to the
+     * pool if it is not already there.
+     *
+     * @param owner The owner
+     * @return The pooled owner, which has the same UUID and name
+     */
+    public static MojangId intern(MojangId owner) {
+        checkNotNull(owner, "owner");
+        while (true) {
+            MojangId existing = owners.putIfAbsent(owner.getUuid(), owner);
+            if (existing == null) {
+                return owner;
+            } else if (existing.getName().equals(owner.getName())) {
+                return existing;
+            } else if (owners.replace(owner.getUuid(), existing, owner)) {
+                return owner; // Renamed
+            }
+        }
+    }
+
+    /**
+     * Get the pooled instance of the given party name or server ID.
+     *
+     * @param name The name, or null
+     * @return The pooled name, or null if the name is null
+     */
+    @Nullable
+    public static String name(@Nullable String name) {
+        return name != null ? names.intern(name) : null;
+    }
+
+}
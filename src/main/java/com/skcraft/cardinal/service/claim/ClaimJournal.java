@@ -0,0 +1,201 @@
+package com.skcraft.cardinal.service.claim;
+
+import com.skcraft.cardinal.profile.MojangId;
+import com.skcraft.cardinal.util.ChunkPosition;
+import lombok.Getter;
+import lombok.extern.java.Log;
+
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Date;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An append-only file of claim changes that have not yet been written to
+ * the database, used by {@link WriteBehindClaimMap} to survive a crash.
+ *
+ * <p>Each record is either a claim or a removal of the claim at a chunk.
+ * A record that was cut short by a crash is ignored when the
+ * journal is replayed.</p>
+ *
+ * <p>This class is not thread safe.</p>
+ */
+@Log
+class ClaimJournal {
+
+    private static final byte SAVE = 1;
+    private static final byte REMOVE = 2;
+
+    @Getter
+    private final File file;
+    private FileOutputStream fileOut;
+    private DataOutputStream out;
+
+    /**
+     * Create a new journal.
+     *
+     * @param file The journal file, which does not need to exist
+     */
+    public ClaimJournal(File file) {
+        checkNotNull(file, "file");
+        this.file = file;
+    }
+
+    /**
+     * Read every record in the journal.
+     *
+     * @param serverId The server ID to give the claims that are read
+     * @param consumer Called with the chunk and claim of each record, where the claim is null for removals
+     * @return The number of records read
+     * @throws IOException Thrown on I/O error
+     */
+    public int replay(String serverId, BiConsumer<ChunkPosition, Claim> consumer) throws IOException {
+        if (!file.exists()) {
+            return 0;
+        }
+
+        int count = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                byte type;
+                try {
+                    type = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+
+                try {
+                    ChunkPosition chunk = ChunkPosition.of(in.readUTF(), in.readInt(), in.readInt());
+                    if (type == SAVE) {
+                        Claim claim = new Claim(serverId, chunk.toVector());
+                        claim.setOwner(ClaimInterner.owner(new UUID(in.readLong(), in.readLong()), in.readUTF()));
+                        claim.setParty(in.readBoolean() ? ClaimInterner.name(in.readUTF()) : null);
+                        claim.setIssueTime(new Date(in.readLong()));
+                        consumer.accept(chunk, claim);
+                    } else if (type == REMOVE) {
+                        consumer.accept(chunk, null);
+                    } else {
+                        throw new IOException("Unknown record type " + type + " in " + file.getAbsolutePath());
+                    }
+                    count++;
+                } catch (EOFException e) {
+                    log.warning("The last record of the claim journal at " + file.getAbsolutePath() + " was incomplete and was ignored");
+                    break;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Append a record to the journal. The record is not guaranteed to be
+     * on disk until {@link #flush()} is called.
+     *
+     * @param chunk The chunk
+     * @param claim The claim, or null if the claim was removed
+     * @throws IOException Thrown on I/O error
+     */
+    public void append(ChunkPosition chunk, @Nullable Claim claim) throws IOException {
+        if (out == null) {
+            fileOut = open(file, true);
+            out = new DataOutputStream(new BufferedOutputStream(fileOut));
+        }
+        write(out, chunk, claim);
+    }
+
+    /**
+     * Write appended records to the file and wait until the file is on
+     * disk, so that the records survive a power loss.
+     *
+     * @throws IOException Thrown on I/O error
+     */
+    public void flush() throws IOException {
+        if (out != null) {
+            out.flush();
+            fileOut.getChannel().force(false);
+        }
+    }
+
+    /**
+     * Replace the contents of the journal with the given records.
+     *
+     * @param records A map of chunks to claims, where the claim is null for removals
+     * @throws IOException Thrown on I/O error
+     */
+    public void rewrite(Map<ChunkPosition, Claim> records) throws IOException {
+        close();
+
+        if (records.isEmpty()) {
+            Files.deleteIfExists(file.toPath());
+            return;
+        }
+
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream tempFileOut = open(temp, false);
+             DataOutputStream tempOut = new DataOutputStream(new BufferedOutputStream(tempFileOut))) {
+            for (Map.Entry<ChunkPosition, Claim> entry : records.entrySet()) {
+                write(tempOut, entry.getKey(), entry.getValue());
+            }
+            tempOut.flush();
+            tempFileOut.getChannel().force(false); // Before it replaces the journal
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Close the file if it is open.
+     *
+     * @throws IOException Thrown on I/O error
+     */
+    public void close() throws IOException {
+        if (out != null) {
+            try {
+                out.close();
+            } finally {
+                out = null;
+                fileOut = null;
+            }
+        }
+    }
+
+    private static FileOutputStream open(File file, boolean append) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        return new FileOutputStream(file, append);
+    }
+
+    private static void write(DataOutputStream out, ChunkPosition chunk, @Nullable Claim claim) throws IOException {
+        out.writeByte(claim != null ? SAVE : REMOVE);
+        out.writeUTF(chunk.getWorldId());
+        out.writeInt(chunk.getX());
+        out.writeInt(chunk.getZ());
+        if (claim != null) {
+            MojangId owner = claim.getOwner();
+            out.writeLong(owner.getUuid().getMostSignificantBits());
+            out.writeLong(owner.getUuid().getLeastSignificantBits());
+            out.writeUTF(owner.getName());
+            out.writeBoolean(claim.getParty() != null);
+            if (claim.getParty() != null) {
+                out.writeUTF(claim.getParty());
+            }
+            out.writeLong(claim.getIssueTime() != null ? claim.getIssueTime().getTime() : 0);
+        }
+    }
+
+}
@@ -1,12 +1,21 @@
 package com.skcraft.cardinal.service.claim;
 
+import com.google.common.collect.Collections2;
 import com.skcraft.cardinal.profile.MojangId;
+import com.skcraft.cardinal.util.ChunkArea;
+import com.skcraft.cardinal.util.ChunkPosition;
 import com.skcraft.cardinal.util.WorldVector3i;
 import com.skcraft.cardinal.util.DataAccessException;
 
 import javax.annotation.Nullable;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 
 /**
  * A claim map persists claim data and provides access to it.
@@ -41,6 +50,79 @@ public interface ClaimMap {
      */
     Map<WorldVector3i, Claim> getAll(Collection<WorldVector3i> positions);
 
+    /**
+     * Fetch claim data for the the given chunk positions, returning
+     * a map with keys corresponding to the chunk position and the
+     * values reflective of the claim at that location.
+     *
+     * <p>If a claim does not exist at a given position, then the returned map
+     * will not contain an entry for that position.</p>
+     *
+     * @param positions A list of chunk positions
+     * @return A map of chunk position => claims
+     * @throws DataAccessException If data could not be retrieved or saved
+     */
+    default Map<ChunkPosition, Claim> getAllChunks(Collection<ChunkPosition> positions) {
+        Map<ChunkPosition, Claim> results = new HashMap<>();
+        for (Claim claim : getAll(Collections2.transform(positions, ChunkPosition::toVector)).values()) {
+            results.put(ChunkPosition.of(claim.getPosition()), claim);
+        }
+        return results;
+    }
+
+    /**
+     * Fetch claim data for every chunk within the given rectangle of chunk
+     * coordinates in a world, including the bounds.
+     *
+     * <p>Only claimed chunks will have entries in the returned map.</p>
+     *
+     * @param worldId The world
+     * @param minX The minimum chunk X coordinate
+     * @param minZ The minimum chunk Z coordinate
+     * @param maxX The maximum chunk X coordinate
+     * @param maxZ The maximum chunk Z coordinate
+     * @return A map of chunk position => claims
+     * @throws DataAccessException If data could not be retrieved or saved
+     */
+    default Map<ChunkPosition, Claim> getAllInArea(String worldId, int minX, int minZ, int maxX, int maxZ) {
+        List<ChunkPosition> positions = new ArrayList<>();
+        for (int x = minX; x <= maxX; x++) {
+            for (int z = minZ; z <= maxZ; z++) {
+                positions.add(ChunkPosition.of(worldId, x, z));
+            }
+        }
+        return getAllChunks(positions);
+    }
+
+    /**
+     * Pass the position of every claimed chunk on the server to the given
+     * consumer, streaming the results rather than loading them all
+     * into memory at once.
+     *
+     * <p>This is an optional operation.</p>
+     *
+     * @param consumer The consumer
+     * @throws DataAccessException If data could not be retrieved
+     * @throws UnsupportedOperationException If the operation is not supported
+     */
+    default void scanClaimedChunks(Consumer<ChunkPosition> consumer) {
+        throw new UnsupportedOperationException("Scanning claims is not supported by " + getClass().getName());
+    }
+
+    /**
+     * Pass every claim on the server to the given consumer, streaming the
+     * results rather than loading them all into memory at once.
+     *
+     * <p>This is an optional operation.</p>
+     *
+     * @param consumer The consumer
+     * @throws DataAccessException If data could not be retrieved
+     * @throws UnsupportedOperationException If the operation is not supported
+     */
+    default void scanClaims(Consumer<Claim> consumer) {
+        throw new UnsupportedOperationException("Scanning claims is not supported by " + getClass().getName());
+    }
+
     /**
      * Set claim information for the given chunk positions, overwriting any
      * existing claims at those locations.
@@ -50,24 +132,54 @@ public interface ClaimMap {
      * @param positions A list of chunk coordinates
      * @param owner     The new owner of the claims
      * @param party     An optional party to associate with the claim
+     * @return The number of the given chunks that were already claimed and
+     *         have been overwritten, or -1 if that is not known
      * @throws DataAccessException If data could not be retrieved or saved
      */
-    void save(Collection<WorldVector3i> positions, MojangId owner, @Nullable String party);
+    int save(Collection<WorldVector3i> positions, MojangId owner, @Nullable String party);
 
     /**
-     * Update claim information for the given chunk positions, but only if
-     * claims at those chunks exist and are owned by {@code existingOwner}
-     * (or can be null to indicate unclaimed chunks).
+     * Set claim information for the given chunk positions, overwriting any
+     * existing claims at those locations, and pass each claim that is
+     * overwritten to the given consumer.
+     *
+     * <p>The default implementation reads the claims with
+     * {@link #getAllChunks(Collection)} before calling
+     * {@link #save(Collection, MojangId, String)}, but implementations
+     * should find them as part of the write where they can.</p>
+     *
+     * <p>Multiple threads must not call this method at the same time.</p>
+     *
+     * @param positions A list of chunk coordinates
+     * @param owner     The new owner of the claims
+     * @param party     An optional party to associate with the claim
+     * @param replaced  The consumer of the claims that were overwritten
+     * @return The number of the given chunks that were already claimed and
+     *         have been overwritten, or -1 if that is not known
+     * @throws DataAccessException If data could not be retrieved or saved
+     */
+    default int save(Collection<WorldVector3i> positions, MojangId owner, @Nullable String party, Consumer<? super Claim> replaced) {
+        getAllChunks(new HashSet<>(Collections2.transform(positions, ChunkPosition::of))).values().forEach(replaced);
+        return save(positions, owner, party);
+    }
+
+    /**
+     * Update claim information for the given chunk positions, but only at
+     * chunks that are unclaimed or are owned by {@code existingOwner}.
+     *
+     * <p>The returned positions can be used to update a {@link ClaimCache}
+     * without reading the claims again.</p>
      *
      * <p>Multiple threads must not call this method at the same time.</p>
      *
      * @param positions     A list of chunk coordinates
      * @param owner         The new owner of the claims
      * @param party         An optional party to associate with the claim
-     * @param existingOwner The existing owner to match, or null to match unclaimed chunks
+     * @param existingOwner The existing owner to match, or null to only match unclaimed chunks
+     * @return The positions that were changed, a subset of the given positions
      * @throws DataAccessException If data could not be retrieved or saved
      */
-    void update(Collection<WorldVector3i> positions, MojangId owner, @Nullable String party, @Nullable MojangId existingOwner);
+    Set<WorldVector3i> update(Collection<WorldVector3i> positions, MojangId owner, @Nullable String party, @Nullable MojangId existingOwner);
 
     /**
      * Remove the claims at the given positions.
@@ -77,6 +189,112 @@ public interface ClaimMap {
      */
     int remove(Collection<WorldVector3i> positions);
 
+    /**
+     * Remove the claims at the given positions and pass each claim that
+     * is removed to the given consumer.
+     *
+     * <p>The default implementation reads the claims with
+     * {@link #getAllChunks(Collection)} before calling
+     * {@link #remove(Collection)}.</p>
+     *
+     * @param positions A list of chunk coordinates
+     * @param removed   The consumer of the claims that were removed
+     * @return The number of changed rows
+     * @throws DataAccessException If data could not be retrieved or saved
+     */
+    default int remove(Collection<WorldVector3i> positions, Consumer<? super Claim> removed) {
+        getAllChunks(new HashSet<>(Collections2.transform(positions, ChunkPosition::of))).values().forEach(removed);
+        return remove(positions);
+    }
+
+    /**
+     * Set claim information for every chunk in the given areas, overwriting
+     * any existing claims in them.
+     *
+     * <p>Implementations should avoid listing every chunk in the areas
+     * where they can, but the default implementation does exactly that
+     * and calls {@link #save(Collection, MojangId, String)}.</p>
+     *
+     * <p>Multiple threads must not call this method at the same time.</p>
+     *
+     * @param areas A union of areas, which may overlap
+     * @param owner The new owner of the claims
+     * @param party An optional party to associate with the claim
+     * @throws DataAccessException If data could not be retrieved or saved
+     */
+    default void saveArea(Collection<ChunkArea> areas, MojangId owner, @Nullable String party) {
+        save(ChunkArea.positions(areas), owner, party);
+    }
+
+    /**
+     * Set claim information for every chunk in the given areas, overwriting
+     * any existing claims in them, and pass each claim that is overwritten
+     * to the given consumer once.
+     *
+     * <p>The default implementation reads the claims in each area with
+     * {@link #getAllInArea(String, int, int, int, int)} before calling
+     * {@link #saveArea(Collection, MojangId, String)}.</p>
+     *
+     * <p>Multiple threads must not call this method at the same time.</p>
+     *
+     * @param areas    A union of areas, which may overlap
+     * @param owner    The new owner of the claims
+     * @param party    An optional party to associate with the claim
+     * @param replaced The consumer of the claims that were overwritten
+     * @throws DataAccessException If data could not be retrieved or saved
+     */
+    default void saveArea(Collection<ChunkArea> areas, MojangId owner, @Nullable String party, Consumer<? super Claim> replaced) {
+        getAllInAreas(areas).forEach(replaced);
+        saveArea(areas, owner, party);
+    }
+
+    /**
+     * Remove the claims in the given areas.
+     *
+     * <p>The default implementation lists every chunk in the areas and
+     * calls {@link #remove(Collection)}.</p>
+     *
+     * @param areas A union of areas, which may overlap
+     * @return The number of changed rows
+     * @throws DataAccessException If data could not be retrieved or saved
+     */
+    default int removeArea(Collection<ChunkArea> areas) {
+        return remove(ChunkArea.positions(areas));
+    }
+
+    /**
+     * Remove the claims in the given areas and pass each claim that is
+     * removed to the given consumer once.
+     *
+     * <p>The default implementation reads the claims in each area with
+     * {@link #getAllInArea(String, int, int, int, int)} before calling
+     * {@link #removeArea(Collection)}.</p>
+     *
+     * @param areas   A union of areas, which may overlap
+     * @param removed The consumer of the claims that were removed
+     * @return The number of changed rows
+     * @throws DataAccessException If data could not be retrieved or saved
+     */
+    default int removeArea(Collection<ChunkArea> areas, Consumer<? super Claim> removed) {
+        getAllInAreas(areas).forEach(removed);
+        return removeArea(areas);
+    }
+
+    /**
+     * Fetch the claims in a union of areas, including each claim once.
+     *
+     * @param areas A union of areas, which may overlap
+     * @return The claims
+     * @throws DataAccessException If data could not be retrieved
+     */
+    default Collection<Claim> getAllInAreas(Collection<ChunkArea> areas) {
+        Map<ChunkPosition, Claim> results = new HashMap<>();
+        for (ChunkArea area : areas) {
+            results.putAll(getAllInArea(area.getWorldId(), area.getMinX(), area.getMinZ(), area.getMaxX(), area.getMaxZ()));
+        }
+        return results.values();
+    }
+
     /**
      * Get the number of claims that a player owns.
      *
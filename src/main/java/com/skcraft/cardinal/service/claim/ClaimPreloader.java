@@ -0,0 +1,150 @@
+package com.skcraft.cardinal.service.claim;
+
+import com.skcraft.cardinal.event.claim.ClaimsLoadedEvent;
+import com.skcraft.cardinal.service.party.Party;
+import com.skcraft.cardinal.service.party.PartyCache;
+import com.skcraft.cardinal.util.ChunkPosition;
+import lombok.Getter;
+import lombok.extern.java.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Loads every claim on the server into a {@link ClaimCache} with one
+ * streaming scan, for when {@link ClaimCacheConfig#isPreload()} is enabled.
+ *
+ * <p>Each scan has a generation number. States written by the cache
+ * itself during a scan are stamped with the current generation and are
+ * never overwritten by the scan, because the scan may be reading rows from
+ * before the change. Once a scan completes, claimed states from an older
+ * generation were not seen by the scan and are removed.</p>
+ *
+ * <p>Scanned claims are stored in batches, and the parties of each batch
+ * are resolved with one {@link PartyCache#getAll(java.util.Collection)}
+ * call, which is also when one {@link ClaimsLoadedEvent} is posted.</p>
+ */
+@Log
+class ClaimPreloader {
+
+    private static final int LOG_INTERVAL = 50000;
+    private static final int BATCH_SIZE = 1000;
+
+    private final ClaimCache cache;
+    private final ClaimMap claims;
+    private final PartyCache parties;
+    private final AtomicInteger generation = new AtomicInteger();
+    @Getter
+    private final PreloadProgress progress = new PreloadProgress();
+
+    ClaimPreloader(ClaimCache cache, ClaimMap claims, PartyCache parties) {
+        this.cache = checkNotNull(cache, "cache");
+        this.claims = checkNotNull(claims, "claims");
+        this.parties = checkNotNull(parties, "parties");
+    }
+
+    /**
+     * Get the generation that states written now should be stamped with.
+     *
+     * @return The generation
+     */
+    public int getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Get whether every claim has been loaded at least once.
+     *
+     * @return True if loaded
+     */
+    public boolean isComplete() {
+        return progress.isComplete();
+    }
+
+    /**
+     * Scan every claim into the cache.
+     *
+     * @return True
+     */
+    public boolean load() {
+        int generation = this.generation.incrementAndGet();
+        log.info("Preloading all claims...");
+        progress.start();
+
+        List<Claim> batch = new ArrayList<>(BATCH_SIZE);
+        claims.scanClaims(claim -> {
+            batch.add(claim);
+            if (batch.size() >= BATCH_SIZE) {
+                store(batch, generation);
+                batch.clear();
+            }
+
+            long count = progress.increment();
+            if (count % LOG_INTERVAL == 0) {
+                log.info("Preloading claims: " + progress);
+            }
+        });
+        store(batch, generation);
+
+        // Anything claimed that the scan didn't see has been removed since
+        cache.forEachStates(states -> states.forEach(state -> {
+            if (state.getGeneration() < generation && state.getClaim() != null) {
+                states.remove(state);
+            }
+        }));
+
+        progress.finish();
+        log.info("Preloaded claims: " + progress);
+        return true;
+    }
+
+    /**
+     * Put a batch of scanned claims into the cache, resolving their parties
+     * together, and post one event for the chunks that were stored.
+     *
+     * @param batch The claims
+     * @param generation The generation of the scan
+     */
+    private void store(List<Claim> batch, int generation) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        Set<String> partyNames = new HashSet<>();
+        for (Claim claim : batch) {
+            if (claim.getParty() != null) {
+                partyNames.add(claim.getParty());
+            }
+        }
+        Map<String, Party> loadedParties = partyNames.isEmpty() ? Collections.emptyMap() : parties.getAll(partyNames);
+
+        List<ChunkPosition> loaded = new ArrayList<>(batch.size());
+        for (Claim claim : batch) {
+            ChunkPosition chunk = ChunkPosition.of(claim.getPosition());
+            String partyName = claim.getParty();
+            Party party = partyName != null ? loadedParties.get(partyName.toLowerCase()) : null;
+
+            ChunkState state = new ChunkState(chunk);
+            state.setData(claim, party);
+            state.setLoaded(true);
+            state.setGeneration(generation);
+            ChunkStateTable states = cache.getStates(chunk.getWorld());
+            if (states.putIf(state, existing -> existing.getGeneration() < generation)) {
+                states.settle(state);
+                loaded.add(chunk);
+            }
+        }
+
+        if (!loaded.isEmpty()) {
+            cache.post(new ClaimsLoadedEvent(loaded));
+        }
+    }
+
+}
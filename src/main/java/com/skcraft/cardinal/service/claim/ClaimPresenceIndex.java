@@ -0,0 +1,250 @@
+package com.skcraft.cardinal.service.claim;
+
+import com.skcraft.cardinal.util.ChunkPosition;
+import gnu.trove.map.hash.TLongObjectHashMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+/**
+ * An exact set of the chunks that are claimed in every world, used by
+ * {@link ClaimCache} to answer "is this chunk unclaimed?" without asking
+ * the database.
+ *
+ * <p>The set is stored in a roaring-style layout: each world maps a 32x32
+ * chunk region to a 1024-bit bitmap, and regions without any claims take
+ * no space at all. A region costs about 160 bytes no matter how many of
+ * its chunks are claimed.</p>
+ *
+ * <p>{@link #mayBeClaimed(ChunkPosition)} never takes a lock, so it is safe
+ * to call from the world tick thread. Writes are serialized with each
+ * other.</p>
+ *
+ * <p>The index is not usable until {@link #rebuild(Consumer)} has completed
+ * once. Changes that are made while a rebuild is in progress are recorded
+ * and applied again on top of the rebuilt index, so that they are not lost
+ * if the scan read a row before it was changed.</p>
+ */
+class ClaimPresenceIndex {
+
+    private static final int REGION_SHIFT = PopulateWorker.REGION_SHIFT;
+    private static final int REGION_MASK = PopulateWorker.REGION_SIZE - 1;
+    private static final int WORDS_PER_REGION = (PopulateWorker.REGION_SIZE * PopulateWorker.REGION_SIZE) / 64;
+
+    private final Object lock = new Object();
+    private volatile boolean ready;
+    private volatile Bitmaps bitmaps = createPublished();
+    private List<Change> changesDuringRebuild;
+
+    /**
+     * Get whether the index has been built and can be consulted.
+     *
+     * @return True if ready
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Test whether the given chunk may be claimed.
+     *
+     * <p>If the index is not yet ready, this method always returns
+     * {@code true}.</p>
+     *
+     * @param chunk The chunk
+     * @return False if the chunk is definitely not claimed
+     */
+    public boolean mayBeClaimed(ChunkPosition chunk) {
+        if (!ready) {
+            return true;
+        }
+        return bitmaps.get(chunk);
+    }
+
+    /**
+     * Record whether the given chunk is claimed.
+     *
+     * @param chunk The chunk
+     * @param claimed Whether the chunk is claimed
+     */
+    public void set(ChunkPosition chunk, boolean claimed) {
+        synchronized (lock) {
+            bitmaps.set(chunk, claimed);
+            if (changesDuringRebuild != null) {
+                changesDuringRebuild.add(new Change(chunk, claimed));
+            }
+        }
+    }
+
+    /**
+     * Replace the contents of the index with the chunks produced by the
+     * given scan, which is run on the current thread.
+     *
+     * @param scan A function that passes every claimed chunk to the consumer it is given
+     */
+    public void rebuild(Consumer<Consumer<ChunkPosition>> scan) {
+        synchronized (lock) {
+            changesDuringRebuild = new ArrayList<>();
+        }
+
+        Bitmaps rebuilt = new Bitmaps();
+        try {
+            scan.accept(chunk -> rebuilt.set(chunk, true));
+        } catch (RuntimeException e) {
+            synchronized (lock) {
+                changesDuringRebuild = null;
+            }
+            throw e;
+        }
+
+        synchronized (lock) {
+            for (Change change : changesDuringRebuild) {
+                rebuilt.set(change.chunk, change.claimed);
+            }
+            changesDuringRebuild = null;
+            rebuilt.publish();
+            bitmaps = rebuilt;
+            ready = true;
+        }
+    }
+
+    /**
+     * Get the number of regions that contain at least one claim.
+     *
+     * @return The number of regions
+     */
+    public int getRegionCount() {
+        return bitmaps.getRegionCount();
+    }
+
+    private static Bitmaps createPublished() {
+        Bitmaps bitmaps = new Bitmaps();
+        bitmaps.publish();
+        return bitmaps;
+    }
+
+    /**
+     * Bitmaps that can be read without a lock while one thread at a time
+     * writes to them. Bits are flipped in place, but the map of regions
+     * of a world is copied and published again whenever a region is added
+     * or removed once the bitmaps are in use.
+     */
+    private static class Bitmaps {
+        private volatile TLongObjectHashMap<AtomicLongArray>[] regionsByWorld = newRegionsArray(0);
+        private boolean published; // Whether readers may see the bitmaps
+
+        public boolean get(ChunkPosition chunk) {
+            TLongObjectHashMap<AtomicLongArray>[] regionsByWorld = this.regionsByWorld;
+            int world = chunk.getWorld();
+            if (world >= regionsByWorld.length || regionsByWorld[world] == null) {
+                return false;
+            }
+            AtomicLongArray bits = regionsByWorld[world].get(regionKey(chunk));
+            if (bits == null) {
+                return false;
+            }
+            int bit = bitIndex(chunk);
+            return (bits.get(bit >>> 6) & (1L << bit)) != 0;
+        }
+
+        public void set(ChunkPosition chunk, boolean claimed) {
+            TLongObjectHashMap<AtomicLongArray>[] regionsByWorld = this.regionsByWorld;
+            int world = chunk.getWorld();
+            TLongObjectHashMap<AtomicLongArray> regions = world < regionsByWorld.length ? regionsByWorld[world] : null;
+            long regionKey = regionKey(chunk);
+            AtomicLongArray bits = regions != null ? regions.get(regionKey) : null;
+            int bit = bitIndex(chunk);
+            int word = bit >>> 6;
+
+            if (claimed) {
+                if (bits == null) {
+                    bits = new AtomicLongArray(WORDS_PER_REGION);
+                    bits.set(word, 1L << bit);
+                    TLongObjectHashMap<AtomicLongArray> updated = edit(regions);
+                    updated.put(regionKey, bits);
+                    replace(world, updated);
+                } else {
+                    bits.set(word, bits.get(word) | (1L << bit));
+                }
+            } else if (bits != null) {
+                bits.set(word, bits.get(word) & ~(1L << bit));
+                if (isEmpty(bits)) {
+                    TLongObjectHashMap<AtomicLongArray> updated = edit(regions);
+                    updated.remove(regionKey);
+                    replace(world, updated);
+                }
+            }
+        }
+
+        /**
+         * Mark the bitmaps as visible to readers, after which maps are no
+         * longer changed in place.
+         */
+        public void publish() {
+            published = true;
+        }
+
+        private TLongObjectHashMap<AtomicLongArray> edit(TLongObjectHashMap<AtomicLongArray> regions) {
+            if (regions == null) {
+                return new TLongObjectHashMap<>();
+            }
+            return published ? new TLongObjectHashMap<>(regions) : regions;
+        }
+
+        private void replace(int world, TLongObjectHashMap<AtomicLongArray> regions) {
+            TLongObjectHashMap<AtomicLongArray>[] regionsByWorld = this.regionsByWorld;
+            if (world < regionsByWorld.length && regionsByWorld[world] == regions) {
+                return; // Changed in place
+            }
+            regionsByWorld = Arrays.copyOf(regionsByWorld, Math.max(regionsByWorld.length, world + 1));
+            regionsByWorld[world] = regions;
+            this.regionsByWorld = regionsByWorld;
+        }
+
+        public int getRegionCount() {
+            int count = 0;
+            for (TLongObjectHashMap<AtomicLongArray> regions : regionsByWorld) {
+                if (regions != null) {
+                    count += regions.size();
+                }
+            }
+            return count;
+        }
+
+        private static boolean isEmpty(AtomicLongArray bits) {
+            for (int i = 0; i < bits.length(); i++) {
+                if (bits.get(i) != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static TLongObjectHashMap<AtomicLongArray>[] newRegionsArray(int length) {
+            return (TLongObjectHashMap<AtomicLongArray>[]) new TLongObjectHashMap<?>[length];
+        }
+
+        private static long regionKey(ChunkPosition chunk) {
+            return ChunkPosition.pack(chunk.getX() >> REGION_SHIFT, chunk.getZ() >> REGION_SHIFT);
+        }
+
+        private static int bitIndex(ChunkPosition chunk) {
+            return ((chunk.getX() & REGION_MASK) << REGION_SHIFT) | (chunk.getZ() & REGION_MASK);
+        }
+    }
+
+    private static class Change {
+        private final ChunkPosition chunk;
+        private final boolean claimed;
+
+        private Change(ChunkPosition chunk, boolean claimed) {
+            this.chunk = chunk;
+            this.claimed = claimed;
+        }
+    }
+
+}
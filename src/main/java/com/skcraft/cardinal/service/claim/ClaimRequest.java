@@ -1,34 +1,87 @@
 package com.skcraft.cardinal.service.claim;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.skcraft.cardinal.profile.MojangId;
+import com.skcraft.cardinal.util.ChunkPosition;
+import com.skcraft.cardinal.util.DataAccessException;
 import com.skcraft.cardinal.util.WorldVector3i;
+import com.skcraft.cardinal.util.sql.BatchStatements;
 import lombok.Getter;
 
 import javax.annotation.Nullable;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+/**
+ * Sorts the chunks that a player wants to claim into chunks that are free,
+ * chunks that they already own, and chunks that are owned by others.
+ *
+ * <p>Chunks that are loaded in the {@link ClaimCache} are answered from
+ * the cache and only the rest are looked up in the database. When an
+ * executor is given, the owner's claim count is fetched on the executor
+ * while the chunks are being looked up, and large selections are split
+ * into batches that are looked up in parallel.</p>
+ */
 public class ClaimRequest {
 
+    private static final int LOOKUP_BATCH_SIZE = BatchStatements.MAX_BATCH_SIZE;
+
     private final ClaimCache claimCache;
+    private final ListeningExecutorService executor;
     @Getter private final MojangId owner;
     @Getter @Nullable private final String party;
-    @Getter private final int currentTotalOwnedCount;
+    private final ListenableFuture<Integer> ownedCount;
+    @Getter private int cacheHitCount;
     @Getter private final Set<WorldVector3i> unclaimed = Sets.newHashSet();
     @Getter private final Set<WorldVector3i> alreadyOwned = Sets.newHashSet();
     @Getter private final Set<WorldVector3i> ownedByOthers = Sets.newHashSet();
 
     public ClaimRequest(ClaimCache claimCache, MojangId owner, String party) {
+        this(claimCache, owner, party, MoreExecutors.sameThreadExecutor());
+    }
+
+    /**
+     * Create a new request.
+     *
+     * @param claimCache The claim cache
+     * @param owner The player that wants to claim
+     * @param party The party to claim for
+     * @param executor The executor to run database lookups on
+     */
+    public ClaimRequest(ClaimCache claimCache, MojangId owner, String party, ListeningExecutorService executor) {
         checkNotNull(claimCache, "claimCache");
         checkNotNull(owner, "owner");
+        checkNotNull(executor, "executor");
         this.claimCache = claimCache;
+        this.executor = executor;
         this.owner = owner;
         this.party = party;
-        this.currentTotalOwnedCount = claimCache.getClaimMap().getCountByOwner(owner);
+        this.ownedCount = executor.submit(() -> claimCache.getClaimMap().getCountByOwner(owner));
+    }
+
+    /**
+     * Get the number of chunks that the owner had claimed when this
+     * request was created, waiting for the count if it is still being
+     * fetched.
+     *
+     * @return The number of chunks
+     * @throws DataAccessException Thrown if the count can't be fetched
+     */
+    public int getCurrentTotalOwnedCount() {
+        return await(ownedCount, "Could not count the claims of " + owner);
     }
 
     public void addPositions(Collection<WorldVector3i> positions) {
@@ -36,26 +89,87 @@ public class ClaimRequest {
             return;
         }
 
-        Map<WorldVector3i, Claim> existing = claimCache.getClaimMap().getAll(positions);
+        Map<ChunkPosition, WorldVector3i> requested = new LinkedHashMap<>(positions.size() * 2);
+        for (WorldVector3i position : positions) {
+            requested.put(ChunkPosition.of(position), position);
+        }
+        classify(requested);
+    }
+
+    public void addChunks(Collection<ChunkPosition> chunks) {
+        if (chunks.isEmpty()) {
+            return;
+        }
+
+        Map<ChunkPosition, WorldVector3i> requested = new LinkedHashMap<>(chunks.size() * 2);
+        for (ChunkPosition chunk : chunks) {
+            requested.put(chunk, chunk.toVector());
+        }
+        classify(requested);
+    }
+
+    private void classify(Map<ChunkPosition, WorldVector3i> requested) {
+        Map<ChunkPosition, Claim> existing = new HashMap<>();
+        List<ChunkPosition> misses = new ArrayList<>();
+        for (ChunkPosition chunk : requested.keySet()) {
+            ClaimEntry entry = claimCache.getIfPresent(chunk);
+            if (entry != null) {
+                if (entry.getClaim() != null) {
+                    existing.put(chunk, entry.getClaim());
+                }
+                cacheHitCount++;
+            } else {
+                misses.add(chunk);
+            }
+        }
+        existing.putAll(lookup(misses));
 
         // Sort out positions into free chunks and owned chunks
-        for (Map.Entry<WorldVector3i, Claim> entry : existing.entrySet()) {
+        for (Map.Entry<ChunkPosition, WorldVector3i> entry : requested.entrySet()) {
             Claim claim = existing.get(entry.getKey());
-            if (claim.getOwner().equals(owner)) {
-                alreadyOwned.add(entry.getKey());
+            if (claim == null) {
+                unclaimed.add(entry.getValue());
+            } else if (claim.getOwner().equals(owner)) {
+                alreadyOwned.add(entry.getValue());
             } else {
-                ownedByOthers.add(entry.getKey());
+                ownedByOthers.add(entry.getValue());
             }
         }
+    }
 
-        for (WorldVector3i position : positions) {
-            if (!alreadyOwned.contains(position) && !ownedByOthers.contains(position)) {
-                unclaimed.add(position);
+    private Map<ChunkPosition, Claim> lookup(List<ChunkPosition> chunks) {
+        if (chunks.isEmpty()) {
+            return new HashMap<>();
+        }
+
+        ClaimMap claims = claimCache.getClaimMap();
+        List<List<ChunkPosition>> batches = Lists.partition(chunks, LOOKUP_BATCH_SIZE);
+        List<ListenableFuture<Map<ChunkPosition, Claim>>> pending = new ArrayList<>();
+        for (List<ChunkPosition> batch : batches.subList(1, batches.size())) {
+            pending.add(executor.submit(() -> claims.getAllChunks(batch)));
+        }
+
+        // Look up the first batch on this thread while the others run
+        Map<ChunkPosition, Claim> results = new HashMap<>(claims.getAllChunks(batches.get(0)));
+        for (ListenableFuture<Map<ChunkPosition, Claim>> future : pending) {
+            results.putAll(await(future, "Could not look up the claims of the selected chunks"));
+        }
+        return results;
+    }
+
+    private static <V> V await(ListenableFuture<V> future, String message) {
+        try {
+            return Futures.getUnchecked(future);
+        } catch (UncheckedExecutionException e) {
+            if (e.getCause() instanceof DataAccessException) {
+                throw (DataAccessException) e.getCause();
             }
+            throw new DataAccessException(message, e.getCause());
         }
     }
 
     public void checkQuota(int max) throws ClaimAttemptException {
+        int currentTotalOwnedCount = getCurrentTotalOwnedCount();
         int newTotal = unclaimed.size() + currentTotalOwnedCount;
         if (newTotal > max) {
             throw new ClaimAttemptException("You can only own a maximum of " + max + " chunks and you already on " + currentTotalOwnedCount + ".");
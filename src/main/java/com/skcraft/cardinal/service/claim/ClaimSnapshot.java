@@ -0,0 +1,227 @@
+package com.skcraft.cardinal.service.claim;
+
+import com.skcraft.cardinal.profile.MojangId;
+import com.skcraft.cardinal.util.WorldVector3i;
+import lombok.Getter;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A compact file of claims that {@link ClaimCache} writes from time to
+ * time, so that after a restart claims can be served before they have
+ * been loaded from the database again.
+ *
+ * <p>The file starts with a header, followed by tables of world names,
+ * owners and party names, followed by one fixed-size record per claim
+ * that refers to the tables by index. The file is memory-mapped when it
+ * is opened and records are only decoded when {@link #forEach(Consumer)}
+ * is called.</p>
+ *
+ * <p>The high-water mark is the time at which the claims were collected.
+ * Changes made after that time are not in the snapshot.</p>
+ */
+class ClaimSnapshot {
+
+    private static final int MAGIC = 0x434c534e; // "CLSN"
+    private static final int VERSION = 1;
+    private static final int RECORD_SIZE = 5 * 4 + 8;
+
+    private final MappedByteBuffer buffer;
+    @Getter
+    private final String serverId;
+    @Getter
+    private final long highWaterMark;
+    private final String[] worlds;
+    private final MojangId[] owners;
+    private final String[] parties;
+    private final int claimCount;
+    private final int recordsOffset;
+
+    private ClaimSnapshot(MappedByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        ByteBuffer in = buffer.duplicate();
+        if (in.getInt() != MAGIC) {
+            throw new IOException("Not a claim snapshot");
+        }
+        int version = in.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported claim snapshot version " + version);
+        }
+        highWaterMark = in.getLong();
+        serverId = readString(in);
+
+        worlds = new String[in.getInt()];
+        for (int i = 0; i < worlds.length; i++) {
+            worlds[i] = readString(in);
+        }
+        owners = new MojangId[in.getInt()];
+        for (int i = 0; i < owners.length; i++) {
+            owners[i] = ClaimInterner.owner(new UUID(in.getLong(), in.getLong()), readString(in));
+        }
+        parties = new String[in.getInt()];
+        for (int i = 0; i < parties.length; i++) {
+            parties[i] = ClaimInterner.name(readString(in));
+        }
+
+        claimCount = in.getInt();
+        recordsOffset = in.position();
+        if (in.remaining() < (long) claimCount * RECORD_SIZE) {
+            throw new IOException("The claim snapshot is truncated");
+        }
+    }
+
+    /**
+     * Open and map a snapshot file.
+     *
+     * @param file The file
+     * @return The snapshot
+     * @throws IOException Thrown if the file can't be read or is not a valid snapshot
+     */
+    public static ClaimSnapshot open(File file) throws IOException {
+        checkNotNull(file, "file");
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed
+            return new ClaimSnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (RuntimeException e) {
+            throw new IOException("The claim snapshot at " + file.getAbsolutePath() + " is corrupt", e);
+        }
+    }
+
+    /**
+     * Write a snapshot file, replacing the existing file only once the
+     * new one has been completely written.
+     *
+     * @param file The file
+     * @param serverId The server that the claims belong to
+     * @param claims The claims
+     * @param highWaterMark The time at which the claims were collected
+     * @throws IOException Thrown on I/O error
+     */
+    public static void write(File file, String serverId, Collection<Claim> claims, long highWaterMark) throws IOException {
+        checkNotNull(file, "file");
+        checkNotNull(serverId, "serverId");
+        checkNotNull(claims, "claims");
+
+        Map<String, Integer> worlds = new LinkedHashMap<>();
+        Map<MojangId, Integer> owners = new LinkedHashMap<>();
+        Map<String, Integer> parties = new LinkedHashMap<>();
+        for (Claim claim : claims) {
+            worlds.putIfAbsent(claim.getPosition().getWorldId(), worlds.size());
+            owners.putIfAbsent(claim.getOwner(), owners.size());
+            if (claim.getParty() != null) {
+                parties.putIfAbsent(claim.getParty(), parties.size());
+            }
+        }
+
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        File temp = new File(file.getPath() + ".tmp");
+
+        try (FileOutputStream fileOut = new FileOutputStream(temp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(highWaterMark);
+            writeString(out, serverId);
+
+            out.writeInt(worlds.size());
+            for (String world : worlds.keySet()) {
+                writeString(out, world);
+            }
+            out.writeInt(owners.size());
+            for (MojangId owner : owners.keySet()) {
+                out.writeLong(owner.getUuid().getMostSignificantBits());
+                out.writeLong(owner.getUuid().getLeastSignificantBits());
+                writeString(out, owner.getName());
+            }
+            out.writeInt(parties.size());
+            for (String party : parties.keySet()) {
+                writeString(out, party);
+            }
+
+            out.writeInt(claims.size());
+            for (Claim claim : claims) {
+                WorldVector3i position = claim.getPosition();
+                out.writeInt(worlds.get(position.getWorldId()));
+                out.writeInt(position.getX());
+                out.writeInt(position.getZ());
+                out.writeInt(owners.get(claim.getOwner()));
+                out.writeInt(claim.getParty() != null ? parties.get(claim.getParty()) : -1);
+                out.writeLong(claim.getIssueTime() != null ? claim.getIssueTime().getTime() : 0);
+            }
+
+            out.flush();
+            fileOut.getChannel().force(false); // Before it replaces the snapshot
+        }
+
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Get the number of claims in the snapshot.
+     *
+     * @return The number of claims
+     */
+    public int size() {
+        return claimCount;
+    }
+
+    /**
+     * Decode every claim in the snapshot.
+     *
+     * @param consumer The consumer
+     */
+    public void forEach(Consumer<Claim> consumer) {
+        checkNotNull(consumer, "consumer");
+        ByteBuffer in = buffer.duplicate();
+        in.position(recordsOffset);
+        for (int i = 0; i < claimCount; i++) {
+            String world = worlds[in.getInt()];
+            int x = in.getInt();
+            int z = in.getInt();
+            MojangId owner = owners[in.getInt()];
+            int party = in.getInt();
+            long issueTime = in.getLong();
+
+            Claim claim = new Claim(serverId, new WorldVector3i(world, x, 0, z));
+            claim.setOwner(owner);
+            claim.setParty(party != -1 ? parties[party] : null);
+            claim.setIssueTime(issueTime != 0 ? new Date(issueTime) : null);
+            consumer.accept(claim);
+        }
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getShort() & 0xFFFF];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+}
@@ -0,0 +1,387 @@
+package com.skcraft.cardinal.service.claim;
+
+import com.skcraft.cardinal.profile.MojangId;
+import com.skcraft.cardinal.service.party.Party;
+import com.skcraft.cardinal.util.ChunkPosition;
+
+import javax.annotation.Nullable;
+import java.util.Date;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Stores loaded chunk states of one world as a few primitive fields in
+ * parallel arrays, for when {@link ClaimCacheConfig#isCompactStates()}
+ * is enabled.
+ *
+ * <p>Each slot of the table takes 41 bytes, and the table is kept
+ * between a quarter and a half full, so a loaded chunk costs about 80 to
+ * 165 bytes here (twice that for a moment while the table grows). That
+ * compares to around 320 bytes for a {@link ChunkState} with its
+ * {@link Claim}, position, date and hash table entry. Owners, parties
+ * and servers are stored as IDs into the tables of a {@link Dictionary}
+ * that is shared by every world.</p>
+ *
+ * <p>{@link #get(long)} creates a new, detached {@link ChunkState} on
+ * every call, so the state that is returned can be read but changes made
+ * to it have no effect on the store. Accesses are recorded with
+ * {@link #touch(long, int)} instead. Reads use an optimistic
+ * {@link StampedLock} read and never block unless a write happens at the
+ * same time. Writes must be serialized by the caller.</p>
+ */
+class CompactChunkStore {
+
+    private static final int MIN_CAPACITY = 64;
+    private static final byte EMPTY = 0;
+    private static final byte USED = 1;
+    private static final byte REMOVED = 2;
+    private static final int NONE = -1;
+
+    // Fields of each record in the int array
+    private static final int OWNER = 0;
+    private static final int PARTY_NAME = 1;
+    private static final int PARTY = 2;
+    private static final int SERVER = 3;
+    private static final int GENERATION = 4;
+    private static final int ACCESS_TIME = 5;
+    private static final int STRIDE = 6;
+
+    private final int world;
+    private final Dictionary dictionary;
+    private final StampedLock lock = new StampedLock();
+    private Slots slots = new Slots(MIN_CAPACITY); // Replaced under the write lock
+    private int size;
+    private int used; // Used slots plus removed slots
+
+    /**
+     * Create a new store.
+     *
+     * @param world The world ID
+     * @param dictionary The dictionary shared by every world
+     */
+    CompactChunkStore(int world, Dictionary dictionary) {
+        this.world = world;
+        this.dictionary = checkNotNull(dictionary, "dictionary");
+    }
+
+    /**
+     * Get a detached copy of the state for the given key.
+     *
+     * @param key The packed chunk coordinates
+     * @return The state, or null if there is none
+     */
+    @Nullable
+    public ChunkState get(long key) {
+        long stamp = lock.tryOptimisticRead();
+        Record record = find(slots, key);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                record = find(slots, key);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return record != null ? materialize(key, record) : null;
+    }
+
+    /**
+     * Store the given loaded state, replacing the record with the same key.
+     *
+     * @param state The state
+     */
+    public void put(ChunkState state) {
+        Claim claim = state.getClaim();
+        Party party = state.getParty();
+        int owner = NONE;
+        int partyName = NONE;
+        int partyId = NONE;
+        int server = NONE;
+        long issueTime = 0;
+        if (claim != null) {
+            owner = dictionary.owners.id(claim.getOwner(), claim.getOwner());
+            partyName = claim.getParty() != null ? dictionary.partyNames.id(claim.getParty(), claim.getParty()) : NONE;
+            server = dictionary.servers.id(claim.getServer(), claim.getServer());
+            issueTime = claim.getIssueTime() != null ? claim.getIssueTime().getTime() : 0;
+        }
+        if (party != null) {
+            partyId = dictionary.parties.id(party.getName().toLowerCase(), party);
+        }
+
+        long stamp = lock.writeLock();
+        try {
+            Slots slots = this.slots;
+            int i = slotFor(slots, state.getKey());
+            if (slots.flags[i] != USED) {
+                if (slots.flags[i] == EMPTY) {
+                    used++;
+                }
+                size++;
+                slots.flags[i] = USED;
+                slots.keys[i] = state.getKey();
+            }
+            int base = i * STRIDE;
+            slots.data[base + OWNER] = owner;
+            slots.data[base + PARTY_NAME] = partyName;
+            slots.data[base + PARTY] = partyId;
+            slots.data[base + SERVER] = server;
+            slots.data[base + GENERATION] = state.getGeneration();
+            slots.data[base + ACCESS_TIME] = state.getAccessTime();
+            slots.issueTimes[i] = issueTime;
+
+            if (used * 2 > slots.keys.length) {
+                rehash();
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Record an access to the record for the given key, for the
+     * {@link RegionEvictor}.
+     *
+     * <p>This is called from readers, so it doesn't take the write lock
+     * and is skipped if a write is in progress. An access that races with
+     * a write may be lost, which only makes the chunk look less recently
+     * used than it is.</p>
+     *
+     * @param key The packed chunk coordinates
+     * @param time The time from {@link RegionEvictor#getClock()}
+     */
+    public void touch(long key, int time) {
+        long stamp = lock.tryOptimisticRead();
+        Slots slots = this.slots;
+        int i = indexOf(slots, key);
+        if (i != -1 && lock.validate(stamp)) {
+            slots.data[i * STRIDE + ACCESS_TIME] = time;
+        }
+    }
+
+    /**
+     * Remove the record for the given key.
+     *
+     * @param key The packed chunk coordinates
+     * @return True if there was a record
+     */
+    public boolean remove(long key) {
+        return remove(key, NONE, false);
+    }
+
+    /**
+     * Remove the record for the given key if it has the given generation.
+     *
+     * @param key The packed chunk coordinates
+     * @param generation The generation
+     * @return True if the record was removed
+     */
+    public boolean remove(long key, int generation) {
+        return remove(key, generation, true);
+    }
+
+    /**
+     * Get the number of stored states.
+     *
+     * @return The number of states
+     */
+    public int size() {
+        long stamp = lock.readLock();
+        try {
+            return size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Call the given consumer with a detached copy of every stored state.
+     *
+     * <p>The consumer may change the store.</p>
+     *
+     * @param consumer The consumer
+     */
+    public void forEach(Consumer<ChunkState> consumer) {
+        long[] keys;
+        int count = 0;
+        long stamp = lock.readLock();
+        try {
+            Slots slots = this.slots;
+            keys = new long[size];
+            for (int i = 0; i < slots.keys.length; i++) {
+                if (slots.flags[i] == USED) {
+                    keys[count++] = slots.keys[i];
+                }
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+
+        for (int i = 0; i < count; i++) {
+            ChunkState state = get(keys[i]);
+            if (state != null) {
+                consumer.accept(state);
+            }
+        }
+    }
+
+    private boolean remove(long key, int generation, boolean matchGeneration) {
+        long stamp = lock.writeLock();
+        try {
+            Slots slots = this.slots;
+            int i = slotFor(slots, key);
+            if (slots.flags[i] != USED) {
+                return false;
+            }
+            if (matchGeneration && slots.data[i * STRIDE + GENERATION] != generation) {
+                return false;
+            }
+            slots.flags[i] = REMOVED;
+            size--;
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private ChunkState materialize(long key, Record record) {
+        ChunkState state = new ChunkState(ChunkPosition.of(world, key));
+        if (record.owner != NONE) {
+            Claim claim = new Claim(dictionary.servers.get(record.server), state.getPosition());
+            claim.setOwner(dictionary.owners.get(record.owner));
+            claim.setParty(record.partyName != NONE ? dictionary.partyNames.get(record.partyName) : null);
+            claim.setIssueTime(record.issueTime != 0 ? new Date(record.issueTime) : null);
+            state.setData(claim, record.party != NONE ? dictionary.parties.get(record.party) : null);
+        }
+        state.setLoaded(true);
+        state.setGeneration(record.generation);
+        state.setAccessTime(record.accessTime);
+        state.setDetached(true);
+        return state;
+    }
+
+    private void rehash() {
+        Slots old = this.slots;
+        int capacity = MIN_CAPACITY;
+        while (capacity < size * 4) {
+            capacity <<= 1;
+        }
+        Slots slots = new Slots(capacity);
+        for (int j = 0; j < old.keys.length; j++) {
+            if (old.flags[j] == USED) {
+                int i = slotFor(slots, old.keys[j]);
+                slots.flags[i] = USED;
+                slots.keys[i] = old.keys[j];
+                System.arraycopy(old.data, j * STRIDE, slots.data, i * STRIDE, STRIDE);
+                slots.issueTimes[i] = old.issueTimes[j];
+            }
+        }
+        this.used = size;
+        this.slots = slots;
+    }
+
+    /**
+     * Find the slot holding the key, or else the first free slot where
+     * it could be put.
+     */
+    private static int slotFor(Slots slots, long key) {
+        int mask = slots.keys.length - 1;
+        int i = ChunkPosition.mix(key) & mask;
+        int free = -1;
+        while (true) {
+            byte flag = slots.flags[i];
+            if (flag == EMPTY) {
+                return free != -1 ? free : i;
+            } else if (flag == REMOVED) {
+                if (free == -1) {
+                    free = i;
+                }
+            } else if (slots.keys[i] == key) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    /**
+     * Read a record without a lock. The result may be inconsistent if a
+     * write happens at the same time, and must be validated.
+     */
+    @Nullable
+    private static Record find(Slots slots, long key) {
+        int i = indexOf(slots, key);
+        if (i == -1) {
+            return null;
+        }
+        int base = i * STRIDE;
+        return new Record(slots.data[base + OWNER], slots.data[base + PARTY_NAME], slots.data[base + PARTY],
+                slots.data[base + SERVER], slots.data[base + GENERATION], slots.data[base + ACCESS_TIME], slots.issueTimes[i]);
+    }
+
+    /**
+     * Find the slot of a record without a lock.
+     *
+     * @return The slot, or -1 if there is no record for the key
+     */
+    private static int indexOf(Slots slots, long key) {
+        int mask = slots.keys.length - 1;
+        int i = ChunkPosition.mix(key) & mask;
+        for (int probes = 0; probes <= mask; probes++) {
+            byte flag = slots.flags[i];
+            if (flag == EMPTY) {
+                return -1;
+            } else if (flag == USED && slots.keys[i] == key) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1; // Only possible while racing with a write
+    }
+
+    /**
+     * The owners, parties and servers referred to by the stores of every
+     * world.
+     */
+    static class Dictionary {
+        private final IdTable<MojangId> owners = new IdTable<>();
+        private final IdTable<String> partyNames = new IdTable<>();
+        private final IdTable<Party> parties = new IdTable<>();
+        private final IdTable<String> servers = new IdTable<>();
+    }
+
+    private static class Slots {
+        private final long[] keys;
+        private final byte[] flags;
+        private final int[] data;
+        private final long[] issueTimes;
+
+        private Slots(int capacity) {
+            keys = new long[capacity];
+            flags = new byte[capacity];
+            data = new int[capacity * STRIDE];
+            issueTimes = new long[capacity];
+        }
+    }
+
+    private static class Record {
+        private final int owner;
+        private final int partyName;
+        private final int party;
+        private final int server;
+        private final int generation;
+        private final int accessTime;
+        private final long issueTime;
+
+        private Record(int owner, int partyName, int party, int server, int generation, int accessTime, long issueTime) {
+            this.owner = owner;
+            this.partyName = partyName;
+            this.party = party;
+            this.server = server;
+            this.generation = generation;
+            this.accessTime = accessTime;
+            this.issueTime = issueTime;
+        }
+    }
+
+}
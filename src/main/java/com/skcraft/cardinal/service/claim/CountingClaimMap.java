@@ -0,0 +1,310 @@
+package com.skcraft.cardinal.service.claim;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.Collections2;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Multiset;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.skcraft.cardinal.profile.MojangId;
+import com.skcraft.cardinal.util.ChunkArea;
+import com.skcraft.cardinal.util.ChunkPosition;
+import com.skcraft.cardinal.util.DataAccessException;
+import com.skcraft.cardinal.util.WorldVector3i;
+import lombok.Getter;
+import lombok.extern.java.Log;
+
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A claim map that keeps the number of claims of each owner in memory so
+ * that {@link #getCountByOwner(MojangId)} does not have to count rows in
+ * the database every time a player claims.
+ *
+ * <p>An owner's count is loaded from the underlying claim map the first
+ * time it is asked for, and is then adjusted from what every write made
+ * through this map reports. The underlying map passes back the claims
+ * that each write overwrote or removed, so only the counts of their
+ * owners change. Writes that can't say exactly how many chunks an owner
+ * gained, such as an {@link #update} that may take chunks from an
+ * existing owner or a {@link #saveArea} of overlapping areas, drop only
+ * the counts of the owners involved so that those are loaded again when
+ * next needed.</p>
+ *
+ * <p>Changes made to the database by other servers or by hand are not
+ * seen, so a count is reloaded in the background when it is used after
+ * the reconcile interval has passed. Adjustments made while a count is
+ * being reloaded are kept. Counts that are not used for an hour are
+ * forgotten.</p>
+ */
+@Log
+public class CountingClaimMap implements ClaimMap {
+
+    public static final long DEFAULT_RECONCILE_INTERVAL = TimeUnit.MINUTES.toMillis(5);
+
+    @Getter
+    private final ClaimMap delegate;
+    private final LoadingCache<MojangId, AtomicInteger> counts;
+    private final LongAdder driftCount = new LongAdder();
+
+    /**
+     * Create a new instance that reconciles counts every
+     * {@link #DEFAULT_RECONCILE_INTERVAL} milliseconds.
+     *
+     * @param delegate The claim map to store claims in
+     */
+    @Inject
+    public CountingClaimMap(DatabaseClaimMap delegate) {
+        this(delegate, DEFAULT_RECONCILE_INTERVAL);
+    }
+
+    /**
+     * Create a new instance.
+     *
+     * @param delegate The claim map to store claims in
+     * @param reconcileInterval The time after which a count is reloaded from the claim map, in milliseconds
+     */
+    public CountingClaimMap(ClaimMap delegate, long reconcileInterval) {
+        checkNotNull(delegate, "delegate");
+        checkArgument(reconcileInterval > 0, "reconcileInterval > 0");
+        this.delegate = delegate;
+
+        CacheLoader<MojangId, AtomicInteger> loader = new CacheLoader<MojangId, AtomicInteger>() {
+            @Override
+            public AtomicInteger load(MojangId key) throws Exception {
+                return new AtomicInteger(delegate.getCountByOwner(key));
+            }
+
+            @Override
+            public ListenableFuture<AtomicInteger> reload(MojangId key, AtomicInteger oldValue) throws Exception {
+                // The old count stays in use and keeps being adjusted while
+                // the database is read, so it is corrected in place rather
+                // than replaced. A write that commits while the rows are
+                // being counted may be counted twice until the next reload,
+                // which errs on the side of enforcing a quota.
+                int before = oldValue.get();
+                int count = delegate.getCountByOwner(key);
+                if (count != before) {
+                    driftCount.increment();
+                    log.fine("Claim count of " + key + " was " + before + " but the database has " + count);
+                    oldValue.addAndGet(count - before);
+                }
+                return Futures.immediateFuture(oldValue);
+            }
+        };
+
+        this.counts = CacheBuilder.newBuilder()
+                .refreshAfterWrite(reconcileInterval, TimeUnit.MILLISECONDS)
+                .expireAfterAccess(1, TimeUnit.HOURS)
+                .build(CacheLoader.asyncReloading(loader, Executors.newSingleThreadExecutor(
+                        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("Claim Count Reconciler").build())));
+    }
+
+    /**
+     * Get the number of times that a reconciled count differed from the
+     * count that was kept in memory.
+     *
+     * @return The number of corrected counts
+     */
+    public long getDriftCount() {
+        return driftCount.sum();
+    }
+
+    /**
+     * Forget the count of the given owner so that it is loaded again the
+     * next time that it is needed.
+     *
+     * @param owner The owner
+     */
+    public void invalidateCount(MojangId owner) {
+        checkNotNull(owner, "owner");
+        counts.invalidate(owner);
+    }
+
+    private void adjust(MojangId owner, int delta) {
+        AtomicInteger count = counts.getIfPresent(owner);
+        if (count != null) {
+            count.addAndGet(delta);
+        }
+    }
+
+    private void forget(Multiset<MojangId> previousOwners) {
+        for (Multiset.Entry<MojangId> entry : previousOwners.entrySet()) {
+            if (entry.getElement() != null) {
+                adjust(entry.getElement(), -entry.getCount());
+            }
+        }
+    }
+
+    @Override
+    @Nullable
+    public Claim get(WorldVector3i position) {
+        return delegate.get(position);
+    }
+
+    @Override
+    public Map<WorldVector3i, Claim> getAll(Collection<WorldVector3i> positions) {
+        return delegate.getAll(positions);
+    }
+
+    @Override
+    public Map<ChunkPosition, Claim> getAllChunks(Collection<ChunkPosition> positions) {
+        return delegate.getAllChunks(positions);
+    }
+
+    @Override
+    public Map<ChunkPosition, Claim> getAllInArea(String worldId, int minX, int minZ, int maxX, int maxZ) {
+        return delegate.getAllInArea(worldId, minX, minZ, maxX, maxZ);
+    }
+
+    @Override
+    public void scanClaimedChunks(Consumer<ChunkPosition> consumer) {
+        delegate.scanClaimedChunks(consumer);
+    }
+
+    @Override
+    public void scanClaims(Consumer<Claim> consumer) {
+        delegate.scanClaims(consumer);
+    }
+
+    @Override
+    public int save(Collection<WorldVector3i> positions, MojangId owner, @Nullable String party) {
+        return save(positions, owner, party, claim -> {});
+    }
+
+    @Override
+    public int save(Collection<WorldVector3i> positions, MojangId owner, @Nullable String party, Consumer<? super Claim> replaced) {
+        checkNotNull(positions, "positions");
+        checkNotNull(owner, "owner");
+        checkNotNull(replaced, "replaced");
+
+        Multiset<MojangId> previous = HashMultiset.create();
+        int count = delegate.save(positions, owner, party, claim -> {
+            previous.add(claim.getOwner());
+            replaced.accept(claim);
+        });
+
+        adjust(owner, new HashSet<>(Collections2.transform(positions, ChunkPosition::of)).size());
+        forget(previous);
+
+        return count;
+    }
+
+    @Override
+    public Set<WorldVector3i> update(Collection<WorldVector3i> positions, MojangId owner, @Nullable String party, @Nullable MojangId existingOwner) {
+        checkNotNull(positions, "positions");
+        checkNotNull(owner, "owner");
+
+        Set<WorldVector3i> changed = delegate.update(positions, owner, party, existingOwner);
+
+        if (existingOwner == null) {
+            adjust(owner, changed.size()); // Every changed chunk was unclaimed
+        } else if (!changed.isEmpty()) {
+            // It isn't known which chunks were unclaimed and which were
+            // taken from the existing owner
+            invalidateCount(owner);
+            invalidateCount(existingOwner);
+        }
+
+        return changed;
+    }
+
+    @Override
+    public int remove(Collection<WorldVector3i> positions) {
+        return remove(positions, claim -> {});
+    }
+
+    @Override
+    public int remove(Collection<WorldVector3i> positions, Consumer<? super Claim> removed) {
+        checkNotNull(positions, "positions");
+        checkNotNull(removed, "removed");
+
+        Multiset<MojangId> previous = HashMultiset.create();
+        int count = delegate.remove(positions, claim -> {
+            previous.add(claim.getOwner());
+            removed.accept(claim);
+        });
+
+        forget(previous);
+
+        return count;
+    }
+
+    @Override
+    public void saveArea(Collection<ChunkArea> areas, MojangId owner, @Nullable String party) {
+        saveArea(areas, owner, party, claim -> {});
+    }
+
+    @Override
+    public void saveArea(Collection<ChunkArea> areas, MojangId owner, @Nullable String party, Consumer<? super Claim> replaced) {
+        checkNotNull(areas, "areas");
+        checkNotNull(owner, "owner");
+        checkNotNull(replaced, "replaced");
+
+        Multiset<MojangId> previous = HashMultiset.create();
+        delegate.saveArea(areas, owner, party, claim -> {
+            previous.add(claim.getOwner());
+            replaced.accept(claim);
+        });
+
+        if (!areas.isEmpty()) {
+            // The chunks in overlapping areas aren't counted without
+            // listing every chunk
+            invalidateCount(owner);
+            previous.remove(owner, previous.count(owner));
+            forget(previous);
+        }
+    }
+
+    @Override
+    public int removeArea(Collection<ChunkArea> areas) {
+        return removeArea(areas, claim -> {});
+    }
+
+    @Override
+    public int removeArea(Collection<ChunkArea> areas, Consumer<? super Claim> removed) {
+        checkNotNull(areas, "areas");
+        checkNotNull(removed, "removed");
+
+        Multiset<MojangId> previous = HashMultiset.create();
+        int count = delegate.removeArea(areas, claim -> {
+            previous.add(claim.getOwner());
+            removed.accept(claim);
+        });
+
+        forget(previous);
+
+        return count;
+    }
+
+    @Override
+    public int getCountByOwner(MojangId owner) {
+        checkNotNull(owner, "owner");
+        try {
+            return counts.get(owner).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof DataAccessException) {
+                throw (DataAccessException) e.getCause();
+            }
+            throw new DataAccessException("Could not count the claims of " + owner, e.getCause());
+        }
+    }
+
+}
@@ -1,13 +1,21 @@
 package com.skcraft.cardinal.service.claim;
 
-import com.google.common.base.Strings;
+import com.google.common.collect.Collections2;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.google.inject.Inject;
+import com.skcraft.cardinal.service.claim.query.AdaptiveQueryStrategy;
+import com.skcraft.cardinal.service.claim.query.ClaimQueryStrategy;
+import com.skcraft.cardinal.util.ChunkArea;
+import com.skcraft.cardinal.util.ChunkPosition;
 import com.skcraft.cardinal.util.WorldVector3i;
+import com.skcraft.cardinal.util.sql.BatchStatements;
 import com.skcraft.cardinal.profile.MojangId;
 import com.skcraft.cardinal.profile.MojangIdMapping;
 import com.skcraft.cardinal.util.DataAccessException;
+import lombok.Getter;
+import lombok.Setter;
 
 import javax.annotation.Nullable;
 import javax.sql.DataSource;
@@ -16,19 +24,48 @@ import java.sql.Date;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.function.Consumer;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
 public class DatabaseClaimMap implements ClaimMap {
+    /**
+     * The largest side of an area that is generated with one query, which
+     * is the number of offsets that {@link #OFFSETS} can produce.
+     */
+    private static final int MAX_AREA_SIDE = 1000;
+
+    private static final String DIGITS = "" +
+            "(SELECT 0 AS d UNION ALL SELECT 1 UNION ALL SELECT 2 UNION ALL SELECT 3 UNION ALL SELECT 4" +
+            " UNION ALL SELECT 5 UNION ALL SELECT 6 UNION ALL SELECT 7 UNION ALL SELECT 8 UNION ALL SELECT 9)";
+
+    /**
+     * A derived table of the offsets from 0 up to a parameter, at most 999,
+     * built from digits because MySQL 5 has no recursive queries.
+     */
+    private static final String OFFSETS = "" +
+            "(SELECT a.d + 10 * b.d + 100 * c.d AS n " +
+            "FROM " + DIGITS + " AS a CROSS JOIN " + DIGITS + " AS b CROSS JOIN " + DIGITS + " AS c " +
+            "WHERE a.d + 10 * b.d + 100 * c.d <= ?)";
+
     private final DataSource ds;
     private final MojangIdMapping idMapping;
     private final String serverId;
+    @Getter @Setter
+    private int scanFetchSize = Integer.MIN_VALUE;
+    @Getter
+    private ClaimQueryStrategy queryStrategy = new AdaptiveQueryStrategy();
 
     @Inject
     public DatabaseClaimMap(DataSource dataSource, MojangIdMapping idMapping, String serverId) {
@@ -40,12 +77,23 @@ public class DatabaseClaimMap implements ClaimMap {
         this.serverId = serverId;
     }
 
-    private void addPositionsToStatement(PreparedStatement stmt, Collection<WorldVector3i> positions, int index) throws SQLException {
-        for (WorldVector3i position : positions) {
-            stmt.setString(index++, position.getWorldId());
-            stmt.setInt(index++, position.getX());
-            stmt.setInt(index++, position.getZ());
-        }
+    /**
+     * Set the strategy used to look up and delete claims by position.
+     *
+     * @param queryStrategy The strategy
+     * @see AdaptiveQueryStrategy
+     */
+    public void setQueryStrategy(ClaimQueryStrategy queryStrategy) {
+        this.queryStrategy = checkNotNull(queryStrategy, "queryStrategy");
+    }
+
+    private Claim readClaim(ResultSet rs) throws SQLException {
+        WorldVector3i position = new WorldVector3i(rs.getString("world"), rs.getInt("x"), 0, rs.getInt("z"));
+        Claim claim = new Claim(ClaimInterner.name(rs.getString("server")), position);
+        claim.setOwner(ClaimInterner.owner(UUID.fromString(rs.getString("uuid")), rs.getString("name")));
+        claim.setParty(ClaimInterner.name(rs.getString("party_name")));
+        claim.setIssueTime(rs.getTimestamp("issue_time"));
+        return claim;
     }
 
     @Override
@@ -59,157 +107,536 @@ public class DatabaseClaimMap implements ClaimMap {
     public Map<WorldVector3i, Claim> getAll(Collection<WorldVector3i> positions) {
         checkNotNull(positions, "positions");
 
+        ImmutableMap.Builder<WorldVector3i, Claim> resultBuilder = ImmutableMap.builder();
+        for (Claim claim : getAllChunks(Collections2.transform(positions, ChunkPosition::of)).values()) {
+            resultBuilder.put(claim.getPosition(), claim);
+        }
+        return resultBuilder.build();
+    }
+
+    @Override
+    public Map<ChunkPosition, Claim> getAllChunks(Collection<ChunkPosition> positions) {
+        checkNotNull(positions, "positions");
+
         if (positions.isEmpty()) {
             return Collections.emptyMap();
         }
 
-        ImmutableMap.Builder<WorldVector3i, Claim> resultBuilder = ImmutableMap.builder();
+        Map<ChunkPosition, Claim> results = new HashMap<>(positions.size() * 2);
+
+        try (Connection conn = ds.getConnection()) {
+            queryStrategy.select(conn, serverId, positions, rs -> {
+                Claim claim = readClaim(rs);
+                results.put(ChunkPosition.of(claim.getPosition()), claim);
+            });
+
+            return results;
+        } catch (SQLException e) {
+            throw new DataAccessException(e);
+        }
+    }
+
+    @Override
+    public Map<ChunkPosition, Claim> getAllInArea(String worldId, int minX, int minZ, int maxX, int maxZ) {
+        checkNotNull(worldId, "worldId");
+
+        Map<ChunkPosition, Claim> results = new HashMap<>();
 
         try (Connection conn = ds.getConnection()) {
             PreparedStatement stmt = conn.prepareStatement("" +
                     "SELECT c.*, id.uuid, id.name FROM claim c " +
                     "LEFT JOIN user_id AS id " +
                     "ON (id.id = c.owner_id) " +
-                    "WHERE server = ? AND (world, x, z) IN (" +
-                    Strings.repeat("(?, ?, ?), ", positions.size() - 1) + "(?, ?, ?))");
+                    "WHERE server = ? AND world = ? AND x BETWEEN ? AND ? AND z BETWEEN ? AND ?");
 
             stmt.setString(1, serverId);
-            addPositionsToStatement(stmt, positions, 2);
+            stmt.setString(2, worldId);
+            stmt.setInt(3, minX);
+            stmt.setInt(4, maxX);
+            stmt.setInt(5, minZ);
+            stmt.setInt(6, maxZ);
 
             try (ResultSet rs = stmt.executeQuery()) {
                 while (rs.next()) {
-                    WorldVector3i position = new WorldVector3i(rs.getString("world"), rs.getInt("x"), 0, rs.getInt("z"));
-                    Claim claim = new Claim(rs.getString("server"), position);
-                    claim.setOwner(new MojangId(UUID.fromString(rs.getString("uuid")), rs.getString("name")));
-                    claim.setParty(rs.getString("party_name"));
-                    claim.setIssueTime(rs.getTimestamp("issue_time"));
-                    resultBuilder.put(position, claim);
+                    Claim claim = readClaim(rs);
+                    results.put(ChunkPosition.of(claim.getPosition()), claim);
                 }
             }
 
-            return resultBuilder.build();
+            return results;
         } catch (SQLException e) {
             throw new DataAccessException(e);
         }
     }
 
+    /**
+     * Create a statement to scan a large number of rows without buffering
+     * the whole result in memory.
+     *
+     * <p>With the default fetch size of {@code Integer.MIN_VALUE}, the MySQL
+     * driver streams rows one at a time. If {@code useCursorFetch=true} is
+     * set on the connection URL, a positive fetch size instead reads that
+     * many rows at a time from a server-side cursor.</p>
+     *
+     * @param conn The connection
+     * @param sql The query
+     * @return The statement
+     * @throws SQLException On error
+     */
+    private PreparedStatement prepareScan(Connection conn, String sql) throws SQLException {
+        PreparedStatement stmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        stmt.setFetchSize(scanFetchSize);
+        return stmt;
+    }
+
     @Override
-    public void save(Collection<WorldVector3i> positions, MojangId owner, @Nullable String party) {
+    public void scanClaims(Consumer<Claim> consumer) {
+        checkNotNull(consumer, "consumer");
+
+        try (Connection conn = ds.getConnection()) {
+            PreparedStatement stmt = prepareScan(conn, "" +
+                    "SELECT c.*, id.uuid, id.name FROM claim c " +
+                    "LEFT JOIN user_id AS id " +
+                    "ON (id.id = c.owner_id) " +
+                    "WHERE server = ?");
+            stmt.setString(1, serverId);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    consumer.accept(readClaim(rs));
+                }
+            }
+        } catch (SQLException e) {
+            throw new DataAccessException(e);
+        }
+    }
+
+    @Override
+    public void scanClaimedChunks(Consumer<ChunkPosition> consumer) {
+        checkNotNull(consumer, "consumer");
+
+        try (Connection conn = ds.getConnection()) {
+            PreparedStatement stmt = prepareScan(conn, "SELECT world, x, z FROM claim WHERE server = ?");
+            stmt.setString(1, serverId);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    consumer.accept(ChunkPosition.of(rs.getString(1), rs.getInt(2), rs.getInt(3)));
+                }
+            }
+        } catch (SQLException e) {
+            throw new DataAccessException(e);
+        }
+    }
+
+    @Override
+    public int save(Collection<WorldVector3i> positions, MojangId owner, @Nullable String party) {
+        return save(positions, owner, party, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The overwritten claims are read and locked in the same transaction
+     * as the write. If {@code replaced} is null, they are not read.</p>
+     */
+    @Override
+    public int save(Collection<WorldVector3i> positions, MojangId owner, @Nullable String party, @Nullable Consumer<? super Claim> replaced) {
         checkNotNull(positions, "positions");
         checkNotNull(owner, "owner");
 
         if (positions.isEmpty()) {
-            return;
+            return 0;
+        }
+
+        // A chunk that is listed twice would be counted as overwritten
+        Map<ChunkPosition, WorldVector3i> requested = new LinkedHashMap<>(positions.size() * 2);
+        for (WorldVector3i position : positions) {
+            requested.put(ChunkPosition.of(position), position);
         }
 
         int ownerRowId = idMapping.get(owner);
         Date now = new Date(Calendar.getInstance().getTime().getTime());
+        int overwritten = 0;
 
         try (Connection conn = ds.getConnection()) {
-            conn.setAutoCommit(true);
+            conn.setAutoCommit(false);
 
-            PreparedStatement stmt = conn.prepareStatement("" +
-                    "REPLACE INTO claim" +
-                    "(server, world, x, z, owner_id, party_name, issue_time) " +
-                    "VALUES " +
-                    Strings.repeat("(?, ?, ?, ?, ?, ?, ?), ", positions.size() - 1) + "(?, ?, ?, ?, ?, ?, ?)");
-
-            int index = 1;
-            for (WorldVector3i position : positions) {
-                stmt.setString(index++, serverId);
-                stmt.setString(index++, position.getWorldId());
-                stmt.setInt(index++, position.getX());
-                stmt.setInt(index++, position.getZ());
-                stmt.setInt(index++, ownerRowId);
-                stmt.setString(index++, party);
-                stmt.setDate(index++, now);
-            }
+            try {
+                for (List<WorldVector3i> piece : Lists.partition(new ArrayList<>(requested.values()), BatchStatements.MAX_BATCH_SIZE)) {
+                    if (replaced != null) {
+                        lockClaims(conn, Lists.transform(piece, ChunkPosition::of), replaced);
+                    }
+
+                    List<WorldVector3i> batch = BatchStatements.pad(piece);
+                    PreparedStatement stmt = conn.prepareStatement("" +
+                            "REPLACE INTO claim" +
+                            "(server, world, x, z, owner_id, party_name, issue_time) " +
+                            "VALUES " + BatchStatements.placeholders("(?, ?, ?, ?, ?, ?, ?)", batch.size()));
+
+                    int index = 1;
+                    for (WorldVector3i position : batch) {
+                        stmt.setString(index++, serverId);
+                        stmt.setString(index++, position.getWorldId());
+                        stmt.setInt(index++, position.getX());
+                        stmt.setInt(index++, position.getZ());
+                        stmt.setInt(index++, ownerRowId);
+                        stmt.setString(index++, party);
+                        stmt.setDate(index++, now);
+                    }
+
+                    // REPLACE counts an overwritten row as deleted and inserted,
+                    // and each padding row overwrites the row inserted before it
+                    int padding = batch.size() - piece.size();
+                    overwritten += stmt.executeUpdate() - piece.size() - 2 * padding;
+                }
 
-            stmt.execute();
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
         } catch (SQLException e) {
             throw new DataAccessException(e);
         }
+
+        return overwritten;
     }
 
     @Override
-    public void update(Collection<WorldVector3i> positions, MojangId owner, @Nullable String party, @Nullable MojangId existingOwner) {
+    public Set<WorldVector3i> update(Collection<WorldVector3i> positions, MojangId owner, @Nullable String party, @Nullable MojangId existingOwner) {
         checkNotNull(positions, "positions");
         checkNotNull(owner, "owner");
 
         if (positions.isEmpty()) {
-            return;
+            return Collections.emptySet();
+        }
+
+        Map<ChunkPosition, WorldVector3i> requested = new LinkedHashMap<>(positions.size() * 2);
+        for (WorldVector3i position : positions) {
+            requested.put(ChunkPosition.of(position), position);
         }
 
-        List<WorldVector3i> filteredPositions = Lists.newArrayList(positions);
         int ownerRowId = idMapping.get(owner);
+        Integer existingOwnerRowId = existingOwner != null ? idMapping.get(existingOwner) : null;
         Date now = new Date(Calendar.getInstance().getTime().getTime());
+        Set<WorldVector3i> changed = new HashSet<>();
+
+        try (Connection conn = ds.getConnection()) {
+            conn.setAutoCommit(false);
 
-        Map<WorldVector3i, Claim> existing = getAll(filteredPositions);
-        for (Map.Entry<WorldVector3i, Claim> entry : existing.entrySet()) {
-            if (existingOwner != entry.getValue().getOwner()) {
-                filteredPositions.remove(entry.getKey());
+            try {
+                for (List<ChunkPosition> batch : BatchStatements.partition(requested.keySet())) {
+                    String positionList = BatchStatements.placeholders("(?, ?, ?)", batch.size());
+
+                    // Lock the rows (and the gaps where rows are missing) so
+                    // that the rows that are about to change can be reported
+                    PreparedStatement lockStmt = conn.prepareStatement("" +
+                            "SELECT world, x, z, owner_id FROM claim " +
+                            "WHERE server = ? AND (world, x, z) IN (" + positionList + ") FOR UPDATE");
+                    int index = 1;
+                    lockStmt.setString(index++, serverId);
+                    for (ChunkPosition chunk : batch) {
+                        lockStmt.setString(index++, chunk.getWorldId());
+                        lockStmt.setInt(index++, chunk.getX());
+                        lockStmt.setInt(index++, chunk.getZ());
+                    }
+
+                    Set<ChunkPosition> unmatched = new HashSet<>();
+                    try (ResultSet rs = lockStmt.executeQuery()) {
+                        while (rs.next()) {
+                            if (existingOwnerRowId == null || rs.getInt("owner_id") != existingOwnerRowId) {
+                                unmatched.add(ChunkPosition.of(rs.getString("world"), rs.getInt("x"), rs.getInt("z")));
+                            }
+                        }
+                    }
+
+                    // Insert the unclaimed chunks and take over the chunks of the
+                    // existing owner; owner_id is assigned last because the other
+                    // assignments compare against its old value
+                    PreparedStatement stmt = conn.prepareStatement("" +
+                            "INSERT INTO claim " +
+                            "(server, world, x, z, owner_id, party_name, issue_time) " +
+                            "VALUES " + BatchStatements.placeholders("(?, ?, ?, ?, ?, ?, ?)", batch.size()) + " " +
+                            "ON DUPLICATE KEY UPDATE " +
+                            "party_name = IF(owner_id = ?, VALUES(party_name), party_name), " +
+                            "issue_time = IF(owner_id = ?, VALUES(issue_time), issue_time), " +
+                            "owner_id = IF(owner_id = ?, VALUES(owner_id), owner_id)");
+
+                    index = 1;
+                    for (ChunkPosition chunk : batch) {
+                        stmt.setString(index++, serverId);
+                        stmt.setString(index++, chunk.getWorldId());
+                        stmt.setInt(index++, chunk.getX());
+                        stmt.setInt(index++, chunk.getZ());
+                        stmt.setInt(index++, ownerRowId);
+                        stmt.setString(index++, party);
+                        stmt.setDate(index++, now);
+                    }
+                    int matchedRowId = existingOwnerRowId != null ? existingOwnerRowId : -1; // -1 matches no row
+                    stmt.setInt(index++, matchedRowId);
+                    stmt.setInt(index++, matchedRowId);
+                    stmt.setInt(index++, matchedRowId);
+
+                    stmt.executeUpdate();
+
+                    for (ChunkPosition chunk : batch) {
+                        if (!unmatched.contains(chunk)) {
+                            changed.add(requested.get(chunk));
+                        }
+                    }
+                }
+
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
             }
+
+            return changed;
+        } catch (SQLException e) {
+            throw new DataAccessException(e);
         }
+    }
 
-        if (filteredPositions.isEmpty()) {
-            return;
+    @Override
+    public int remove(Collection<WorldVector3i> positions) {
+        return remove(positions, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The removed claims are read and locked in the same transaction
+     * as the delete. If {@code removed} is null, they are not read.</p>
+     */
+    @Override
+    public int remove(Collection<WorldVector3i> positions, @Nullable Consumer<? super Claim> removed) {
+        checkNotNull(positions, "positions");
+
+        if (positions.isEmpty()) {
+            return 0;
         }
 
+        Set<ChunkPosition> chunks = Sets.newHashSet(Collections2.transform(positions, ChunkPosition::of));
+
         try (Connection conn = ds.getConnection()) {
+            if (removed == null) {
+                conn.setAutoCommit(true);
+                return queryStrategy.delete(conn, serverId, chunks);
+            }
+
             conn.setAutoCommit(false);
 
-            PreparedStatement stmt = conn.prepareStatement("" +
-                    "REPLACE INTO claim " +
-                    "(server, world, x, z, owner_id, party_name, issue_time) " +
-                    "VALUES (?, ?, ?, ?, ?, ?, ?)");
-
-            for (WorldVector3i position : filteredPositions) {
-                stmt.setString(1, serverId);
-                stmt.setString(2, position.getWorldId());
-                stmt.setInt(3, position.getX());
-                stmt.setInt(4, position.getZ());
-                stmt.setInt(5, ownerRowId);
-                stmt.setString(6, party);
-                stmt.setDate(7, now);
-                stmt.addBatch();
+            try {
+                for (List<ChunkPosition> batch : Lists.partition(new ArrayList<>(chunks), BatchStatements.MAX_BATCH_SIZE)) {
+                    lockClaims(conn, batch, removed);
+                }
+
+                int count = queryStrategy.delete(conn, serverId, chunks);
+                conn.commit();
+                return count;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
             }
+        } catch (SQLException e) {
+            throw new DataAccessException(e);
+        }
+    }
+
+    @Override
+    public void saveArea(Collection<ChunkArea> areas, MojangId owner, @Nullable String party) {
+        saveArea(areas, owner, party, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The overwritten claims are read and locked in the same transaction
+     * as the write. If {@code replaced} is null, they are not read.</p>
+     */
+    @Override
+    public void saveArea(Collection<ChunkArea> areas, MojangId owner, @Nullable String party, @Nullable Consumer<? super Claim> replaced) {
+        checkNotNull(areas, "areas");
+        checkNotNull(owner, "owner");
+
+        if (areas.isEmpty()) {
+            return;
+        }
+
+        int ownerRowId = idMapping.get(owner);
+        Date now = new Date(Calendar.getInstance().getTime().getTime());
 
-            stmt.executeBatch();
-            conn.commit();
+        try (Connection conn = ds.getConnection()) {
+            conn.setAutoCommit(false);
+
+            try {
+                if (replaced != null) {
+                    lockClaimsInAreas(conn, areas, replaced);
+                }
+
+                // The rows are generated by the database from the bounds
+                // of each area, rather than sent one by one
+                PreparedStatement stmt = conn.prepareStatement("" +
+                        "REPLACE INTO claim " +
+                        "(server, world, x, z, owner_id, party_name, issue_time) " +
+                        "SELECT ?, ?, ? + xs.n, ? + zs.n, ?, ?, ? " +
+                        "FROM " + OFFSETS + " AS xs CROSS JOIN " + OFFSETS + " AS zs");
+
+                for (ChunkArea area : areas) {
+                    for (ChunkArea piece : area.split(MAX_AREA_SIDE)) {
+                        int index = 1;
+                        stmt.setString(index++, serverId);
+                        stmt.setString(index++, piece.getWorldId());
+                        stmt.setInt(index++, piece.getMinX());
+                        stmt.setInt(index++, piece.getMinZ());
+                        stmt.setInt(index++, ownerRowId);
+                        stmt.setString(index++, party);
+                        stmt.setDate(index++, now);
+                        stmt.setInt(index++, piece.getMaxX() - piece.getMinX());
+                        stmt.setInt(index++, piece.getMaxZ() - piece.getMinZ());
+                        stmt.addBatch();
+                    }
+                }
+
+                stmt.executeBatch();
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
         } catch (SQLException e) {
             throw new DataAccessException(e);
         }
     }
 
     @Override
-    public int remove(Collection<WorldVector3i> positions) {
-        checkNotNull(positions, "positions");
+    public int removeArea(Collection<ChunkArea> areas) {
+        return removeArea(areas, null);
+    }
 
-        if (positions.isEmpty()) {
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The removed claims are read and locked in the same transaction
+     * as the delete. If {@code removed} is null, they are not read.</p>
+     */
+    @Override
+    public int removeArea(Collection<ChunkArea> areas, @Nullable Consumer<? super Claim> removed) {
+        checkNotNull(areas, "areas");
+
+        if (areas.isEmpty()) {
             return 0;
         }
 
         try (Connection conn = ds.getConnection()) {
-            conn.setAutoCommit(true);
+            conn.setAutoCommit(false);
 
-            PreparedStatement stmt = conn.prepareStatement("" +
-                    "DELETE FROM claim WHERE (server, world, x, z) IN (" +
-                    Strings.repeat("(?, ?, ?, ?), ", positions.size() - 1) + "(?, ?, ?, ?))");
-
-            int index = 1;
-            for (WorldVector3i position : positions) {
-                stmt.setString(index++, serverId);
-                stmt.setString(index++, position.getWorldId());
-                stmt.setInt(index++, position.getX());
-                stmt.setInt(index++, position.getZ());
-            }
+            try {
+                if (removed != null) {
+                    lockClaimsInAreas(conn, areas, removed);
+                }
+
+                PreparedStatement stmt = conn.prepareStatement("" +
+                        "DELETE FROM claim " +
+                        "WHERE server = ? AND world = ? AND x BETWEEN ? AND ? AND z BETWEEN ? AND ?");
+
+                for (ChunkArea area : areas) {
+                    stmt.setString(1, serverId);
+                    stmt.setString(2, area.getWorldId());
+                    stmt.setInt(3, area.getMinX());
+                    stmt.setInt(4, area.getMaxX());
+                    stmt.setInt(5, area.getMinZ());
+                    stmt.setInt(6, area.getMaxZ());
+                    stmt.addBatch();
+                }
+
+                int total = 0;
+                for (int count : stmt.executeBatch()) {
+                    total += Math.max(count, 0);
+                }
 
-            return stmt.executeUpdate();
+                conn.commit();
+                return total;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
         } catch (SQLException e) {
             throw new DataAccessException(e);
         }
     }
 
+    /**
+     * Read and lock the claims at the given positions until the end of
+     * the current transaction.
+     *
+     * @param conn The connection, which must not be in auto-commit mode
+     * @param batch The positions, at most {@link BatchStatements#MAX_BATCH_SIZE}
+     * @param consumer The consumer of the claims
+     * @throws SQLException On error
+     */
+    private void lockClaims(Connection conn, List<ChunkPosition> batch, Consumer<? super Claim> consumer) throws SQLException {
+        PreparedStatement stmt = conn.prepareStatement("" +
+                "SELECT c.*, id.uuid, id.name FROM claim c " +
+                "LEFT JOIN user_id AS id " +
+                "ON (id.id = c.owner_id) " +
+                "WHERE c.server = ? AND (c.world, c.x, c.z) IN (" + BatchStatements.placeholders("(?, ?, ?)", batch.size()) + ") " +
+                "FOR UPDATE");
+
+        int index = 1;
+        stmt.setString(index++, serverId);
+        for (ChunkPosition chunk : batch) {
+            stmt.setString(index++, chunk.getWorldId());
+            stmt.setInt(index++, chunk.getX());
+            stmt.setInt(index++, chunk.getZ());
+        }
+
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                consumer.accept(readClaim(rs));
+            }
+        }
+    }
+
+    /**
+     * Read and lock the claims in the given areas until the end of the
+     * current transaction, passing a claim in overlapping areas once.
+     *
+     * @param conn The connection, which must not be in auto-commit mode
+     * @param areas A union of areas, which may overlap
+     * @param consumer The consumer of the claims
+     * @throws SQLException On error
+     */
+    private void lockClaimsInAreas(Connection conn, Collection<ChunkArea> areas, Consumer<? super Claim> consumer) throws SQLException {
+        PreparedStatement stmt = conn.prepareStatement("" +
+                "SELECT c.*, id.uuid, id.name FROM claim c " +
+                "LEFT JOIN user_id AS id " +
+                "ON (id.id = c.owner_id) " +
+                "WHERE c.server = ? AND c.world = ? AND c.x BETWEEN ? AND ? AND c.z BETWEEN ? AND ? " +
+                "FOR UPDATE");
+
+        Set<ChunkPosition> seen = new HashSet<>();
+        for (ChunkArea area : areas) {
+            stmt.setString(1, serverId);
+            stmt.setString(2, area.getWorldId());
+            stmt.setInt(3, area.getMinX());
+            stmt.setInt(4, area.getMaxX());
+            stmt.setInt(5, area.getMinZ());
+            stmt.setInt(6, area.getMaxZ());
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    Claim claim = readClaim(rs);
+                    if (seen.add(ChunkPosition.of(claim.getPosition()))) {
+                        consumer.accept(claim);
+                    }
+                }
+            }
+        }
+    }
+
     @Override
     public int getCountByOwner(MojangId owner) {
         checkNotNull(owner, "owner");
@@ -0,0 +1,75 @@
+package com.skcraft.cardinal.service.claim;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Assigns small integer IDs to values so that {@link CompactChunkStore}
+ * can refer to owners, parties and servers with an {@code int}.
+ *
+ * <p>Values are looked up by a key, and the value that was given most
+ * recently for a key is the one that is returned by {@link #get(int)}, so
+ * that an updated object (such as a party that was loaded again) replaces
+ * the old one. IDs are never reused. Reads never take a lock.</p>
+ *
+ * @param <T> The type of value
+ */
+class IdTable<T> {
+
+    private final Map<Object, Integer> ids = new HashMap<>(); // Guarded by this
+    private volatile AtomicReferenceArray<T> values = new AtomicReferenceArray<>(16);
+    private int size; // Guarded by this
+
+    /**
+     * Get the ID for the given key, assigning a new ID if the key has not
+     * been seen before, and store the given value for it.
+     *
+     * @param key The key
+     * @param value The value
+     * @return The ID
+     */
+    public synchronized int id(Object key, T value) {
+        checkNotNull(key, "key");
+        checkNotNull(value, "value");
+        Integer id = ids.get(key);
+        if (id == null) {
+            id = size++;
+            ids.put(key, id);
+            if (id >= values.length()) {
+                AtomicReferenceArray<T> old = values;
+                AtomicReferenceArray<T> grown = new AtomicReferenceArray<>(old.length() * 2);
+                for (int i = 0; i < old.length(); i++) {
+                    grown.set(i, old.get(i));
+                }
+                values = grown;
+            }
+        }
+        if (values.get(id) != value) {
+            values.set(id, value);
+        }
+        return id;
+    }
+
+    /**
+     * Get the value for the given ID.
+     *
+     * @param id The ID
+     * @return The value
+     */
+    public T get(int id) {
+        return values.get(id);
+    }
+
+    /**
+     * Get the number of IDs that have been assigned.
+     *
+     * @return The number of IDs
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+}
@@ -0,0 +1,434 @@
+package com.skcraft.cardinal.service.claim;
+
+import com.skcraft.cardinal.util.ChunkPosition;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The queue of {@link ChunkState}s waiting to be loaded by
+ * {@link PopulateWorker}s, ordered so that chunks nearest to a player are
+ * loaded first.
+ *
+ * <p>The positions of players are given with {@link #setPlayers(Collection)},
+ * which is cheap to call every tick when nobody has moved to another chunk.
+ * Each request is ranked by its squared distance to the nearest player in
+ * the same world at the time it is queued. When players move, the whole
+ * queue is ranked again the next time a worker takes from it, but not more
+ * often than the configured reprioritize interval. The worker ranks the
+ * queue without holding the lock, so adding states never waits for it;
+ * states added in the meantime are merged in afterwards. Chunks in worlds
+ * without any players are loaded last, in the order they were queued.</p>
+ *
+ * <p>A state is only ever in the queue once: adding a state that is
+ * already queued does nothing. States that are no longer in the cache
+ * when they reach the front of the queue (because they were invalidated)
+ * are dropped instead of being handed to a worker. Both cases are
+ * counted.</p>
+ */
+class PopulateQueue {
+
+    private static final long NO_PLAYERS = Long.MAX_VALUE;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final long reprioritizeInterval;
+    private final Predicate<ChunkState> live;
+    private final Consumer<ChunkState> dropped;
+    private final LongAdder duplicateCount = new LongAdder();
+    private final LongAdder cancelledCount = new LongAdder();
+    private volatile long[][] playersByWorld = new long[0][]; // Sorted packed chunk keys indexed by world ID
+    private final Object playersLock = new Object();
+    private long[][] playerBuffers = new long[0][]; // Reused by setPlayers(), guarded by playersLock
+    private int[] playerCounts = new int[0]; // Reused by setPlayers(), guarded by playersLock
+    private PriorityQueue<Entry> entries = new PriorityQueue<>();
+    private int count; // Includes entries taken out to be ranked again
+    private boolean reprioritizing;
+    private long[][] rankedPlayers = playersByWorld;
+    private long lastReprioritized;
+    private long sequence;
+
+    /**
+     * Create a new queue.
+     *
+     * @param reprioritizeInterval The minimum time between ranking the queue again, in milliseconds
+     * @param live A test of whether a state still needs to be loaded
+     * @param dropped Called with each state that is dropped because it is no longer live
+     */
+    public PopulateQueue(long reprioritizeInterval, Predicate<ChunkState> live, Consumer<ChunkState> dropped) {
+        checkArgument(reprioritizeInterval >= 0, "reprioritizeInterval >= 0");
+        checkNotNull(live, "live");
+        checkNotNull(dropped, "dropped");
+        this.live = live;
+        this.dropped = dropped;
+        this.reprioritizeInterval = TimeUnit.MILLISECONDS.toNanos(reprioritizeInterval);
+        this.lastReprioritized = System.nanoTime() - this.reprioritizeInterval;
+    }
+
+    /**
+     * Set the chunks that players are currently in.
+     *
+     * <p>Nothing is allocated unless a player has moved to another chunk,
+     * and the order of the chunks doesn't matter.</p>
+     *
+     * @param chunks The chunks, one for each player
+     */
+    public void setPlayers(Collection<ChunkPosition> chunks) {
+        checkNotNull(chunks, "chunks");
+        synchronized (playersLock) {
+            int worldCount = 0;
+            Arrays.fill(playerCounts, 0);
+            for (ChunkPosition chunk : chunks) {
+                int world = chunk.getWorld();
+                if (world >= playerBuffers.length) {
+                    playerBuffers = Arrays.copyOf(playerBuffers, world + 1);
+                    playerCounts = Arrays.copyOf(playerCounts, world + 1);
+                }
+                long[] buffer = playerBuffers[world];
+                int index = playerCounts[world]++;
+                if (buffer == null || index >= buffer.length) {
+                    buffer = Arrays.copyOf(buffer != null ? buffer : new long[0], Math.max(8, index * 2));
+                    playerBuffers[world] = buffer;
+                }
+                buffer[index] = chunk.getKey();
+                worldCount = Math.max(worldCount, world + 1);
+            }
+            for (int world = 0; world < worldCount; world++) {
+                if (playerCounts[world] > 0) {
+                    Arrays.sort(playerBuffers[world], 0, playerCounts[world]);
+                }
+            }
+
+            if (!isSamePlayers(playersByWorld, worldCount)) {
+                long[][] players = new long[worldCount][];
+                for (int world = 0; world < worldCount; world++) {
+                    players[world] = playerCounts[world] > 0 ? Arrays.copyOf(playerBuffers[world], playerCounts[world]) : new long[0];
+                }
+                playersByWorld = players;
+            }
+        }
+    }
+
+    /**
+     * Get the packed keys of the chunks that players are in, sorted and
+     * indexed by world ID, which must not be modified.
+     *
+     * @return The chunks of players
+     */
+    long[][] getPlayers() {
+        return playersByWorld;
+    }
+
+    private boolean isSamePlayers(long[][] players, int worldCount) {
+        for (int world = 0; world < Math.max(players.length, worldCount); world++) {
+            int length = world < players.length ? players[world].length : 0;
+            int size = world < worldCount ? playerCounts[world] : 0;
+            if (length != size) {
+                return false;
+            }
+            for (int i = 0; i < size; i++) {
+                if (players[world][i] != playerBuffers[world][i]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Add a state to be loaded, unless it is already queued.
+     *
+     * @param state The state
+     */
+    public void add(ChunkState state) {
+        checkNotNull(state, "state");
+        long[][] players = playersByWorld;
+        lock.lock();
+        try {
+            if (enqueue(players, state)) {
+                notEmpty.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Add several states to be loaded, skipping those that are already
+     * queued.
+     *
+     * @param states The states
+     */
+    public void addAll(Collection<ChunkState> states) {
+        checkNotNull(states, "states");
+        long[][] players = playersByWorld;
+        lock.lock();
+        try {
+            for (ChunkState state : states) {
+                enqueue(players, state);
+            }
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove the nearest state, if there is one.
+     *
+     * @return The state, or null if the queue is empty
+     */
+    @Nullable
+    public ChunkState poll() {
+        reprioritizeIfMoved();
+        lock.lock();
+        try {
+            return next();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove the nearest state, waiting until one is available.
+     *
+     * @return The state
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public ChunkState take() throws InterruptedException {
+        reprioritizeIfMoved();
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                while (entries.isEmpty()) {
+                    notEmpty.await();
+                }
+                ChunkState state = next();
+                if (state != null) {
+                    return state;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove up to the given number of the nearest states without waiting.
+     *
+     * @param collection The collection to add the states to
+     * @param maxElements The maximum number of states to remove
+     * @return The number of states removed
+     */
+    public int drainTo(Collection<? super ChunkState> collection, int maxElements) {
+        reprioritizeIfMoved();
+        lock.lock();
+        try {
+            return drainLocked(collection, maxElements);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove up to the given number of the nearest states, waiting up to
+     * the given amount of time for more states to be added.
+     *
+     * @param collection The collection to add the states to
+     * @param maxElements The maximum number of states to remove
+     * @param timeout The maximum time to wait
+     * @param unit The unit of the timeout
+     * @return The number of states removed
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public int drain(Collection<? super ChunkState> collection, int maxElements, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        int added = 0;
+        reprioritizeIfMoved();
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                added += drainLocked(collection, maxElements - added);
+                if (added >= maxElements) {
+                    break;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    break;
+                }
+                notEmpty.awaitNanos(remaining);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return added;
+    }
+
+    /**
+     * Get the number of states waiting to be loaded.
+     *
+     * @return The number of states
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of times that a state was not added because it was
+     * already queued.
+     *
+     * @return The number of duplicate requests
+     */
+    public long getDuplicateCount() {
+        return duplicateCount.sum();
+    }
+
+    /**
+     * Get the number of states that were dropped from the queue because
+     * they were invalidated before they could be loaded.
+     *
+     * @return The number of cancelled loads
+     */
+    public long getCancelledCount() {
+        return cancelledCount.sum();
+    }
+
+    private boolean enqueue(long[][] players, ChunkState state) {
+        if (state.isQueued()) {
+            duplicateCount.increment();
+            return false;
+        }
+        state.setQueued(true);
+        entries.add(new Entry(state, distance(players, state.getChunk()), sequence++));
+        count++;
+        return true;
+    }
+
+    @Nullable
+    private ChunkState next() {
+        Entry entry;
+        while ((entry = entries.poll()) != null) {
+            ChunkState state = entry.state;
+            state.setQueued(false);
+            count--;
+            if (live.test(state)) {
+                return state;
+            }
+            cancelledCount.increment();
+            dropped.accept(state);
+        }
+        return null;
+    }
+
+    private int drainLocked(Collection<? super ChunkState> collection, int maxElements) {
+        int added = 0;
+        while (added < maxElements) {
+            ChunkState state = next();
+            if (state == null) {
+                break;
+            }
+            collection.add(state);
+            added++;
+        }
+        return added;
+    }
+
+    /**
+     * Rank the queue again if players have moved, which is done by taking
+     * the entries out of the queue under the lock, ranking them without
+     * the lock, and then merging in the entries that were added meanwhile.
+     */
+    private void reprioritizeIfMoved() {
+        long[][] players = playersByWorld;
+        PriorityQueue<Entry> previous;
+        lock.lock();
+        try {
+            if (reprioritizing || players == rankedPlayers || entries.isEmpty()) {
+                return;
+            }
+            long now = System.nanoTime();
+            if (now - lastReprioritized < reprioritizeInterval) {
+                return;
+            }
+            previous = entries;
+            entries = new PriorityQueue<>();
+            reprioritizing = true;
+            rankedPlayers = players;
+            lastReprioritized = now;
+        } finally {
+            lock.unlock();
+        }
+
+        PriorityQueue<Entry> reranked = previous;
+        try {
+            List<Entry> list = new ArrayList<>(previous.size());
+            for (Entry entry : previous) {
+                list.add(new Entry(entry.state, distance(players, entry.state.getChunk()), entry.sequence));
+            }
+            reranked = new PriorityQueue<>(list);
+        } finally {
+            lock.lock();
+            try {
+                reranked.addAll(entries); // Added while ranking
+                entries = reranked;
+                reprioritizing = false;
+                notEmpty.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static long distance(long[][] playersByWorld, ChunkPosition chunk) {
+        int world = chunk.getWorld();
+        if (world >= playersByWorld.length) {
+            return NO_PLAYERS;
+        }
+        long x = chunk.getX();
+        long z = chunk.getZ();
+        long nearest = NO_PLAYERS;
+        for (long player : playersByWorld[world]) {
+            long dx = x - ChunkPosition.unpackX(player);
+            long dz = z - ChunkPosition.unpackZ(player);
+            nearest = Math.min(nearest, dx * dx + dz * dz);
+        }
+        return nearest;
+    }
+
+    private static class Entry implements Comparable<Entry> {
+        private final ChunkState state;
+        private final long distance;
+        private final long sequence;
+
+        private Entry(ChunkState state, long distance, long sequence) {
+            this.state = state;
+            this.distance = distance;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Entry o) {
+            int result = Long.compare(distance, o.distance);
+            return result != 0 ? result : Long.compare(sequence, o.sequence);
+        }
+    }
+
+}
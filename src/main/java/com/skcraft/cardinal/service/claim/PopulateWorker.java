@@ -1,17 +1,26 @@
 package com.skcraft.cardinal.service.claim;
 
+import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Queues;
+import com.google.common.collect.ListMultimap;
+import com.skcraft.cardinal.event.claim.ClaimsChangedEvent;
+import com.skcraft.cardinal.event.claim.ClaimsLoadedEvent;
 import com.skcraft.cardinal.service.party.Party;
 import com.skcraft.cardinal.service.party.PartyCache;
-import com.skcraft.cardinal.util.WorldVector3i;
+import com.skcraft.cardinal.util.ChunkPosition;
 import com.skcraft.cardinal.util.DataAccessException;
-import lombok.Getter;
+import com.skcraft.cardinal.util.sql.RoutingDataSource;
 import lombok.extern.java.Log;
 
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.BlockingQueue;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
@@ -24,27 +33,59 @@ import static com.google.common.base.Preconditions.checkNotNull;
  * <p>{@link ClaimCache} creates several {@code PopulateWorker}s to consume
  * the queue of chunk positions to load and then eventually update the cache
  * with the new claim data.</p>
+ *
+ * <p>If {@link ClaimCacheConfig#isRegionPrefetch()} is enabled, each batch
+ * is grouped by 32x32 chunk region and one range query is made per region.
+ * Every chunk in the region is then filled in the cache, including chunks
+ * that have not been requested yet, which are left for the
+ * {@link RegionEvictor} to remove.</p>
+ *
+ * <p>After each batch, the chunks that were loaded for the first time and
+ * the chunks whose claim changed are announced with one
+ * {@link ClaimsLoadedEvent} and one {@link ClaimsChangedEvent}. Load
+ * futures are completed after the batch has been recorded in the cache's
+ * metrics, so that whoever waits on a load also sees its batch.</p>
+ *
+ * <p>The parties of all the claims in a batch are resolved together with
+ * {@link PartyCache#getAll(Collection)}, so a batch costs at most one
+ * extra round trip no matter how many parties it involves.</p>
+ *
+ * <p>How many states are loaded at once, and how long to wait for more
+ * states to arrive, is decided by an {@link AdaptiveBatchPolicy} that is
+ * shared by all the workers of the cache.</p>
  */
 @Log
 class PopulateWorker implements Runnable {
 
+    static final int REGION_SHIFT = 5;
+    static final int REGION_SIZE = 1 << REGION_SHIFT;
+
+    private final ClaimCache cache;
     private final ClaimMap claims;
     private final PartyCache parties;
-    private final BlockingQueue<ChunkState> queue;
-    @Getter private int collectTime = 1000;
-    @Getter private int batchMaxSize = 100;
+    private final PopulateQueue queue;
+    private final AdaptiveBatchPolicy policy;
+    private final boolean regionPrefetch;
+    private final List<ChunkPosition> loadedChunks = new ArrayList<>(); // Reused after each batch
+    private final List<ChunkPosition> changedChunks = new ArrayList<>(); // Reused after each batch
+    private final List<ChunkState> filledStates = new ArrayList<>(); // Reused after each batch
 
     /**
      * Create a new instance.
      *
+     * @param cache The cache that owns the queue
      * @param claims The claim database
      * @param parties The party cache
      * @param queue A queue of coordinates to fetch
+     * @param policy The policy that sizes batches
      */
-    public PopulateWorker(ClaimMap claims, PartyCache parties, BlockingQueue<ChunkState> queue) {
+    public PopulateWorker(ClaimCache cache, ClaimMap claims, PartyCache parties, PopulateQueue queue, AdaptiveBatchPolicy policy) {
+        this.cache = checkNotNull(cache, "cache");
         this.claims = checkNotNull(claims, "claims");
         this.parties = checkNotNull(parties, "parties");
         this.queue = checkNotNull(queue, "queue");
+        this.policy = checkNotNull(policy, "policy");
+        this.regionPrefetch = cache.getConfig().isRegionPrefetch();
     }
 
     @Override
@@ -52,37 +93,34 @@ class PopulateWorker implements Runnable {
         List<ChunkState> batch = Lists.newArrayList(); // Reused after each queue pass
         do {
             try {
-                // Give up collecting states to load once batchMaxSize has been
-                // reached, or if too much time has elapsed
                 do {
-                    Queues.drain(queue, batch, batchMaxSize, collectTime, TimeUnit.MILLISECONDS);
+                    collect(batch);
+                    batch.removeIf(state -> !state.isPending()); // Filled out of turn, or cancelled
                 } while (batch.isEmpty());
 
                 try {
-                    Map<WorldVector3i, Claim> loaded = claims.getAll(Lists.transform(batch, ChunkState::getPosition));
-
-                    for (ChunkState state : batch) {
-                        Claim claim = loaded.get(state.getPosition());
-
-                        if (claim != null) {
-                            // TODO: Fetch parties in bulk instead
-                            // Currently the cache backing the party cache doesn't support bulk
-                            // loads while also blocking other threads from loading the values
-                            // themselves
-                            String partyName = claim.getParty();
-                            Party party = null;
-                            if (partyName != null) {
-                                party = parties.get(partyName);
-                            }
-
-                            state.setData(claim, party);
+                    long start = System.nanoTime();
+                    // The cache is kept up to date by local writes, so
+                    // the loads can be served by a read replica
+                    RoutingDataSource.readFromReplica(() -> {
+                        if (regionPrefetch) {
+                            populateRegions(batch);
+                        } else {
+                            populate(batch);
                         }
-
-                        state.setLoaded(true);
-                    }
+                    });
+                    long elapsed = System.nanoTime() - start;
+                    policy.recordSuccess(batch.size(), elapsed);
+                    cache.getMetrics().recordBatch(elapsed);
                 } catch (DataAccessException e) {
+                    policy.recordFailure();
+                    cache.getMetrics().recordFailedBatch(batch.size());
                     queue.addAll(batch); // Re-insert
                     log.log(Level.WARNING, "Failed to read claim information", e);
+                } finally {
+                    // Including anything filled before a failure
+                    completeLoads();
+                    postEvents();
                 }
                 batch.clear();
             } catch (Exception e) {
@@ -91,4 +129,163 @@ class PopulateWorker implements Runnable {
         } while (true);
     }
 
+    private void collect(List<ChunkState> batch) throws InterruptedException {
+        int batchSize = policy.getBatchSize();
+        ChunkState first = queue.poll();
+        if (first == null) {
+            // Nothing is waiting, so load whatever arrives next right away
+            // rather than holding it back to build a batch
+            batch.add(queue.take());
+            queue.drainTo(batch, batchSize - 1);
+        } else {
+            // Give up collecting states to load once the batch is full, or
+            // if too much time has elapsed
+            batch.add(first);
+            queue.drain(batch, batchSize - 1, policy.getWaitTime(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void populate(List<ChunkState> batch) {
+        Map<ChunkPosition, Claim> loaded = claims.getAllChunks(Lists.transform(batch, ChunkState::getChunk));
+        Map<String, Party> loadedParties = getParties(loaded.values());
+
+        for (ChunkState state : batch) {
+            Claim claim = loaded.get(state.getChunk());
+            fill(state, claim, getParty(loadedParties, claim));
+            checkWasted(state);
+            cache.settle(state);
+        }
+    }
+
+    private void completeLoads() {
+        for (ChunkState state : filledStates) {
+            state.completeLoad(state);
+        }
+        filledStates.clear();
+    }
+
+    private void postEvents() {
+        if (!loadedChunks.isEmpty()) {
+            cache.post(new ClaimsLoadedEvent(new ArrayList<>(loadedChunks)));
+            loadedChunks.clear();
+        }
+        if (!changedChunks.isEmpty()) {
+            cache.post(new ClaimsChangedEvent(new ArrayList<>(changedChunks)));
+            changedChunks.clear();
+        }
+    }
+
+    private void checkWasted(ChunkState state) {
+        if (!cache.isCached(state)) {
+            cache.recordWastedLoad(); // Invalidated while the query was running
+        }
+    }
+
+    private void populateRegions(List<ChunkState> batch) {
+        ListMultimap<ChunkPosition, ChunkState> regions = ArrayListMultimap.create();
+        for (ChunkState state : batch) {
+            ChunkPosition chunk = state.getChunk();
+            regions.put(ChunkPosition.of(chunk.getWorld(), ChunkPosition.pack(chunk.getX() >> REGION_SHIFT, chunk.getZ() >> REGION_SHIFT)), state);
+        }
+
+        // Query every region before resolving parties so that the parties
+        // of the whole batch can be fetched together
+        Map<ChunkPosition, Map<ChunkPosition, Claim>> loadedByRegion = new HashMap<>();
+        List<Claim> loadedClaims = new ArrayList<>();
+        for (ChunkPosition region : regions.keySet()) {
+            int minX = region.getX() << REGION_SHIFT;
+            int minZ = region.getZ() << REGION_SHIFT;
+            Map<ChunkPosition, Claim> loaded = claims.getAllInArea(region.getWorldId(), minX, minZ, minX + REGION_SIZE - 1, minZ + REGION_SIZE - 1);
+            loadedByRegion.put(region, loaded);
+            loadedClaims.addAll(loaded.values());
+        }
+        Map<String, Party> loadedParties = getParties(loadedClaims);
+
+        for (Map.Entry<ChunkPosition, Collection<ChunkState>> entry : regions.asMap().entrySet()) {
+            ChunkPosition region = entry.getKey();
+            int minX = region.getX() << REGION_SHIFT;
+            int minZ = region.getZ() << REGION_SHIFT;
+            Map<ChunkPosition, Claim> loaded = loadedByRegion.get(region);
+
+            // The queued states first, in case they were invalidated in the meantime
+            for (ChunkState state : entry.getValue()) {
+                Claim claim = loaded.get(state.getChunk());
+                fill(state, claim, getParty(loadedParties, claim));
+                checkWasted(state);
+                cache.settle(state);
+            }
+
+            ChunkStateTable states = cache.getStates(region.getWorld());
+            for (int x = minX; x < minX + REGION_SIZE; x++) {
+                for (int z = minZ; z < minZ + REGION_SIZE; z++) {
+                    long key = ChunkPosition.pack(x, z);
+                    ChunkState state = states.get(key);
+                    if (state != null && state.isLoaded() && !state.isPending()) {
+                        continue; // Already fresh, or filled above
+                    }
+
+                    ChunkPosition chunk = ChunkPosition.of(region.getWorld(), key);
+                    Claim claim = loaded.get(chunk);
+                    Party party = getParty(loadedParties, claim);
+
+                    if (state == null) {
+                        state = new ChunkState(chunk);
+                        apply(state, claim, party);
+                        ChunkState existing = states.putIfAbsent(state);
+                        if (existing != null) {
+                            fill(existing, claim, party);
+                            state = existing;
+                        } else {
+                            loadedChunks.add(chunk);
+                        }
+                    } else {
+                        fill(state, claim, party);
+                    }
+                    states.settle(state);
+                }
+            }
+        }
+    }
+
+    private void fill(ChunkState state, @Nullable Claim claim, @Nullable Party party) {
+        if (!state.isLoaded()) {
+            if (cache.isCached(state)) { // Not invalidated while the query was running
+                loadedChunks.add(state.getChunk());
+            }
+            if (state.getQueueTime() != 0) {
+                cache.getMetrics().recordLoad(System.nanoTime() - state.getQueueTime());
+                state.setQueueTime(0);
+            }
+        } else if (ClaimCache.isChanged(state.getClaim(), claim)) {
+            changedChunks.add(state.getChunk());
+        }
+        apply(state, claim, party);
+    }
+
+    private void apply(ChunkState state, @Nullable Claim claim, @Nullable Party party) {
+        state.setData(claim, party);
+        state.setLoaded(true);
+        state.setPending(false);
+        filledStates.add(state);
+    }
+
+    private Map<String, Party> getParties(Collection<Claim> claims) {
+        Set<String> names = new HashSet<>();
+        for (Claim claim : claims) {
+            if (claim.getParty() != null) {
+                names.add(claim.getParty());
+            }
+        }
+        return names.isEmpty() ? Collections.emptyMap() : parties.getAll(names);
+    }
+
+    @Nullable
+    private static Party getParty(Map<String, Party> parties, @Nullable Claim claim) {
+        String partyName = claim != null ? claim.getParty() : null;
+        if (partyName != null) {
+            return parties.get(partyName.toLowerCase());
+        }
+        return null;
+    }
+
 }
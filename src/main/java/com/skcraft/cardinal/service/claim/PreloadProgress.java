@@ -0,0 +1,99 @@
+package com.skcraft.cardinal.service.claim;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reports the progress of loading every claim on the server into
+ * {@link ClaimCache} when {@link ClaimCacheConfig#isPreload()} is enabled.
+ */
+public class PreloadProgress {
+
+    /**
+     * A rough estimate of the heap used by each preloaded claim, including
+     * its chunk state, claim, position and owner objects.
+     */
+    public static final int ESTIMATED_BYTES_PER_CLAIM = 320;
+
+    private final AtomicLong claimsLoaded = new AtomicLong();
+    private volatile long startTime;
+    private volatile long endTime;
+    private volatile boolean complete;
+
+    /**
+     * Estimate the heap needed to preload the given number of claims.
+     *
+     * <p>This can be used with the result of
+     * {@code SELECT COUNT(*) FROM claim WHERE server = ?} to decide whether
+     * preloading should be enabled for a server.</p>
+     *
+     * @param claimCount The number of claims
+     * @return The estimated number of bytes
+     */
+    public static long estimateBytes(long claimCount) {
+        return claimCount * ESTIMATED_BYTES_PER_CLAIM;
+    }
+
+    void start() {
+        claimsLoaded.set(0);
+        startTime = System.currentTimeMillis();
+        endTime = 0;
+    }
+
+    long increment() {
+        return claimsLoaded.incrementAndGet();
+    }
+
+    void finish() {
+        endTime = System.currentTimeMillis();
+        complete = true;
+    }
+
+    /**
+     * Get the number of claims read by the current or last scan.
+     *
+     * @return The number of claims
+     */
+    public long getClaimsLoaded() {
+        return claimsLoaded.get();
+    }
+
+    /**
+     * Get whether a scan has completed at least once, after which
+     * chunks without a preloaded claim are known to be unclaimed.
+     *
+     * @return True if complete
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Get the time spent on the current or last scan.
+     *
+     * @return The time in milliseconds, or 0 if no scan has started
+     */
+    public long getElapsedMillis() {
+        long startTime = this.startTime;
+        if (startTime == 0) {
+            return 0;
+        }
+        long endTime = this.endTime;
+        return (endTime != 0 ? endTime : System.currentTimeMillis()) - startTime;
+    }
+
+    /**
+     * Get the estimated heap used by the claims read so far.
+     *
+     * @return The estimated number of bytes
+     */
+    public long getEstimatedBytes() {
+        return estimateBytes(getClaimsLoaded());
+    }
+
+    @Override
+    public String toString() {
+        return getClaimsLoaded() + " claim(s) in " + getElapsedMillis() + " ms, ~"
+                + (getEstimatedBytes() / 1024 / 1024) + " MB" + (complete ? "" : " (loading)");
+    }
+
+}
@@ -0,0 +1,228 @@
+package com.skcraft.cardinal.service.claim;
+
+import com.skcraft.cardinal.util.ChunkPosition;
+import lombok.extern.java.Log;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Keeps the number of chunk states in a {@link ClaimCache} under
+ * {@link ClaimCacheConfig#getMaxChunks()} by removing whole regions, for
+ * when the host does not invalidate every chunk that it unloads.
+ *
+ * <p>When the cache is over the limit, every region is scored by how long
+ * ago any of its chunks was last read or written, multiplied by its
+ * distance in regions from the nearest player, and the regions with the
+ * highest scores are evicted until the cache is down to
+ * {@link #LOW_WATER_MARK} of the limit. Regions within the view distance
+ * of a player are never evicted, since the host has their chunks loaded
+ * and won't queue them again. States that are pending or queued are never
+ * evicted either, and neither are claimed states when claims are
+ * preloaded, because those can't be loaded again without another scan.</p>
+ *
+ * <p>If a pass can't get the cache down to its target because too much
+ * of it can't be evicted, no more passes are made until the cache has
+ * grown past the size that was left.</p>
+ *
+ * <p>Access times come from a coarse clock that only advances when
+ * {@link #evict()} runs, so reads only write to a state once per pass.</p>
+ */
+@Log
+class RegionEvictor {
+
+    static final double LOW_WATER_MARK = 0.9;
+    private static final int MAX_DISTANCE = 64; // In regions
+
+    private final ClaimCache cache;
+    private final int maxChunks;
+    private final int viewDistance;
+    private final boolean keepClaims;
+    private final long start = System.nanoTime();
+    private final AtomicInteger clock = new AtomicInteger(1);
+    private final LongAdder evictedChunkCount = new LongAdder();
+    private final LongAdder evictedRegionCount = new LongAdder();
+    private volatile int stuckSize; // The size left by the last pass that fell short, or 0
+    private boolean warned;
+
+    /**
+     * Create a new evictor.
+     *
+     * @param cache The cache
+     * @param maxChunks The maximum number of chunk states
+     * @param viewDistance The distance in chunks from players within which regions are kept
+     * @param keepClaims Whether claimed states must not be evicted
+     */
+    RegionEvictor(ClaimCache cache, int maxChunks, int viewDistance, boolean keepClaims) {
+        checkNotNull(cache, "cache");
+        checkArgument(maxChunks > 0, "maxChunks > 0");
+        checkArgument(viewDistance >= 0, "viewDistance >= 0");
+        this.cache = cache;
+        this.maxChunks = maxChunks;
+        this.viewDistance = viewDistance;
+        this.keepClaims = keepClaims;
+    }
+
+    /**
+     * Get the current time of the access clock.
+     *
+     * @return The time, which is at least 1
+     */
+    public int getClock() {
+        return clock.get();
+    }
+
+    /**
+     * Get the number of chunk states that have been evicted.
+     *
+     * @return The number of chunks
+     */
+    public long getEvictedChunkCount() {
+        return evictedChunkCount.sum();
+    }
+
+    /**
+     * Get the number of regions that have had chunk states evicted.
+     *
+     * @return The number of regions
+     */
+    public long getEvictedRegionCount() {
+        return evictedRegionCount.sum();
+    }
+
+    /**
+     * Advance the clock and evict regions if the cache is over its limit.
+     *
+     * @return The number of chunk states that were evicted
+     */
+    public int evict() {
+        int now = (int) TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) + 1;
+        clock.set(now);
+
+        int[] size = new int[1];
+        cache.forEachStates(states -> size[0] += states.size());
+        if (size[0] <= maxChunks) {
+            stuckSize = 0;
+            return 0;
+        }
+        if (size[0] <= stuckSize) {
+            return 0; // Nothing that could be evicted has been added since the last pass
+        }
+        int target = size[0] - (int) (maxChunks * LOW_WATER_MARK);
+
+        Map<Integer, List<ChunkPosition>> players = new HashMap<>();
+        for (ChunkPosition chunk : cache.getPlayerChunks()) {
+            players.computeIfAbsent(chunk.getWorld(), k -> new ArrayList<>()).add(chunk);
+        }
+
+        List<Region> regions = new ArrayList<>();
+        int[] kept = new int[1];
+        cache.forEachStates(states -> {
+            Map<ChunkPosition, Region> byPosition = new HashMap<>();
+            states.forEach(state -> {
+                ChunkPosition chunk = state.getChunk();
+                ChunkPosition position = ChunkPosition.of(chunk.getWorld(), ChunkPosition.pack(
+                        chunk.getX() >> PopulateWorker.REGION_SHIFT, chunk.getZ() >> PopulateWorker.REGION_SHIFT));
+                Region region = byPosition.computeIfAbsent(position, Region::new);
+                region.lastAccess = Math.max(region.lastAccess, state.getAccessTime());
+                if (keepClaims && state.getClaim() != null) {
+                    kept[0]++;
+                }
+            });
+            regions.addAll(byPosition.values());
+        });
+
+        List<Region> candidates = new ArrayList<>();
+        for (Region region : regions) {
+            int distance = getDistance(region.position, players.get(region.position.getWorld()));
+            if (distance > viewDistance) {
+                region.score = (long) (now - region.lastAccess + 1) * (1 + Math.min(distance >> PopulateWorker.REGION_SHIFT, MAX_DISTANCE));
+                candidates.add(region);
+            }
+        }
+        candidates.sort((a, b) -> Long.compare(b.score, a.score));
+
+        int evicted = 0;
+        for (Region region : candidates) {
+            if (evicted >= target) {
+                break;
+            }
+            int count = evict(region);
+            if (count > 0) {
+                evicted += count;
+                evictedRegionCount.increment();
+            }
+        }
+        evictedChunkCount.add(evicted);
+
+        if (evicted < target) {
+            stuckSize = size[0] - evicted;
+            if (kept[0] >= maxChunks * LOW_WATER_MARK && !warned) {
+                warned = true;
+                log.warning("The claim cache has " + kept[0] + " preloaded claims, which can't be evicted, but may " +
+                        "only hold " + maxChunks + " chunks. Raise the limit to stop eviction from being retried.");
+            }
+        } else {
+            stuckSize = 0;
+        }
+
+        log.fine("Evicted " + evicted + " chunk(s) from the claim cache");
+        return evicted;
+    }
+
+    private int evict(Region region) {
+        ChunkStateTable states = cache.getStates(region.position.getWorld());
+        int minX = region.position.getX() << PopulateWorker.REGION_SHIFT;
+        int minZ = region.position.getZ() << PopulateWorker.REGION_SHIFT;
+        int count = 0;
+        for (int x = minX; x < minX + PopulateWorker.REGION_SIZE; x++) {
+            for (int z = minZ; z < minZ + PopulateWorker.REGION_SIZE; z++) {
+                ChunkState state = states.get(ChunkPosition.pack(x, z));
+                if (state != null && !(keepClaims && state.getClaim() != null) && states.evict(state)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Get the distance in chunks from the nearest player to the nearest
+     * chunk of a region.
+     */
+    private static int getDistance(ChunkPosition region, Collection<ChunkPosition> players) {
+        int distance = Integer.MAX_VALUE;
+        if (players != null) {
+            int minX = region.getX() << PopulateWorker.REGION_SHIFT;
+            int minZ = region.getZ() << PopulateWorker.REGION_SHIFT;
+            int maxX = minX + PopulateWorker.REGION_SIZE - 1;
+            int maxZ = minZ + PopulateWorker.REGION_SIZE - 1;
+            for (ChunkPosition player : players) {
+                int dx = Math.max(0, Math.max(minX - player.getX(), player.getX() - maxX));
+                int dz = Math.max(0, Math.max(minZ - player.getZ(), player.getZ() - maxZ));
+                distance = Math.min(distance, Math.max(dx, dz));
+            }
+        }
+        return distance;
+    }
+
+    private static class Region {
+        private final ChunkPosition position;
+        private int lastAccess;
+        private long score;
+
+        private Region(ChunkPosition position) {
+            this.position = position;
+        }
+    }
+
+}
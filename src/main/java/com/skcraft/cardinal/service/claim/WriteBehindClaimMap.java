@@ -0,0 +1,783 @@
+package com.skcraft.cardinal.service.claim;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.skcraft.cardinal.profile.MojangId;
+import com.skcraft.cardinal.util.ChunkArea;
+import com.skcraft.cardinal.util.ChunkPosition;
+import com.skcraft.cardinal.util.DataAccessException;
+import com.skcraft.cardinal.util.WorldVector3i;
+import com.skcraft.cardinal.util.WorldIds;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.java.Log;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A claim map that returns from {@link #save} and {@link #remove} right
+ * away and writes the changes to another claim map in the background.
+ *
+ * <p>Changes are kept in memory by chunk until they are written, so
+ * several changes to the same chunk only cause one write. Every flush
+ * interval, the waiting changes are written with one {@code save} for
+ * each owner and party and one {@code remove}. Reads made through this
+ * map see the changes that have not been written yet, and if a
+ * {@link ClaimCache} is set, the cache is updated as soon as a change is
+ * made.</p>
+ *
+ * <p>If a journal file is given, every change is also appended to it
+ * before the call returns, and the changes in the journal are replayed
+ * when the map is created. The journal is rewritten with the changes
+ * that are still waiting after each flush, and is deleted when none
+ * are.</p>
+ *
+ * <p>{@link #update} depends on the claims that are currently in the
+ * database, so it writes everything that is waiting and then updates the
+ * claims immediately. The scan methods also write everything that is
+ * waiting first. {@link #getCountByOwner(MojangId)} instead adjusts the
+ * count of the other claim map by the changes that are waiting, which
+ * requires knowing what that map has at each changed chunk. That is
+ * taken from the {@link ClaimCache} when the chunk is changed, if set,
+ * and otherwise read from the other map when it is needed.</p>
+ *
+ * <p>A change that fails to be written {@link #MAX_WRITE_ATTEMPTS} times
+ * while the database is otherwise working is set aside, so that it does
+ * not hold back the changes after it. Changes that are set aside are
+ * logged, and also appended to a journal file named after the journal
+ * with {@code .failed} added, if a journal is kept.</p>
+ */
+@Log
+public class WriteBehindClaimMap implements ClaimMap {
+
+    public static final int MAX_WRITE_ATTEMPTS = 5;
+
+    @Getter
+    private final ClaimMap delegate;
+    private final String serverId;
+    @Nullable
+    private final ClaimJournal journal;
+    @Nullable
+    private final ClaimJournal setAsideJournal;
+    private final ConcurrentMap<ChunkPosition, PendingWrite> pending = new ConcurrentHashMap<>();
+    private final Object journalLock = new Object(); // Keeps the journal in the same order as the pending writes
+    private final Object flushLock = new Object(); // Only one thread writes to the delegate at a time
+    private final ScheduledExecutorService scheduler;
+    private final LongAdder flushedCount = new LongAdder();
+    private final LongAdder failedFlushCount = new LongAdder();
+    private final LongAdder setAsideCount = new LongAdder();
+    @Getter @Setter @Nullable
+    private volatile ClaimCache claimCache;
+    @Getter
+    private volatile long lastFlushTime;
+
+    /**
+     * Create a new instance.
+     *
+     * @param delegate The claim map to write to
+     * @param serverId The server ID to give claims that have not been written yet
+     * @param journalFile The journal file, or null to not keep a journal
+     * @param flushInterval The time between flushes, in milliseconds
+     * @throws DataAccessException Thrown if the journal can't be replayed
+     */
+    public WriteBehindClaimMap(ClaimMap delegate, String serverId, @Nullable File journalFile, long flushInterval) {
+        checkNotNull(delegate, "delegate");
+        checkNotNull(serverId, "serverId");
+        checkArgument(flushInterval > 0, "flushInterval > 0");
+        this.delegate = delegate;
+        this.serverId = serverId;
+        this.journal = journalFile != null ? new ClaimJournal(journalFile) : null;
+        this.setAsideJournal = journalFile != null ? new ClaimJournal(new File(journalFile.getPath() + ".failed")) : null;
+
+        if (journal != null) {
+            try {
+                long now = System.nanoTime();
+                int count = journal.replay(serverId, (chunk, claim) -> pending.put(chunk, new PendingWrite(claim, now)));
+                if (count > 0) {
+                    log.info("Replayed " + count + " unwritten claim change(s) from " + journalFile.getAbsolutePath());
+                }
+            } catch (IOException e) {
+                throw new DataAccessException("Could not replay the claim journal at " + journalFile.getAbsolutePath(), e);
+            }
+        }
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("Claim Write Behind").build());
+        scheduler.scheduleWithFixedDelay(this::flushQuietly, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Get the number of chunks with changes that have not been written.
+     *
+     * @return The number of chunks
+     */
+    public int getQueueDepth() {
+        return pending.size();
+    }
+
+    /**
+     * Get how long the oldest change that has not been written has been
+     * waiting.
+     *
+     * @return The time in milliseconds, or 0 if nothing is waiting
+     */
+    public long getFlushLag() {
+        long now = System.nanoTime();
+        long oldest = now;
+        for (PendingWrite write : pending.values()) {
+            oldest = Math.min(oldest, write.since);
+        }
+        return TimeUnit.NANOSECONDS.toMillis(now - oldest);
+    }
+
+    /**
+     * Get the number of chunk changes that have been written.
+     *
+     * @return The number of changes
+     */
+    public long getFlushedCount() {
+        return flushedCount.sum();
+    }
+
+    /**
+     * Get the number of flushes that failed.
+     *
+     * @return The number of failures
+     */
+    public long getFailedFlushCount() {
+        return failedFlushCount.sum();
+    }
+
+    /**
+     * Get the number of chunk changes that were set aside because they
+     * could not be written.
+     *
+     * @return The number of changes
+     */
+    public long getSetAsideCount() {
+        return setAsideCount.sum();
+    }
+
+    /**
+     * Write every change that is waiting.
+     *
+     * <p>Changes are written in batches, and a batch that fails does not
+     * stop the other batches from being written.</p>
+     *
+     * @throws DataAccessException Thrown if some changes can't be written, in which case they are retried later
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            Map<ChunkPosition, PendingWrite> snapshot = new HashMap<>(pending);
+            if (snapshot.isEmpty()) {
+                return;
+            }
+
+            // One batch per owner and party, and one for removals
+            Map<List<Object>, Map<ChunkPosition, PendingWrite>> batches = new LinkedHashMap<>();
+            for (Map.Entry<ChunkPosition, PendingWrite> entry : snapshot.entrySet()) {
+                Claim claim = entry.getValue().claim;
+                List<Object> key = claim != null ? Arrays.asList(claim.getOwner(), claim.getParty()) : null;
+                batches.computeIfAbsent(key, k -> new HashMap<>()).put(entry.getKey(), entry.getValue());
+            }
+
+            Map<ChunkPosition, PendingWrite> written = new HashMap<>();
+            Map<ChunkPosition, PendingWrite> failed = new HashMap<>();
+            DataAccessException failure = null;
+            for (Map.Entry<List<Object>, Map<ChunkPosition, PendingWrite>> batch : batches.entrySet()) {
+                try {
+                    write(batch.getKey(), batch.getValue());
+                    written.putAll(batch.getValue());
+                } catch (DataAccessException e) {
+                    failed.putAll(batch.getValue());
+                    if (failure == null) {
+                        failure = e;
+                    } else {
+                        failure.addSuppressed(e);
+                    }
+                }
+            }
+
+            Map<ChunkPosition, PendingWrite> setAside = new HashMap<>();
+            if (!failed.isEmpty()) {
+                failedFlushCount.increment();
+                // Only count the attempt against the changes if the database
+                // is working, so that an outage doesn't set everything aside
+                if (!written.isEmpty() || isReadable(failed.keySet().iterator().next())) {
+                    for (Map.Entry<ChunkPosition, PendingWrite> entry : failed.entrySet()) {
+                        if (++entry.getValue().attempts >= MAX_WRITE_ATTEMPTS) {
+                            setAside.put(entry.getKey(), entry.getValue());
+                        }
+                    }
+                }
+            }
+
+            synchronized (journalLock) {
+                for (Map.Entry<ChunkPosition, PendingWrite> entry : written.entrySet()) {
+                    // Leave changes that were made while writing for the
+                    // next flush, on top of what was just written
+                    if (!pending.remove(entry.getKey(), entry.getValue())) {
+                        PendingWrite current = pending.get(entry.getKey());
+                        if (current != null) {
+                            current.setBase(entry.getValue().claim);
+                        }
+                    }
+                }
+                for (Map.Entry<ChunkPosition, PendingWrite> entry : setAside.entrySet()) {
+                    pending.remove(entry.getKey(), entry.getValue());
+                }
+            }
+
+            if (!written.isEmpty()) {
+                flushedCount.add(written.size());
+                lastFlushTime = System.currentTimeMillis();
+            }
+            if (!setAside.isEmpty()) {
+                setAside(setAside);
+            }
+            if (!written.isEmpty() || !setAside.isEmpty()) {
+                compactJournal();
+            }
+
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    private void write(@Nullable List<Object> key, Map<ChunkPosition, PendingWrite> batch) {
+        if (key == null) {
+            List<WorldVector3i> removals = new ArrayList<>();
+            for (ChunkPosition chunk : batch.keySet()) {
+                removals.add(chunk.toVector());
+            }
+            delegate.remove(removals);
+        } else {
+            List<WorldVector3i> positions = new ArrayList<>();
+            for (PendingWrite write : batch.values()) {
+                positions.add(write.claim.getPosition());
+            }
+            delegate.save(positions, (MojangId) key.get(0), (String) key.get(1));
+        }
+    }
+
+    private boolean isReadable(ChunkPosition chunk) {
+        try {
+            delegate.getAllChunks(Collections.singletonList(chunk));
+            return true;
+        } catch (DataAccessException e) {
+            return false;
+        }
+    }
+
+    private void setAside(Map<ChunkPosition, PendingWrite> writes) {
+        setAsideCount.add(writes.size());
+
+        boolean saved = false;
+        if (setAsideJournal != null) {
+            synchronized (journalLock) {
+                try {
+                    for (Map.Entry<ChunkPosition, PendingWrite> entry : writes.entrySet()) {
+                        setAsideJournal.append(entry.getKey(), entry.getValue().claim);
+                    }
+                    setAsideJournal.flush();
+                    saved = true;
+                } catch (IOException e) {
+                    log.log(Level.WARNING, "Failed to write to " + setAsideJournal.getFile().getAbsolutePath(), e);
+                }
+            }
+        }
+
+        log.severe("Gave up writing " + writes.size() + " claim change(s) after " + MAX_WRITE_ATTEMPTS + " attempts" +
+                (saved ? "; they were saved to " + setAsideJournal.getFile().getAbsolutePath() : ": " + writes.keySet()));
+
+        // The cache has the changes that were never written
+        ClaimCache cache = claimCache;
+        if (cache != null) {
+            writes.keySet().forEach(cache::invalidateChunk);
+        }
+    }
+
+    /**
+     * Stop flushing in the background and write every change that is
+     * waiting.
+     *
+     * @throws DataAccessException Thrown if the changes can't be written, in which case they remain in the journal
+     */
+    public void close() {
+        scheduler.shutdown();
+        try {
+            flush();
+        } finally {
+            if (journal != null) {
+                synchronized (journalLock) {
+                    try {
+                        journal.close();
+                        setAsideJournal.close();
+                    } catch (IOException e) {
+                        log.log(Level.WARNING, "Failed to close the claim journal", e);
+                    }
+                }
+            }
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.log(Level.WARNING, "Failed to write " + pending.size() + " claim change(s) to the database", e);
+        }
+    }
+
+    private void compactJournal() {
+        if (journal == null) {
+            return;
+        }
+        synchronized (journalLock) {
+            Map<ChunkPosition, Claim> remaining = new HashMap<>();
+            for (Map.Entry<ChunkPosition, PendingWrite> entry : pending.entrySet()) {
+                remaining.put(entry.getKey(), entry.getValue().claim);
+            }
+            try {
+                journal.rewrite(remaining);
+            } catch (IOException e) {
+                log.log(Level.WARNING, "Failed to compact the claim journal", e);
+            }
+        }
+    }
+
+    /**
+     * Find what the given chunks are claimed by now, without reading from
+     * the other claim map.
+     *
+     * @param chunks The chunks
+     * @param unknown A collection to add the chunks that aren't known to
+     * @return A map of the known chunks to their claims, where the claim is null if unclaimed
+     */
+    private Map<ChunkPosition, Claim> findCurrent(Collection<ChunkPosition> chunks, Collection<ChunkPosition> unknown) {
+        ClaimCache cache = claimCache;
+        Map<ChunkPosition, Claim> current = new HashMap<>();
+        for (ChunkPosition chunk : chunks) {
+            PendingWrite write = pending.get(chunk);
+            ClaimEntry entry;
+            if (write != null) {
+                current.put(chunk, write.claim);
+            } else if (cache != null && (entry = cache.getIfPresent(chunk)) != null) {
+                current.put(chunk, entry.getClaim());
+            } else {
+                unknown.add(chunk);
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Record changes to be written.
+     *
+     * @param changes A map of chunks to their new claims, where the claim is null for removals
+     * @param current A map of chunks to what they are claimed by now, as far as known
+     */
+    private void record(Map<ChunkPosition, Claim> changes, Map<ChunkPosition, Claim> current) {
+        synchronized (journalLock) {
+            if (journal != null) {
+                try {
+                    for (Map.Entry<ChunkPosition, Claim> entry : changes.entrySet()) {
+                        journal.append(entry.getKey(), entry.getValue());
+                    }
+                    journal.flush();
+                } catch (IOException e) {
+                    throw new DataAccessException("Could not write to the claim journal", e);
+                }
+            }
+
+            long now = System.nanoTime();
+            for (Map.Entry<ChunkPosition, Claim> entry : changes.entrySet()) {
+                ChunkPosition chunk = entry.getKey();
+                PendingWrite previous = pending.get(chunk);
+                PendingWrite write = new PendingWrite(entry.getValue(), previous != null ? previous.since : now);
+                if (previous != null) {
+                    if (previous.baseKnown) {
+                        write.setBase(previous.base);
+                    }
+                } else if (current.containsKey(chunk)) {
+                    write.setBase(current.get(chunk)); // Nothing is waiting, so this is what the other map has
+                }
+                pending.put(chunk, write);
+            }
+        }
+    }
+
+    @Override
+    @Nullable
+    public Claim get(WorldVector3i position) {
+        checkNotNull(position, "position");
+        return getAllChunks(Collections.singletonList(ChunkPosition.of(position))).get(ChunkPosition.of(position));
+    }
+
+    @Override
+    public Map<WorldVector3i, Claim> getAll(Collection<WorldVector3i> positions) {
+        checkNotNull(positions, "positions");
+
+        Set<ChunkPosition> chunks = new LinkedHashSet<>();
+        for (WorldVector3i position : positions) {
+            chunks.add(ChunkPosition.of(position));
+        }
+
+        ImmutableMap.Builder<WorldVector3i, Claim> resultBuilder = ImmutableMap.builder();
+        for (Claim claim : getAllChunks(chunks).values()) {
+            resultBuilder.put(claim.getPosition(), claim);
+        }
+        return resultBuilder.build();
+    }
+
+    @Override
+    public Map<ChunkPosition, Claim> getAllChunks(Collection<ChunkPosition> positions) {
+        checkNotNull(positions, "positions");
+
+        Map<ChunkPosition, Claim> results = new HashMap<>();
+        List<ChunkPosition> unchanged = new ArrayList<>();
+        for (ChunkPosition chunk : positions) {
+            PendingWrite write = pending.get(chunk);
+            if (write == null) {
+                unchanged.add(chunk);
+            } else if (write.claim != null) {
+                results.put(chunk, write.claim);
+            }
+        }
+
+        if (!unchanged.isEmpty()) {
+            Map<ChunkPosition, Claim> stored = delegate.getAllChunks(unchanged);
+            for (ChunkPosition chunk : unchanged) {
+                // A chunk may have been claimed or removed while the query
+                // was running, whether or not the database had a claim for it
+                PendingWrite write = pending.get(chunk);
+                Claim claim = write != null ? write.claim : stored.get(chunk);
+                if (claim != null) {
+                    results.put(chunk, claim);
+                }
+            }
+        }
+
+        return results;
+    }
+
+    @Override
+    public Map<ChunkPosition, Claim> getAllInArea(String worldId, int minX, int minZ, int maxX, int maxZ) {
+        checkNotNull(worldId, "worldId");
+
+        Map<ChunkPosition, Claim> results = new HashMap<>(delegate.getAllInArea(worldId, minX, minZ, maxX, maxZ));
+        int world = WorldIds.find(worldId);
+        if (world == -1) {
+            return results; // No waiting change can be in a world that has no ID
+        }
+        for (Map.Entry<ChunkPosition, PendingWrite> entry : pending.entrySet()) {
+            ChunkPosition chunk = entry.getKey();
+            if (chunk.getWorld() == world && chunk.getX() >= minX && chunk.getX() <= maxX && chunk.getZ() >= minZ && chunk.getZ() <= maxZ) {
+                Claim claim = entry.getValue().claim;
+                if (claim != null) {
+                    results.put(chunk, claim);
+                } else {
+                    results.remove(chunk);
+                }
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public void scanClaimedChunks(Consumer<ChunkPosition> consumer) {
+        flush();
+        delegate.scanClaimedChunks(consumer);
+    }
+
+    @Override
+    public void scanClaims(Consumer<Claim> consumer) {
+        flush();
+        delegate.scanClaims(consumer);
+    }
+
+    /**
+     * Set claim information for the given chunk positions, overwriting any
+     * existing claims at those locations.
+     *
+     * <p>The claims are not written to the database until later, so
+     * whether the chunks were already claimed is only known if the chunks
+     * have changes waiting or are loaded in the {@link ClaimCache}.</p>
+     *
+     * @param positions A list of chunk coordinates
+     * @param owner The new owner of the claims
+     * @param party An optional party to associate with the claim
+     * @return The number of chunks that were already claimed, or -1 if that is not known
+     */
+    @Override
+    public int save(Collection<WorldVector3i> positions, MojangId owner, @Nullable String party) {
+        checkNotNull(positions, "positions");
+        checkNotNull(owner, "owner");
+
+        if (positions.isEmpty()) {
+            return 0;
+        }
+
+        Date now = new Date();
+        Map<ChunkPosition, Claim> changes = new LinkedHashMap<>();
+        for (WorldVector3i position : positions) {
+            ChunkPosition chunk = ChunkPosition.of(position);
+            Claim claim = new Claim(serverId, chunk.toVector());
+            claim.setOwner(owner);
+            claim.setParty(party);
+            claim.setIssueTime(now);
+            changes.put(chunk, claim);
+        }
+
+        List<ChunkPosition> unknown = new ArrayList<>();
+        Map<ChunkPosition, Claim> current = findCurrent(changes.keySet(), unknown);
+        record(changes, current);
+
+        ClaimCache cache = claimCache;
+        if (cache != null) {
+            cache.putAll(changes.values());
+        }
+
+        return unknown.isEmpty() ? countClaimed(current.values()) : -1;
+    }
+
+    @Override
+    public Set<WorldVector3i> update(Collection<WorldVector3i> positions, MojangId owner, @Nullable String party, @Nullable MojangId existingOwner) {
+        checkNotNull(positions, "positions");
+        checkNotNull(owner, "owner");
+
+        Set<WorldVector3i> changed;
+        synchronized (flushLock) {
+            flush();
+            changed = delegate.update(positions, owner, party, existingOwner);
+        }
+
+        ClaimCache cache = claimCache;
+        if (cache != null && !changed.isEmpty()) {
+            Date now = new Date();
+            List<Claim> claims = new ArrayList<>();
+            for (WorldVector3i position : changed) {
+                Claim claim = new Claim(serverId, position);
+                claim.setOwner(owner);
+                claim.setParty(party);
+                claim.setIssueTime(now);
+                claims.add(claim);
+            }
+            cache.putAll(claims);
+        }
+
+        return changed;
+    }
+
+    /**
+     * Remove the claims at the given positions.
+     *
+     * <p>The claims that are removed are not written to the database
+     * until later. To return the number of removed claims, the chunks
+     * that have no changes waiting and are not loaded in the
+     * {@link ClaimCache} are looked up first.</p>
+     *
+     * @param positions A list of chunk coordinates
+     * @return The number of removed claims
+     */
+    @Override
+    public int remove(Collection<WorldVector3i> positions) {
+        checkNotNull(positions, "positions");
+
+        if (positions.isEmpty()) {
+            return 0;
+        }
+
+        Set<ChunkPosition> chunks = new LinkedHashSet<>();
+        for (WorldVector3i position : positions) {
+            chunks.add(ChunkPosition.of(position));
+        }
+        List<ChunkPosition> unknown = new ArrayList<>();
+        Map<ChunkPosition, Claim> current = findCurrent(chunks, unknown);
+        if (!unknown.isEmpty()) {
+            Map<ChunkPosition, Claim> claims = delegate.getAllChunks(unknown);
+            for (ChunkPosition chunk : unknown) {
+                current.put(chunk, claims.get(chunk));
+            }
+        }
+
+        Map<ChunkPosition, Claim> changes = new LinkedHashMap<>();
+        for (ChunkPosition chunk : chunks) {
+            changes.put(chunk, null);
+        }
+        record(changes, current);
+
+        ClaimCache cache = claimCache;
+        if (cache != null) {
+            cache.putAsUnclaimed(positions);
+        }
+
+        return countClaimed(current.values());
+    }
+
+    private static int countClaimed(Collection<Claim> claims) {
+        int count = 0;
+        for (Claim claim : claims) {
+            if (claim != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Set claim information for every chunk in the given areas.
+     *
+     * <p>Area changes are not queued. Pending writes are flushed first and
+     * then the areas are written to the database right away, because one
+     * area write is cheaper than queueing every chunk in the areas.</p>
+     *
+     * @param areas A union of areas, which may overlap
+     * @param owner The new owner of the claims
+     * @param party An optional party to associate with the claim
+     */
+    @Override
+    public void saveArea(Collection<ChunkArea> areas, MojangId owner, @Nullable String party) {
+        checkNotNull(areas, "areas");
+        checkNotNull(owner, "owner");
+
+        synchronized (flushLock) {
+            flush();
+            delegate.saveArea(areas, owner, party);
+        }
+
+        ClaimCache cache = claimCache;
+        if (cache != null) {
+            cache.putArea(areas, serverId, owner, party);
+        }
+    }
+
+    /**
+     * Remove the claims in the given areas.
+     *
+     * <p>Like {@link #saveArea(Collection, MojangId, String)}, the change
+     * is written to the database right away.</p>
+     *
+     * @param areas A union of areas, which may overlap
+     * @return The number of removed claims
+     */
+    @Override
+    public int removeArea(Collection<ChunkArea> areas) {
+        checkNotNull(areas, "areas");
+
+        int removed;
+        synchronized (flushLock) {
+            flush();
+            removed = delegate.removeArea(areas);
+        }
+
+        ClaimCache cache = claimCache;
+        if (cache != null) {
+            cache.putAreaAsUnclaimed(areas);
+        }
+
+        return removed;
+    }
+
+    /**
+     * Get the number of claims that a player owns, including changes that
+     * have not been written.
+     *
+     * <p>Nothing is written. Chunks with changes waiting whose claims in
+     * the other claim map are not known yet are looked up first.</p>
+     *
+     * @param owner The user ID of the owner
+     * @return The number of claims
+     */
+    @Override
+    public int getCountByOwner(MojangId owner) {
+        checkNotNull(owner, "owner");
+
+        resolveBases();
+
+        // Adjust before counting, so that a change that is written in the
+        // meantime is counted twice rather than not at all
+        int adjustment = 0;
+        for (PendingWrite write : pending.values()) {
+            boolean owned = write.base != null && owner.equals(write.base.getOwner());
+            boolean willOwn = write.claim != null && owner.equals(write.claim.getOwner());
+            if (willOwn && !owned) {
+                adjustment++;
+            } else if (owned && !willOwn) {
+                adjustment--;
+            }
+        }
+
+        return delegate.getCountByOwner(owner) + adjustment;
+    }
+
+    /**
+     * Look up what the other claim map has at the chunks with changes
+     * waiting where that is not known.
+     */
+    private void resolveBases() {
+        if (pending.values().stream().allMatch(write -> write.baseKnown)) {
+            return;
+        }
+
+        // No flush can change the other map while it is being read
+        synchronized (flushLock) {
+            Map<ChunkPosition, PendingWrite> unknown = new HashMap<>();
+            for (Map.Entry<ChunkPosition, PendingWrite> entry : pending.entrySet()) {
+                if (!entry.getValue().baseKnown) {
+                    unknown.put(entry.getKey(), entry.getValue());
+                }
+            }
+            if (!unknown.isEmpty()) {
+                Map<ChunkPosition, Claim> claims = delegate.getAllChunks(unknown.keySet());
+                for (Map.Entry<ChunkPosition, PendingWrite> entry : unknown.entrySet()) {
+                    entry.getValue().setBase(claims.get(entry.getKey()));
+                }
+            }
+        }
+    }
+
+    private static class PendingWrite {
+        @Nullable private final Claim claim; // Null if the claim is being removed
+        private final long since; // When the chunk was first changed after the last write
+        @Nullable private volatile Claim base; // The claim in the other map, if known
+        private volatile boolean baseKnown;
+        private int attempts; // Failed writes, guarded by flushLock
+
+        private PendingWrite(@Nullable Claim claim, long since) {
+            this.claim = claim;
+            this.since = since;
+        }
+
+        private void setBase(@Nullable Claim base) {
+            this.base = base;
+            this.baseKnown = true;
+        }
+    }
+
+}
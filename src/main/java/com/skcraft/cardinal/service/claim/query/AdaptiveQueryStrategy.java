@@ -0,0 +1,119 @@
+package com.skcraft.cardinal.service.claim.query;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.skcraft.cardinal.util.ChunkPosition;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Chooses a strategy for each query from the shape of the positions.
+ *
+ * <p>Positions are grouped by world. A world whose positions cover at
+ * least {@link #getMinBoxDensity()} of their bounding rectangle is read
+ * with the {@linkplain #getBoxStrategy() box strategy}. The rest of the
+ * positions are looked up with the {@linkplain #getPointStrategy() point
+ * strategy} if there are at most {@link #getMaxPointLookups()} of them, or
+ * with the {@linkplain #getSparseStrategy() sparse strategy} otherwise.</p>
+ */
+public class AdaptiveQueryStrategy implements ClaimQueryStrategy {
+
+    @Getter @Setter
+    private int maxPointLookups = 4;
+    @Getter @Setter
+    private double minBoxDensity = 0.25;
+    @Getter
+    private ClaimQueryStrategy pointStrategy = new PointQueryStrategy();
+    @Getter
+    private ClaimQueryStrategy boxStrategy = new BoundingBoxQueryStrategy();
+    @Getter
+    private ClaimQueryStrategy sparseStrategy = new DerivedTableQueryStrategy();
+
+    public void setPointStrategy(ClaimQueryStrategy pointStrategy) {
+        this.pointStrategy = checkNotNull(pointStrategy, "pointStrategy");
+    }
+
+    public void setBoxStrategy(ClaimQueryStrategy boxStrategy) {
+        this.boxStrategy = checkNotNull(boxStrategy, "boxStrategy");
+    }
+
+    public void setSparseStrategy(ClaimQueryStrategy sparseStrategy) {
+        this.sparseStrategy = checkNotNull(sparseStrategy, "sparseStrategy");
+    }
+
+    @Override
+    public void select(Connection conn, String serverId, Collection<ChunkPosition> positions, RowHandler handler) throws SQLException {
+        List<ChunkPosition> dense = new ArrayList<>();
+        List<ChunkPosition> sparse = new ArrayList<>();
+        split(positions, dense, sparse);
+
+        if (!dense.isEmpty()) {
+            boxStrategy.select(conn, serverId, dense, handler);
+        }
+        if (!sparse.isEmpty()) {
+            choose(sparse).select(conn, serverId, sparse, handler);
+        }
+    }
+
+    @Override
+    public int delete(Connection conn, String serverId, Collection<ChunkPosition> positions) throws SQLException {
+        List<ChunkPosition> dense = new ArrayList<>();
+        List<ChunkPosition> sparse = new ArrayList<>();
+        split(positions, dense, sparse);
+
+        int count = 0;
+        if (!dense.isEmpty()) {
+            count += boxStrategy.delete(conn, serverId, dense);
+        }
+        if (!sparse.isEmpty()) {
+            count += choose(sparse).delete(conn, serverId, sparse);
+        }
+        return count;
+    }
+
+    private ClaimQueryStrategy choose(Collection<ChunkPosition> sparse) {
+        return sparse.size() <= maxPointLookups ? pointStrategy : sparseStrategy;
+    }
+
+    private void split(Collection<ChunkPosition> positions, List<ChunkPosition> dense, List<ChunkPosition> sparse) {
+        if (positions.size() <= maxPointLookups) {
+            sparse.addAll(positions);
+            return;
+        }
+
+        ListMultimap<Integer, ChunkPosition> byWorld = ArrayListMultimap.create();
+        for (ChunkPosition position : positions) {
+            byWorld.put(position.getWorld(), position);
+        }
+
+        for (Collection<ChunkPosition> group : byWorld.asMap().values()) {
+            if (group.size() > maxPointLookups && getDensity(group) >= minBoxDensity) {
+                dense.addAll(group);
+            } else {
+                sparse.addAll(group);
+            }
+        }
+    }
+
+    private static double getDensity(Collection<ChunkPosition> group) {
+        long minX = Long.MAX_VALUE, minZ = Long.MAX_VALUE;
+        long maxX = Long.MIN_VALUE, maxZ = Long.MIN_VALUE;
+        for (ChunkPosition position : group) {
+            minX = Math.min(minX, position.getX());
+            maxX = Math.max(maxX, position.getX());
+            minZ = Math.min(minZ, position.getZ());
+            maxZ = Math.max(maxZ, position.getZ());
+        }
+        double area = (double) (maxX - minX + 1) * (maxZ - minZ + 1);
+        return group.size() / area;
+    }
+
+}
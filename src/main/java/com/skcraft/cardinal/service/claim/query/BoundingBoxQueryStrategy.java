@@ -0,0 +1,95 @@
+package com.skcraft.cardinal.service.claim.query;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.skcraft.cardinal.util.ChunkPosition;
+import com.skcraft.cardinal.util.sql.BatchStatements;
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the smallest rectangle that contains the positions in each world
+ * as one range scan, and filters out the rows that were not asked for.
+ *
+ * <p>This plans best when the positions are packed closely together, such
+ * as the chunks around a player, because every row in the rectangle is
+ * read. Deletes add the positions to the range as a filter so that no
+ * other claims in the rectangle are removed.</p>
+ */
+public class BoundingBoxQueryStrategy implements ClaimQueryStrategy {
+
+    @Override
+    public void select(Connection conn, String serverId, Collection<ChunkPosition> positions, RowHandler handler) throws SQLException {
+        PreparedStatement stmt = conn.prepareStatement(Queries.SELECT_CLAIMS +
+                "WHERE server = ? AND world = ? AND x BETWEEN ? AND ? AND z BETWEEN ? AND ?");
+        stmt.setString(1, serverId);
+
+        for (Map.Entry<Integer, Collection<ChunkPosition>> entry : byWorld(positions).asMap().entrySet()) {
+            Collection<ChunkPosition> group = entry.getValue();
+            TLongSet wanted = new TLongHashSet(group.size());
+            for (ChunkPosition position : group) {
+                wanted.add(position.getKey());
+            }
+
+            bindBox(stmt, group, 2);
+            Queries.forEachRow(stmt, rs -> {
+                if (wanted.contains(ChunkPosition.pack(rs.getInt("x"), rs.getInt("z")))) {
+                    handler.handle(rs);
+                }
+            });
+        }
+    }
+
+    @Override
+    public int delete(Connection conn, String serverId, Collection<ChunkPosition> positions) throws SQLException {
+        int count = 0;
+        for (Map.Entry<Integer, Collection<ChunkPosition>> entry : byWorld(positions).asMap().entrySet()) {
+            for (List<ChunkPosition> batch : BatchStatements.partition(entry.getValue())) {
+                PreparedStatement stmt = conn.prepareStatement("" +
+                        "DELETE FROM claim WHERE server = ? AND world = ? AND x BETWEEN ? AND ? AND z BETWEEN ? AND ? " +
+                        "AND (x, z) IN (" + BatchStatements.placeholders("(?, ?)", batch.size()) + ")");
+                stmt.setString(1, serverId);
+                int index = bindBox(stmt, batch, 2);
+                for (ChunkPosition position : batch) {
+                    stmt.setInt(index++, position.getX());
+                    stmt.setInt(index++, position.getZ());
+                }
+                count += stmt.executeUpdate();
+            }
+        }
+        return count;
+    }
+
+    private static ListMultimap<Integer, ChunkPosition> byWorld(Collection<ChunkPosition> positions) {
+        ListMultimap<Integer, ChunkPosition> groups = ArrayListMultimap.create();
+        for (ChunkPosition position : positions) {
+            groups.put(position.getWorld(), position);
+        }
+        return groups;
+    }
+
+    private static int bindBox(PreparedStatement stmt, Collection<ChunkPosition> group, int index) throws SQLException {
+        int minX = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxZ = Integer.MIN_VALUE;
+        for (ChunkPosition position : group) {
+            minX = Math.min(minX, position.getX());
+            maxX = Math.max(maxX, position.getX());
+            minZ = Math.min(minZ, position.getZ());
+            maxZ = Math.max(maxZ, position.getZ());
+        }
+        stmt.setString(index++, group.iterator().next().getWorldId());
+        stmt.setInt(index++, minX);
+        stmt.setInt(index++, maxX);
+        stmt.setInt(index++, minZ);
+        stmt.setInt(index++, maxZ);
+        return index;
+    }
+
+}
@@ -0,0 +1,47 @@
+package com.skcraft.cardinal.service.claim.query;
+
+import com.skcraft.cardinal.util.ChunkPosition;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collection;
+
+/**
+ * Decides how {@link com.skcraft.cardinal.service.claim.DatabaseClaimMap}
+ * turns a set of chunk positions into SQL.
+ *
+ * <p>Different shapes of input plan very differently in MySQL: a handful
+ * of positions is best looked up one at a time through the primary key,
+ * a dense cluster is best read as one range, and a large sparse set is
+ * best joined against. Implementations must be thread-safe.</p>
+ */
+public interface ClaimQueryStrategy {
+
+    /**
+     * Select the claims at the given positions.
+     *
+     * <p>Each row passed to the handler contains every column of the
+     * {@code claim} table and the {@code uuid} and {@code name} columns of
+     * the owner from {@code user_id}. Only rows for the given positions are
+     * passed to the handler.</p>
+     *
+     * @param conn The connection
+     * @param serverId The server ID
+     * @param positions The positions, which must not be empty
+     * @param handler The handler for each row
+     * @throws SQLException On error
+     */
+    void select(Connection conn, String serverId, Collection<ChunkPosition> positions, RowHandler handler) throws SQLException;
+
+    /**
+     * Delete the claims at the given positions.
+     *
+     * @param conn The connection
+     * @param serverId The server ID
+     * @param positions The positions, which must not be empty
+     * @return The number of claims deleted
+     * @throws SQLException On error
+     */
+    int delete(Connection conn, String serverId, Collection<ChunkPosition> positions) throws SQLException;
+
+}
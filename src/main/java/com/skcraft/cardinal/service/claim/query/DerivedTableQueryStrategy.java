@@ -0,0 +1,62 @@
+package com.skcraft.cardinal.service.claim.query;
+
+import com.google.common.base.Strings;
+import com.skcraft.cardinal.util.ChunkPosition;
+import com.skcraft.cardinal.util.sql.BatchStatements;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Joins the claim table against a derived table of the positions, built
+ * with {@code SELECT ? , ?, ? UNION ALL ...}.
+ *
+ * <p>MySQL drives the join from the derived table and makes one primary
+ * key lookup per position, so this plans well for large sets of positions
+ * that are spread too thinly for a range scan. A derived table is used
+ * instead of a temporary table because it needs no extra round trips and
+ * no {@code CREATE TEMPORARY TABLES} privilege.</p>
+ */
+public class DerivedTableQueryStrategy implements ClaimQueryStrategy {
+
+    private static final ConcurrentMap<Integer, String> DERIVED_TABLES = new ConcurrentHashMap<>();
+
+    @Override
+    public void select(Connection conn, String serverId, Collection<ChunkPosition> positions, RowHandler handler) throws SQLException {
+        for (List<ChunkPosition> batch : BatchStatements.partition(positions)) {
+            PreparedStatement stmt = conn.prepareStatement("" +
+                    "SELECT c.*, id.uuid, id.name FROM " + derivedTable(batch.size()) + " " +
+                    "JOIN claim c ON (c.server = ? AND c.world = p.world AND c.x = p.x AND c.z = p.z) " +
+                    "LEFT JOIN user_id AS id ON (id.id = c.owner_id)");
+            int index = Queries.bindPositions(stmt, batch, 1);
+            stmt.setString(index, serverId);
+            Queries.forEachRow(stmt, handler);
+        }
+    }
+
+    @Override
+    public int delete(Connection conn, String serverId, Collection<ChunkPosition> positions) throws SQLException {
+        int count = 0;
+        for (List<ChunkPosition> batch : BatchStatements.partition(positions)) {
+            PreparedStatement stmt = conn.prepareStatement("" +
+                    "DELETE c FROM claim c JOIN " + derivedTable(batch.size()) + " " +
+                    "ON (c.world = p.world AND c.x = p.x AND c.z = p.z) " +
+                    "WHERE c.server = ?");
+            int index = Queries.bindPositions(stmt, batch, 1);
+            stmt.setString(index, serverId);
+            count += stmt.executeUpdate();
+        }
+        return count;
+    }
+
+    private static String derivedTable(int size) {
+        return DERIVED_TABLES.computeIfAbsent(size, n ->
+                "(SELECT ? AS world, ? AS x, ? AS z" + Strings.repeat(" UNION ALL SELECT ?, ?, ?", n - 1) + ") AS p");
+    }
+
+}
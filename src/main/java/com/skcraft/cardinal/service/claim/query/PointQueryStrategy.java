@@ -0,0 +1,55 @@
+package com.skcraft.cardinal.service.claim.query;
+
+import com.skcraft.cardinal.util.ChunkPosition;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collection;
+
+/**
+ * Looks up each position with its own primary key lookup, reusing one
+ * prepared statement.
+ *
+ * <p>This is the cheapest plan for a handful of positions, but costs one
+ * round trip per position.</p>
+ */
+public class PointQueryStrategy implements ClaimQueryStrategy {
+
+    @Override
+    public void select(Connection conn, String serverId, Collection<ChunkPosition> positions, RowHandler handler) throws SQLException {
+        PreparedStatement stmt = conn.prepareStatement(Queries.SELECT_CLAIMS +
+                "WHERE server = ? AND world = ? AND x = ? AND z = ?");
+        stmt.setString(1, serverId);
+        for (ChunkPosition position : positions) {
+            stmt.setString(2, position.getWorldId());
+            stmt.setInt(3, position.getX());
+            stmt.setInt(4, position.getZ());
+            Queries.forEachRow(stmt, handler);
+        }
+    }
+
+    @Override
+    public int delete(Connection conn, String serverId, Collection<ChunkPosition> positions) throws SQLException {
+        PreparedStatement stmt = conn.prepareStatement("DELETE FROM claim WHERE server = ? AND world = ? AND x = ? AND z = ?");
+        stmt.setString(1, serverId);
+        for (ChunkPosition position : positions) {
+            stmt.setString(2, position.getWorldId());
+            stmt.setInt(3, position.getX());
+            stmt.setInt(4, position.getZ());
+            stmt.addBatch();
+        }
+
+        int count = 0;
+        for (int updated : stmt.executeBatch()) {
+            if (updated > 0) {
+                count += updated;
+            } else if (updated == Statement.SUCCESS_NO_INFO) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+}
@@ -0,0 +1,44 @@
+package com.skcraft.cardinal.service.claim.query;
+
+import com.skcraft.cardinal.util.ChunkPosition;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+
+/**
+ * SQL fragments shared by the query strategies.
+ */
+final class Queries {
+
+    /**
+     * The columns and joins of a claim row, to be followed by a
+     * {@code WHERE} clause.
+     */
+    static final String SELECT_CLAIMS = "" +
+            "SELECT c.*, id.uuid, id.name FROM claim c " +
+            "LEFT JOIN user_id AS id " +
+            "ON (id.id = c.owner_id) ";
+
+    private Queries() {
+    }
+
+    static int bindPositions(PreparedStatement stmt, Collection<ChunkPosition> positions, int index) throws SQLException {
+        for (ChunkPosition position : positions) {
+            stmt.setString(index++, position.getWorldId());
+            stmt.setInt(index++, position.getX());
+            stmt.setInt(index++, position.getZ());
+        }
+        return index;
+    }
+
+    static void forEachRow(PreparedStatement stmt, RowHandler handler) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                handler.handle(rs);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,20 @@
+package com.skcraft.cardinal.service.claim.query;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Receives the rows of a query one at a time.
+ */
+@FunctionalInterface
+public interface RowHandler {
+
+    /**
+     * Handle the current row of the result set.
+     *
+     * @param rs The result set, positioned on the row
+     * @throws SQLException On error
+     */
+    void handle(ResultSet rs) throws SQLException;
+
+}
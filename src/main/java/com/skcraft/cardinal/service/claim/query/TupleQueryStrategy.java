@@ -0,0 +1,46 @@
+package com.skcraft.cardinal.service.claim.query;
+
+import com.skcraft.cardinal.util.ChunkPosition;
+import com.skcraft.cardinal.util.sql.BatchStatements;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Matches positions with a {@code (world, x, z) IN ((?, ?, ?), ...)} row
+ * constructor list.
+ *
+ * <p>This was the only strategy before strategies were pluggable, and is
+ * kept as a baseline. Older versions of MySQL can't use the primary key
+ * for row constructor lists and plan them as range scans.</p>
+ */
+public class TupleQueryStrategy implements ClaimQueryStrategy {
+
+    @Override
+    public void select(Connection conn, String serverId, Collection<ChunkPosition> positions, RowHandler handler) throws SQLException {
+        for (List<ChunkPosition> batch : BatchStatements.partition(positions)) {
+            PreparedStatement stmt = conn.prepareStatement(Queries.SELECT_CLAIMS +
+                    "WHERE server = ? AND (world, x, z) IN (" + BatchStatements.placeholders("(?, ?, ?)", batch.size()) + ")");
+            stmt.setString(1, serverId);
+            Queries.bindPositions(stmt, batch, 2);
+            Queries.forEachRow(stmt, handler);
+        }
+    }
+
+    @Override
+    public int delete(Connection conn, String serverId, Collection<ChunkPosition> positions) throws SQLException {
+        int count = 0;
+        for (List<ChunkPosition> batch : BatchStatements.partition(positions)) {
+            PreparedStatement stmt = conn.prepareStatement("" +
+                    "DELETE FROM claim WHERE server = ? AND (world, x, z) IN (" + BatchStatements.placeholders("(?, ?, ?)", batch.size()) + ")");
+            stmt.setString(1, serverId);
+            Queries.bindPositions(stmt, batch, 2);
+            count += stmt.executeUpdate();
+        }
+        return count;
+    }
+
+}
@@ -1,6 +1,5 @@
 package com.skcraft.cardinal.service.party;
 
-import com.google.common.base.Strings;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
@@ -8,6 +7,7 @@ import com.google.inject.Inject;
 import com.skcraft.cardinal.profile.MojangId;
 import com.skcraft.cardinal.profile.MojangIdMapping;
 import com.skcraft.cardinal.util.DataAccessException;
+import com.skcraft.cardinal.util.sql.BatchStatements;
 import lombok.Value;
 
 import javax.sql.DataSource;
@@ -171,29 +171,31 @@ public class DatabasePartyManager implements PartyManager {
         }
 
         try (Connection conn = ds.getConnection()) {
-            PreparedStatement stmt = conn.prepareStatement(
-                    "SELECT name, create_time FROM party WHERE party.name IN (" + Strings.repeat("?, ", names.size() - 1) + "?)");
+            for (List<String> batch : BatchStatements.partition(names)) {
+                PreparedStatement stmt = conn.prepareStatement(
+                        "SELECT name, create_time FROM party WHERE party.name IN (" + BatchStatements.placeholders("?", batch.size()) + ")");
 
-            int index = 1;
-            for (String name : names) {
-                stmt.setString(index++, name);
-            }
+                int index = 1;
+                for (String name : batch) {
+                    stmt.setString(index++, name);
+                }
 
-            try (ResultSet rs = stmt.executeQuery()) {
-                while (rs.next()) {
-                    String name = rs.getString("name");
-                    String nameLower = name.toLowerCase();
-                    remaining.remove(nameLower);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        String name = rs.getString("name");
+                        String nameLower = name.toLowerCase();
+                        remaining.remove(nameLower);
 
-                    Party party = results.get(nameLower);
+                        Party party = results.get(nameLower);
 
-                    // If we're not updating an existing list of parties, create a new entry
-                    if (party == null) {
-                        party = new Party(name);
-                        results.put(nameLower, party);
-                    }
+                        // If we're not updating an existing list of parties, create a new entry
+                        if (party == null) {
+                            party = new Party(name);
+                            results.put(nameLower, party);
+                        }
 
-                    party.setCreateTime(rs.getTimestamp("create_time"));
+                        party.setCreateTime(rs.getTimestamp("create_time"));
+                    }
                 }
             }
 
@@ -201,22 +203,24 @@ public class DatabasePartyManager implements PartyManager {
                 return new PartyUpdate(results, remaining);
             }
 
-            stmt = conn.prepareStatement("" +
-                    "SELECT m.party_name, m.user_id, m.rank, u.uuid, u.name " +
-                    "FROM party_member m, user_id u " +
-                    "WHERE u.id = m.user_id AND party_name IN (" + Strings.repeat("?, ", results.size() - 1) + "?)");
+            for (List<String> batch : BatchStatements.partition(results.keySet())) {
+                PreparedStatement stmt = conn.prepareStatement("" +
+                        "SELECT m.party_name, m.user_id, m.rank, u.uuid, u.name " +
+                        "FROM party_member m, user_id u " +
+                        "WHERE u.id = m.user_id AND party_name IN (" + BatchStatements.placeholders("?", batch.size()) + ")");
 
-            index = 1;
-            for (String name : results.keySet()) {
-                stmt.setString(index++, name);
-            }
+                int index = 1;
+                for (String name : batch) {
+                    stmt.setString(index++, name);
+                }
 
-            try (ResultSet rs = stmt.executeQuery()) {
-                while (rs.next()) {
-                    Party party = results.get(rs.getString("party_name").toLowerCase());
-                    MojangId mojangId = new MojangId(UUID.fromString(rs.getString("uuid")), rs.getString("name"));
-                    Member member = new Member(mojangId, Rank.valueOf(rs.getString("rank")));
-                    members.put(party, member);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        Party party = results.get(rs.getString("party_name").toLowerCase());
+                        MojangId mojangId = new MojangId(UUID.fromString(rs.getString("uuid")), rs.getString("name"));
+                        Member member = new Member(mojangId, Rank.valueOf(rs.getString("rank")));
+                        members.put(party, member);
+                    }
                 }
             }
 
@@ -3,7 +3,9 @@ package com.skcraft.cardinal.service.party;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
-import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.skcraft.cardinal.event.ReloadEvent;
@@ -12,11 +14,19 @@ import com.skcraft.cardinal.util.DataAccessException;
 import com.skcraft.cardinal.util.ObjectCache;
 import com.skcraft.cardinal.util.event.EventBus;
 import com.skcraft.cardinal.util.event.Subscribe;
+import com.skcraft.cardinal.util.sql.RoutingDataSource;
 import lombok.Getter;
 import lombok.extern.java.Log;
 
 import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
 
@@ -34,7 +44,7 @@ public class PartyCache implements ObjectCache<String, Party> {
             .build(new CacheLoader<String, Party>() {
                 @Override
                 public Party load(String key) throws Exception {
-                    Party party = manager.getAll(Lists.newArrayList(key)).get(key);
+                    Party party = fetch(Collections.singletonList(key)).get(key);
                     if (party != null) {
                         return party;
                     } else {
@@ -42,6 +52,7 @@ public class PartyCache implements ObjectCache<String, Party> {
                     }
                 }
             });
+    private final ConcurrentMap<String, SettableFuture<Party>> inFlight = new ConcurrentHashMap<>();
 
     /**
      * Create a new party cache.
@@ -86,6 +97,103 @@ public class PartyCache implements ObjectCache<String, Party> {
         }
     }
 
+    /**
+     * Get the parties with the given names, loading the ones that are not
+     * cached with one query.
+     *
+     * <p>If another thread is already loading some of the parties, this
+     * method waits for that load instead of loading them again.</p>
+     *
+     * @param names The party names
+     * @return A map of parties where the key is the party's name in lower case,
+     *         without entries for parties that don't exist
+     * @throws DataAccessException Thrown if data can't be accessed
+     */
+    public Map<String, Party> getAll(Collection<String> names) {
+        checkNotNull(names, "names");
+        Map<String, Party> results = new HashMap<>();
+        Set<String> missing = new HashSet<>();
+
+        for (String name : names) {
+            String key = name.toLowerCase();
+            Party party = cache.getIfPresent(key);
+            if (party != null) {
+                results.put(key, party);
+            } else {
+                missing.add(key);
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            results.putAll(fetch(missing));
+        }
+
+        return results;
+    }
+
+    /**
+     * Load the given parties from the manager, sharing loads of the same
+     * party with other threads.
+     *
+     * <p>Loaded parties are put in the cache before their loads stop being
+     * shared, so that another thread always finds a party in one or the
+     * other.</p>
+     *
+     * @param keys The lowercase party names
+     * @return A map of parties that exist
+     */
+    private Map<String, Party> fetch(Collection<String> keys) {
+        Map<String, SettableFuture<Party>> owned = new HashMap<>();
+        Map<String, SettableFuture<Party>> waiting = new HashMap<>();
+
+        for (String key : keys) {
+            SettableFuture<Party> future = SettableFuture.create();
+            SettableFuture<Party> existing = inFlight.putIfAbsent(key, future);
+            if (existing != null) {
+                waiting.put(key, existing);
+            } else {
+                owned.put(key, future);
+            }
+        }
+
+        Map<String, Party> results = new HashMap<>();
+
+        if (!owned.isEmpty()) {
+            try {
+                Map<String, Party> loaded = manager.getAll(owned.keySet());
+                for (Map.Entry<String, SettableFuture<Party>> entry : owned.entrySet()) {
+                    Party party = loaded.get(entry.getKey());
+                    if (party != null) {
+                        Party existing = cache.asMap().putIfAbsent(entry.getKey(), party);
+                        if (existing != null) {
+                            party = existing;
+                        }
+                        results.put(entry.getKey(), party);
+                    }
+                    entry.getValue().set(party);
+                }
+            } catch (RuntimeException e) {
+                owned.values().forEach(future -> future.setException(e));
+                throw e;
+            } finally {
+                owned.forEach(inFlight::remove);
+            }
+        }
+
+        for (Map.Entry<String, SettableFuture<Party>> entry : waiting.entrySet()) {
+            try {
+                Party party = Futures.getUnchecked(entry.getValue());
+                if (party != null) {
+                    results.put(entry.getKey(), party);
+                }
+            } catch (UncheckedExecutionException e) {
+                throw new DataAccessException("Could not load the party for " + entry.getKey(), e.getCause());
+            }
+        }
+
+        return results;
+    }
+
     @Nullable
     @Override
     public Party getIfPresent(String key) {
@@ -95,7 +203,8 @@ public class PartyCache implements ObjectCache<String, Party> {
     @Override
     public void refreshAll() {
         log.info("Reloading all parties...");
-        manager.refreshAll(cache.asMap().values()).forEach(s -> cache.invalidate(s.toLowerCase()));
+        RoutingDataSource.readFromReplica(() -> manager.refreshAll(cache.asMap().values()))
+                .forEach(s -> cache.invalidate(s.toLowerCase()));
     }
 
     /**
@@ -0,0 +1,148 @@
+package com.skcraft.cardinal.util;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An immutable rectangle of chunks in a world, including the chunks on
+ * its bounds.
+ *
+ * <p>Areas let claim operations on large regions be expressed as ranges
+ * of coordinates rather than as a list of every chunk in the region. A
+ * union of areas is given as a collection, and the areas in it may
+ * overlap.</p>
+ */
+@Getter
+@EqualsAndHashCode
+@ToString
+public final class ChunkArea {
+
+    private final String worldId;
+    private final int minX;
+    private final int minZ;
+    private final int maxX;
+    private final int maxZ;
+
+    private ChunkArea(String worldId, int minX, int minZ, int maxX, int maxZ) {
+        this.worldId = worldId;
+        this.minX = minX;
+        this.minZ = minZ;
+        this.maxX = maxX;
+        this.maxZ = maxZ;
+    }
+
+    /**
+     * Create a new area between two corners, in any order.
+     *
+     * @param worldId The world name
+     * @param x1 The chunk X coordinate of one corner
+     * @param z1 The chunk Z coordinate of one corner
+     * @param x2 The chunk X coordinate of the opposite corner
+     * @param z2 The chunk Z coordinate of the opposite corner
+     * @return The area
+     */
+    public static ChunkArea of(String worldId, int x1, int z1, int x2, int z2) {
+        checkNotNull(worldId, "worldId");
+        return new ChunkArea(worldId, Math.min(x1, x2), Math.min(z1, z2), Math.max(x1, x2), Math.max(z1, z2));
+    }
+
+    /**
+     * Get the number of chunks along the X axis.
+     *
+     * @return The width
+     */
+    public long getWidth() {
+        return (long) maxX - minX + 1;
+    }
+
+    /**
+     * Get the number of chunks along the Z axis.
+     *
+     * @return The length
+     */
+    public long getLength() {
+        return (long) maxZ - minZ + 1;
+    }
+
+    /**
+     * Get the number of chunks in the area.
+     *
+     * @return The number of chunks
+     */
+    public long size() {
+        return getWidth() * getLength();
+    }
+
+    /**
+     * Test whether the given chunk is in the area.
+     *
+     * @param worldId The world name
+     * @param x The chunk X coordinate
+     * @param z The chunk Z coordinate
+     * @return True if the chunk is in the area
+     */
+    public boolean contains(String worldId, int x, int z) {
+        return x >= minX && x <= maxX && z >= minZ && z <= maxZ && this.worldId.equals(worldId);
+    }
+
+    /**
+     * Call the given consumer with every chunk in the area.
+     *
+     * @param consumer The consumer
+     */
+    public void forEach(Consumer<ChunkPosition> consumer) {
+        checkNotNull(consumer, "consumer");
+        int world = WorldIds.get(worldId);
+        for (long x = minX; x <= maxX; x++) {
+            for (long z = minZ; z <= maxZ; z++) {
+                consumer.accept(ChunkPosition.of(world, ChunkPosition.pack((int) x, (int) z)));
+            }
+        }
+    }
+
+    /**
+     * Split the area into areas that are no wider or longer than the
+     * given number of chunks.
+     *
+     * @param maxSide The largest width or length of the returned areas
+     * @return The areas, which cover this area without overlapping
+     */
+    public List<ChunkArea> split(int maxSide) {
+        checkArgument(maxSide >= 1, "maxSide >= 1");
+        List<ChunkArea> areas = new ArrayList<>();
+        for (long x = minX; x <= maxX; x += maxSide) {
+            for (long z = minZ; z <= maxZ; z += maxSide) {
+                areas.add(new ChunkArea(worldId, (int) x, (int) z,
+                        (int) Math.min(x + maxSide - 1, maxX), (int) Math.min(z + maxSide - 1, maxZ)));
+            }
+        }
+        return areas;
+    }
+
+    /**
+     * Get every chunk in the given union of areas, without duplicates.
+     *
+     * @param areas The areas
+     * @return The chunk coordinates
+     */
+    public static Set<WorldVector3i> positions(Collection<ChunkArea> areas) {
+        checkNotNull(areas, "areas");
+        Set<WorldVector3i> positions = new LinkedHashSet<>();
+        for (ChunkArea area : areas) {
+            area.forEach(chunk -> positions.add(chunk.toVector()));
+        }
+        return positions;
+    }
+
+}
@@ -0,0 +1,154 @@
+package com.skcraft.cardinal.util;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An immutable chunk position in a world, meant to be used as a key in
+ * hash-based collections.
+ *
+ * <p>The X and Z coordinates are packed into a single {@code long} and the
+ * world is stored as an ID from {@link WorldIds}, so that equality and
+ * hashing never involve the world name. Unlike {@link WorldVector3i},
+ * there is no Y coordinate.</p>
+ */
+public final class ChunkPosition {
+
+    private final int world;
+    private final long key;
+
+    private ChunkPosition(int world, long key) {
+        this.world = world;
+        this.key = key;
+    }
+
+    /**
+     * Create a new chunk position.
+     *
+     * @param world The world ID from {@link WorldIds}
+     * @param key The packed chunk coordinates
+     * @return The chunk position
+     */
+    public static ChunkPosition of(int world, long key) {
+        return new ChunkPosition(world, key);
+    }
+
+    /**
+     * Create a new chunk position.
+     *
+     * @param worldId The world name
+     * @param x The chunk X coordinate
+     * @param z The chunk Z coordinate
+     * @return The chunk position
+     */
+    public static ChunkPosition of(String worldId, int x, int z) {
+        return new ChunkPosition(WorldIds.get(worldId), pack(x, z));
+    }
+
+    /**
+     * Create a new chunk position from a vector of chunk coordinates,
+     * discarding the Y coordinate.
+     *
+     * @param position The chunk coordinates
+     * @return The chunk position
+     */
+    public static ChunkPosition of(WorldVector3i position) {
+        checkNotNull(position, "position");
+        return of(position.getWorldId(), position.getX(), position.getZ());
+    }
+
+    /**
+     * Pack the given chunk coordinates into a single {@code long}.
+     *
+     * @param x The X coordinate
+     * @param z The Z coordinate
+     * @return The packed coordinates
+     */
+    public static long pack(int x, int z) {
+        return ((long) x << 32) | (z & 0xFFFFFFFFL);
+    }
+
+    public static int unpackX(long key) {
+        return (int) (key >> 32);
+    }
+
+    public static int unpackZ(long key) {
+        return (int) key;
+    }
+
+    /**
+     * Scramble the bits of the given value so that neighbouring coordinates
+     * do not end up in neighbouring buckets.
+     *
+     * @param value The value
+     * @return The hash
+     */
+    public static int mix(long value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    public String getWorldId() {
+        return WorldIds.getName(world);
+    }
+
+    /**
+     * Get the ID of the world.
+     *
+     * @return The world ID
+     * @see WorldIds
+     */
+    public int getWorld() {
+        return world;
+    }
+
+    public int getX() {
+        return unpackX(key);
+    }
+
+    public int getZ() {
+        return unpackZ(key);
+    }
+
+    /**
+     * Get the X and Z coordinates packed into a {@code long}.
+     *
+     * @return The packed coordinates
+     * @see #pack(int, int)
+     */
+    public long getKey() {
+        return key;
+    }
+
+    /**
+     * Create a {@link WorldVector3i} for this chunk with a Y of 0.
+     *
+     * @return The vector
+     */
+    public WorldVector3i toVector() {
+        return new WorldVector3i(getWorldId(), getX(), 0, getZ());
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ChunkPosition)) {
+            return false;
+        }
+
+        ChunkPosition other = (ChunkPosition) obj;
+        return world == other.world && key == other.key;
+    }
+
+    @Override
+    public int hashCode() {
+        return mix(key) * 31 + world;
+    }
+
+    @Override
+    public String toString() {
+        return "{" + getWorldId() + ":" + getX() + "," + getZ() + "}";
+    }
+
+}
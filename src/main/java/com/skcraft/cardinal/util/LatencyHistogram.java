@@ -0,0 +1,120 @@
+package com.skcraft.cardinal.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations with one bucket per power of two microseconds,
+ * which can be recorded to from any number of threads without locking
+ * or allocating.
+ *
+ * <p>Percentiles are estimated from the bucket bounds, so they are only
+ * accurate to within a factor of two, which is enough to tell a slow
+ * database from a fast one.</p>
+ */
+public final class LatencyHistogram {
+
+    private static final int BUCKET_COUNT = 32; // Up to about 35 minutes
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder totalNanos = new LongAdder();
+
+    /**
+     * Record a duration.
+     *
+     * @param nanos The duration in nanoseconds
+     */
+    public void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        int bucket = Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(micros));
+        buckets.incrementAndGet(bucket);
+        totalNanos.add(Math.max(0, nanos));
+    }
+
+    /**
+     * Get a copy of the current state of the histogram.
+     *
+     * <p>The copy is not atomic, so durations recorded while it is being
+     * made may be partly included.</p>
+     *
+     * @return The snapshot
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets.get(i);
+        }
+        return new Snapshot(counts, totalNanos.sum());
+    }
+
+    /**
+     * An immutable copy of a histogram.
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long totalNanos;
+
+        private Snapshot(long[] counts, long totalNanos) {
+            this.counts = counts;
+            long count = 0;
+            for (long bucketCount : counts) {
+                count += bucketCount;
+            }
+            this.count = count;
+            this.totalNanos = totalNanos;
+        }
+
+        /**
+         * Get the number of recorded durations.
+         *
+         * @return The number of durations
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Get the mean of the recorded durations.
+         *
+         * @param unit The unit to return the mean in
+         * @return The mean, or 0 if nothing was recorded
+         */
+        public double getMean(TimeUnit unit) {
+            return count > 0 ? (double) totalNanos / count / unit.toNanos(1) : 0;
+        }
+
+        /**
+         * Estimate a percentile of the recorded durations, as the upper
+         * bound of the bucket that it falls in.
+         *
+         * @param percentile The percentile, between 0 and 100
+         * @param unit The unit to return the duration in
+         * @return The duration, or 0 if nothing was recorded
+         */
+        public double getPercentile(double percentile, TimeUnit unit) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(percentile / 100 * count);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return (double) TimeUnit.MICROSECONDS.toNanos(1L << i) / unit.toNanos(1);
+                }
+            }
+            return (double) TimeUnit.MICROSECONDS.toNanos(1L << (counts.length - 1)) / unit.toNanos(1);
+        }
+
+        @Override
+        public String toString() {
+            return "LatencyHistogram.Snapshot(count=" + count
+                    + ", meanMs=" + getMean(TimeUnit.MILLISECONDS)
+                    + ", p50Ms=" + getPercentile(50, TimeUnit.MILLISECONDS)
+                    + ", p99Ms=" + getPercentile(99, TimeUnit.MILLISECONDS) + ")";
+        }
+    }
+
+}
@@ -19,6 +19,7 @@ public class RetryMutex {
             .retryInfinitely();
     private final Callable<?> callable;
     private final AtomicBoolean loading = new AtomicBoolean(false);
+    private final AtomicBoolean rerun = new AtomicBoolean(false);
 
     public RetryMutex(Callable<?> callable) {
         checkNotNull(callable, "callable");
@@ -27,7 +28,28 @@ public class RetryMutex {
 
     public void start() {
         if (loading.compareAndSet(false, true)) {
-            executor.getWithRetry(callable).whenComplete((v, t) -> loading.set(false));
+            submit();
         }
     }
+
+    /**
+     * Start the task, or if it is already running, run it once more after
+     * the current run completes.
+     */
+    public void restart() {
+        rerun.set(true);
+        if (loading.compareAndSet(false, true)) {
+            rerun.set(false);
+            submit();
+        }
+    }
+
+    private void submit() {
+        executor.getWithRetry(callable).whenComplete((v, t) -> {
+            loading.set(false);
+            if (rerun.getAndSet(false)) {
+                start();
+            }
+        });
+    }
 }
@@ -0,0 +1,97 @@
+package com.skcraft.cardinal.util;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Assigns small integer IDs to world names so that code on hot paths can
+ * index arrays by world instead of hashing and comparing world names.
+ *
+ * <p>World names are case-insensitive, so names that differ only by case
+ * are given the same ID. The name returned by {@link #getName(int)} is the
+ * spelling that was first registered. IDs start at 0, are never reused
+ * and are only valid for the lifetime of the JVM.</p>
+ */
+public final class WorldIds {
+
+    private static final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private static volatile String[] names = new String[0];
+
+    private WorldIds() {
+    }
+
+    /**
+     * Get the ID for the given world name, assigning a new ID if the world
+     * has not been seen before.
+     *
+     * @param worldName The world name
+     * @return The world ID
+     */
+    public static int get(String worldName) {
+        checkNotNull(worldName, "worldName");
+        Integer id = ids.get(worldName);
+        if (id != null) {
+            return id;
+        }
+        return register(worldName);
+    }
+
+    /**
+     * Get the ID for the given world name without assigning a new one.
+     *
+     * @param worldName The world name
+     * @return The world ID, or -1 if the world has not been seen
+     */
+    public static int find(String worldName) {
+        checkNotNull(worldName, "worldName");
+        Integer id = ids.get(worldName);
+        if (id != null) {
+            return id;
+        }
+        id = ids.get(worldName.toLowerCase(Locale.ROOT));
+        return id != null ? id : -1;
+    }
+
+    /**
+     * Get the name of the world with the given ID.
+     *
+     * @param id The world ID
+     * @return The world name
+     * @throws IllegalArgumentException If the ID has not been assigned
+     */
+    public static String getName(int id) {
+        String[] names = WorldIds.names;
+        if (id < 0 || id >= names.length) {
+            throw new IllegalArgumentException("Unknown world ID " + id);
+        }
+        return names[id];
+    }
+
+    /**
+     * Get the number of IDs that have been assigned.
+     *
+     * @return The number of worlds
+     */
+    public static int size() {
+        return names.length;
+    }
+
+    private static synchronized int register(String worldName) {
+        String normalized = worldName.toLowerCase(Locale.ROOT);
+        Integer id = ids.get(normalized);
+        if (id == null) {
+            String[] names = Arrays.copyOf(WorldIds.names, WorldIds.names.length + 1);
+            id = names.length - 1;
+            names[id] = worldName;
+            ids.put(normalized, id);
+            WorldIds.names = names;
+        }
+        ids.putIfAbsent(worldName, id);
+        return id;
+    }
+
+}
@@ -11,6 +11,7 @@ public final class WorldVector3i implements Serializable {
     private final int x;
     private final int y;
     private final int z;
+    private transient int hash;
 
     @JsonCreator
     public WorldVector3i(@JsonProperty("worldId") String worldId, @JsonProperty("x") int x, @JsonProperty("y") int y, @JsonProperty("z") int z) {
@@ -68,12 +69,23 @@ public final class WorldVector3i implements Serializable {
         }
 
         WorldVector3i other = (WorldVector3i) obj;
-        return other.getWorldId().equalsIgnoreCase(getWorldId()) && getX() == other.getX() && getY() == other.getY() && getZ() == other.getZ();
+        return x == other.x && z == other.z && y == other.y
+                && (worldId == other.worldId || worldId.equalsIgnoreCase(other.worldId));
     }
 
     @Override
     public int hashCode() {
-        return getX() + getZ() << 16 + getY() << 24 + getWorldId().hashCode() << 20;
+        int h = hash;
+        if (h == 0) {
+            // Must agree with equals(), which ignores the case of the world
+            int worldHash = 0;
+            for (int i = 0; i < worldId.length(); i++) {
+                worldHash = 31 * worldHash + Character.toLowerCase(Character.toUpperCase(worldId.charAt(i)));
+            }
+            h = ChunkPosition.mix(ChunkPosition.pack(x, z) ^ ((long) y << 48)) * 31 + worldHash;
+            hash = h;
+        }
+        return h;
     }
 
 }
@@ -0,0 +1,112 @@
+package com.skcraft.cardinal.util.sql;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Helps build statements with lists of parameters (such as {@code IN}
+ * lists and multi-row {@code VALUES}) so that only a few distinct SQL
+ * strings are ever sent to the database.
+ *
+ * <p>Every distinct SQL string takes a slot in the driver's and the
+ * server's prepared statement caches, so building the list with exactly
+ * as many placeholders as there are items quickly evicts everything else.
+ * Instead, inputs are split into pieces of at most {@link #MAX_BATCH_SIZE}
+ * items, and each piece is padded up to the next power of two by repeating
+ * its last item. Callers must therefore use statements where a repeated
+ * item is harmless, which is true of {@code IN} lists, joins that collect
+ * results into a map, and idempotent upserts.</p>
+ */
+public final class BatchStatements {
+
+    /**
+     * The maximum number of items in one statement.
+     */
+    public static final int MAX_BATCH_SIZE = 256;
+
+    private static final ConcurrentMap<String, String> placeholderCache = new ConcurrentHashMap<>();
+
+    private BatchStatements() {
+    }
+
+    /**
+     * Get the number of items that a list of the given size is padded to.
+     *
+     * @param size The number of items, from 1 to {@link #MAX_BATCH_SIZE}
+     * @return The padded size
+     */
+    public static int getBucketSize(int size) {
+        checkArgument(size >= 1 && size <= MAX_BATCH_SIZE, "size must be between 1 and MAX_BATCH_SIZE");
+        return size == 1 ? 1 : Integer.highestOneBit(size - 1) << 1;
+    }
+
+    /**
+     * Split the given items into lists of at most {@link #MAX_BATCH_SIZE}
+     * items, each padded to its bucket size.
+     *
+     * @param items The items
+     * @param <T> The type of item
+     * @return A list of padded lists, which is empty if there are no items
+     */
+    public static <T> List<List<T>> partition(Collection<T> items) {
+        checkNotNull(items, "items");
+        if (items.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<List<T>> pieces = new ArrayList<>();
+        for (List<T> piece : Lists.partition(new ArrayList<>(items), MAX_BATCH_SIZE)) {
+            pieces.add(pad(piece));
+        }
+        return pieces;
+    }
+
+    /**
+     * Pad the given list to its bucket size by repeating its last item.
+     *
+     * @param items The items, from 1 to {@link #MAX_BATCH_SIZE}
+     * @param <T> The type of item
+     * @return The padded list
+     */
+    public static <T> List<T> pad(List<T> items) {
+        int bucketSize = getBucketSize(items.size());
+        if (bucketSize == items.size()) {
+            return items;
+        }
+        List<T> padded = new ArrayList<>(bucketSize);
+        padded.addAll(items);
+        T last = Iterables.getLast(items);
+        while (padded.size() < bucketSize) {
+            padded.add(last);
+        }
+        return padded;
+    }
+
+    /**
+     * Repeat a group of placeholders, separated by commas.
+     *
+     * <p>For example, {@code placeholders("(?, ?)", 3)} returns
+     * {@code "(?, ?), (?, ?), (?, ?)"}.</p>
+     *
+     * @param group The placeholder group
+     * @param count The number of times to repeat it, at least 1
+     * @return The placeholders
+     */
+    public static String placeholders(String group, int count) {
+        checkNotNull(group, "group");
+        checkArgument(count >= 1, "count >= 1");
+        return placeholderCache.computeIfAbsent(group + "#" + count, k -> Joiner.on(", ").join(Collections.nCopies(count, group)));
+    }
+
+}
@@ -0,0 +1,217 @@
+package com.skcraft.cardinal.util.sql;
+
+import com.google.common.collect.ImmutableList;
+import lombok.extern.java.Log;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A data source that sends reads made within {@link #readFromReplica(Supplier)}
+ * to read replicas, and everything else to the primary database.
+ *
+ * <p>Replica reads are only meant for filling caches, where the data that
+ * is read may be a little behind the primary. To avoid reading data that
+ * is older than a change that this server has just made, replica reads go
+ * to the primary for a short window after any statement other than a
+ * {@code SELECT} is prepared on a primary connection. The window should be
+ * longer than the usual replication lag.</p>
+ *
+ * <p>Replicas are used in turn. If a connection to a replica can't be made,
+ * the primary is used instead.</p>
+ */
+@Log
+public class RoutingDataSource implements DataSource {
+
+    private static final ThreadLocal<Boolean> replicaRead = ThreadLocal.withInitial(() -> false);
+
+    private final DataSource primary;
+    private final List<DataSource> replicas;
+    private final long writeWindow;
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private volatile long writeWindowEnd = System.nanoTime(); // In nanoTime
+    private final LongAdder replicaReadCount = new LongAdder();
+    private final LongAdder redirectedReadCount = new LongAdder();
+
+    /**
+     * Create a new data source.
+     *
+     * @param primary The primary database
+     * @param replicas The read replicas
+     * @param writeWindow The time, in milliseconds, to read from the primary after a write
+     */
+    public RoutingDataSource(DataSource primary, List<DataSource> replicas, long writeWindow) {
+        checkNotNull(primary, "primary");
+        checkNotNull(replicas, "replicas");
+        checkArgument(writeWindow >= 0, "writeWindow >= 0");
+        this.primary = primary;
+        this.replicas = ImmutableList.copyOf(replicas);
+        this.writeWindow = TimeUnit.MILLISECONDS.toNanos(writeWindow);
+    }
+
+    /**
+     * Run the given task, allowing connections that it gets from any
+     * {@code RoutingDataSource} on this thread to go to a read replica.
+     *
+     * <p>The task must only read.</p>
+     *
+     * @param task The task
+     * @param <T> The type of result
+     * @return The result of the task
+     */
+    public static <T> T readFromReplica(Supplier<T> task) {
+        checkNotNull(task, "task");
+        boolean previous = replicaRead.get();
+        replicaRead.set(true);
+        try {
+            return task.get();
+        } finally {
+            replicaRead.set(previous);
+        }
+    }
+
+    /**
+     * Run the given task, allowing connections that it gets from any
+     * {@code RoutingDataSource} on this thread to go to a read replica.
+     *
+     * <p>The task must only read.</p>
+     *
+     * @param task The task
+     */
+    public static void readFromReplica(Runnable task) {
+        checkNotNull(task, "task");
+        readFromReplica(() -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * Get the number of connections that went to a replica.
+     *
+     * @return The number of connections
+     */
+    public long getReplicaReadCount() {
+        return replicaReadCount.sum();
+    }
+
+    /**
+     * Get the number of connections that were allowed to go to a replica
+     * but went to the primary because of a recent write.
+     *
+     * @return The number of connections
+     */
+    public long getRedirectedReadCount() {
+        return redirectedReadCount.sum();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (replicaRead.get() && !replicas.isEmpty()) {
+            if (System.nanoTime() - writeWindowEnd < 0) {
+                redirectedReadCount.increment();
+            } else {
+                DataSource replica = replicas.get(Math.floorMod(nextReplica.getAndIncrement(), replicas.size()));
+                try {
+                    Connection conn = replica.getConnection();
+                    replicaReadCount.increment();
+                    return conn;
+                } catch (SQLException e) {
+                    log.log(Level.WARNING, "Could not connect to a read replica, so the primary database will be used", e);
+                }
+            }
+        }
+        return trackWrites(primary.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return trackWrites(primary.getConnection(username, password));
+    }
+
+    /**
+     * Wrap a primary connection so that preparing a statement that writes
+     * opens the write window, which is extended again when the connection
+     * is closed, after the write has been committed.
+     */
+    private Connection trackWrites(Connection conn) {
+        boolean[] wrote = new boolean[1];
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class }, (proxy, method, args) -> {
+            String name = method.getName();
+            if ((name.equals("prepareStatement") || name.equals("prepareCall")) && isWrite((String) args[0])) {
+                wrote[0] = true;
+                recordWrite();
+            } else if (name.equals("close") && wrote[0]) {
+                recordWrite();
+            }
+            try {
+                return method.invoke(conn, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        });
+    }
+
+    private void recordWrite() {
+        writeWindowEnd = System.nanoTime() + writeWindow;
+    }
+
+    private static boolean isWrite(String sql) {
+        String trimmed = sql.trim();
+        return !trimmed.regionMatches(true, 0, "SELECT", 0, 6);
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return primary.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        primary.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        primary.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return primary.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return primary.getParentLogger();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        return primary.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || primary.isWrapperFor(iface);
+    }
+
+}
@@ -0,0 +1,55 @@
+package com.skcraft.cardinal;
+
+import com.skcraft.cardinal.service.claim.AdaptiveBatchPolicy;
+import com.skcraft.cardinal.service.claim.ClaimCacheConfig;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+
+public class AdaptiveBatchPolicyTest {
+
+    private static AdaptiveBatchPolicy createPolicy() {
+        ClaimCacheConfig config = new ClaimCacheConfig();
+        config.setInitialBatchSize(100);
+        config.setMinBatchSize(10);
+        config.setMaxBatchSize(400);
+        config.setTargetBatchLatency(100);
+        config.setMaxCollectTime(1000);
+        return new AdaptiveBatchPolicy(config);
+    }
+
+    @Test
+    public void testGrowsUpToCap() throws Exception {
+        AdaptiveBatchPolicy policy = createPolicy();
+        for (int i = 0; i < 100; i++) {
+            policy.recordSuccess(policy.getBatchSize(), TimeUnit.MILLISECONDS.toNanos(5));
+        }
+        assertThat(policy.getBatchSize(), is(400));
+        assertThat(policy.getWaitTime(), lessThan(10L));
+    }
+
+    @Test
+    public void testDoesNotGrowWithPartialBatches() throws Exception {
+        AdaptiveBatchPolicy policy = createPolicy();
+        policy.recordSuccess(5, TimeUnit.MILLISECONDS.toNanos(5));
+        assertThat(policy.getBatchSize(), is(100));
+    }
+
+    @Test
+    public void testShrinksWhenSlow() throws Exception {
+        AdaptiveBatchPolicy policy = createPolicy();
+        policy.recordSuccess(100, TimeUnit.MILLISECONDS.toNanos(500));
+        assertThat(policy.getBatchSize(), is(50));
+        assertThat(policy.getWaitTime(), greaterThan(100L));
+        for (int i = 0; i < 10; i++) {
+            policy.recordFailure();
+        }
+        assertThat(policy.getBatchSize(), is(10));
+    }
+
+}
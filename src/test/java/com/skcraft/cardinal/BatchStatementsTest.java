@@ -0,0 +1,45 @@
+package com.skcraft.cardinal;
+
+import com.google.common.collect.Lists;
+import com.skcraft.cardinal.util.sql.BatchStatements;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+public class BatchStatementsTest {
+
+    @Test
+    public void testBucketSizes() throws Exception {
+        assertThat(BatchStatements.getBucketSize(1), is(1));
+        assertThat(BatchStatements.getBucketSize(2), is(2));
+        assertThat(BatchStatements.getBucketSize(3), is(4));
+        assertThat(BatchStatements.getBucketSize(100), is(128));
+        assertThat(BatchStatements.getBucketSize(BatchStatements.MAX_BATCH_SIZE), is(BatchStatements.MAX_BATCH_SIZE));
+    }
+
+    @Test
+    public void testPartition() throws Exception {
+        List<Integer> items = new ArrayList<>();
+        for (int i = 0; i < BatchStatements.MAX_BATCH_SIZE + 3; i++) {
+            items.add(i);
+        }
+
+        List<List<Integer>> pieces = BatchStatements.partition(items);
+        assertThat(pieces.size(), is(2));
+        assertThat(pieces.get(0).size(), is(BatchStatements.MAX_BATCH_SIZE));
+        assertThat(pieces.get(1), equalTo(Lists.newArrayList(256, 257, 258, 258)));
+        assertThat(BatchStatements.partition(new ArrayList<>()).isEmpty(), is(true));
+    }
+
+    @Test
+    public void testPlaceholders() throws Exception {
+        assertThat(BatchStatements.placeholders("?", 1), equalTo("?"));
+        assertThat(BatchStatements.placeholders("(?, ?)", 3), equalTo("(?, ?), (?, ?), (?, ?)"));
+        assertThat(BatchStatements.placeholders("(?, ?)", 3), sameInstance(BatchStatements.placeholders("(?, ?)", 3)));
+    }
+
+}
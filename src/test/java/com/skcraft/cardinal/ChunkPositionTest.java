@@ -0,0 +1,61 @@
+package com.skcraft.cardinal;
+
+import com.skcraft.cardinal.util.ChunkPosition;
+import com.skcraft.cardinal.util.WorldVector3i;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.junit.Assert.assertThat;
+
+public class ChunkPositionTest {
+
+    @Test
+    public void testPackUnpack() throws Exception {
+        int[] values = {0, 1, -1, 30000000, -30000000, Integer.MAX_VALUE, Integer.MIN_VALUE};
+        for (int x : values) {
+            for (int z : values) {
+                ChunkPosition position = ChunkPosition.of("main", x, z);
+                assertThat(position.getX(), is(x));
+                assertThat(position.getZ(), is(z));
+            }
+        }
+    }
+
+    @Test
+    public void testEqualsIgnoresWorldCase() throws Exception {
+        ChunkPosition a = ChunkPosition.of("Main", 20, -30);
+        ChunkPosition b = ChunkPosition.of("mAIN", 20, -30);
+        assertThat(a, equalTo(b));
+        assertThat(a.hashCode(), is(b.hashCode()));
+        assertThat(a.getWorldId(), sameInstance(b.getWorldId()));
+        assertThat(a, not(equalTo(ChunkPosition.of("Main", 20, -31))));
+        assertThat(a, not(equalTo(ChunkPosition.of("second", 20, -30))));
+    }
+
+    @Test
+    public void testWorldVectorHashAgreesWithEquals() throws Exception {
+        WorldVector3i a = new WorldVector3i("Main", 20, 0, -30);
+        WorldVector3i b = new WorldVector3i("mAIN", 20, 0, -30);
+        assertThat(a, equalTo(b));
+        assertThat(a.hashCode(), is(b.hashCode()));
+    }
+
+    @Test
+    public void testWorldVectorHashSpread() throws Exception {
+        Set<Integer> vectorHashes = new HashSet<>();
+        Set<Integer> chunkHashes = new HashSet<>();
+        for (int x = -32; x < 32; x++) {
+            for (int z = -32; z < 32; z++) {
+                vectorHashes.add(new WorldVector3i("main", x, 0, z).hashCode());
+                chunkHashes.add(ChunkPosition.of("main", x, z).hashCode());
+            }
+        }
+        assertThat(vectorHashes.size(), greaterThan(4000));
+        assertThat(chunkHashes.size(), greaterThan(4000));
+    }
+
+}
@@ -0,0 +1,202 @@
+package com.skcraft.cardinal;
+
+import com.skcraft.cardinal.profile.MojangId;
+import com.skcraft.cardinal.service.claim.Claim;
+import com.skcraft.cardinal.service.claim.ClaimCache;
+import com.skcraft.cardinal.service.claim.ClaimMap;
+import com.skcraft.cardinal.service.party.Member;
+import com.skcraft.cardinal.service.party.Party;
+import com.skcraft.cardinal.service.party.PartyCache;
+import com.skcraft.cardinal.service.party.PartyManager;
+import com.skcraft.cardinal.util.WorldVector3i;
+import com.skcraft.cardinal.util.event.MultimapEventBus;
+import gnu.trove.map.hash.TLongObjectHashMap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Compares {@link ClaimCache#getIfPresent(WorldVector3i)} throughput against
+ * the previous single read/write lock design while writer threads are
+ * constantly queueing and invalidating chunks, as happens during chunk
+ * load storms.
+ *
+ * <p>Run with {@code main()}; no database is required.</p>
+ */
+public class ClaimCacheContentionBenchmark {
+
+    private static final String WORLD = "main";
+    private static final int RADIUS = 64;
+    private static final int READERS = 2;
+    private static final int WRITERS = 2;
+    private static final long DURATION_MS = 5000;
+
+    public static void main(String[] args) throws Exception {
+        LockedIndex locked = new LockedIndex();
+        ClaimCache cache = new ClaimCache(new NullClaimMap(), new PartyCache(new NullPartyManager(), new MultimapEventBus()), new MultimapEventBus());
+
+        for (int i = 0; i < 2; i++) { // First pass is warm up
+            System.out.println("Read/write lock: " + run(locked::queue, locked::invalidate, locked::get) + " reads/s");
+            System.out.println("ClaimCache:      " + run(cache::queueChunk, cache::invalidateChunk, p -> cache.getIfPresent(p) != null) + " reads/s");
+        }
+    }
+
+    private static long run(Consumer<WorldVector3i> queue, Consumer<WorldVector3i> invalidate, Predicate<WorldVector3i> read) throws InterruptedException {
+        AtomicBoolean running = new AtomicBoolean(true);
+        LongAdder reads = new LongAdder();
+        CountDownLatch done = new CountDownLatch(READERS + WRITERS);
+        List<Thread> threads = new ArrayList<>();
+
+        for (int i = 0; i < WRITERS; i++) {
+            threads.add(new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (running.get()) {
+                    WorldVector3i position = randomPosition(random);
+                    if (random.nextBoolean()) {
+                        queue.accept(position);
+                    } else {
+                        invalidate.accept(position);
+                    }
+                }
+                done.countDown();
+            }));
+        }
+
+        for (int i = 0; i < READERS; i++) {
+            threads.add(new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long count = 0;
+                while (running.get()) {
+                    read.test(randomPosition(random));
+                    count++;
+                }
+                reads.add(count);
+                done.countDown();
+            }));
+        }
+
+        threads.forEach(Thread::start);
+        Thread.sleep(DURATION_MS);
+        running.set(false);
+        done.await();
+
+        return reads.sum() * 1000 / DURATION_MS;
+    }
+
+    private static WorldVector3i randomPosition(ThreadLocalRandom random) {
+        return new WorldVector3i(WORLD, random.nextInt(-RADIUS, RADIUS), 0, random.nextInt(-RADIUS, RADIUS));
+    }
+
+    private static long toLong(WorldVector3i position) {
+        return ((long) position.getX() << 32) | (position.getZ() & 0xFFFFFFFFL);
+    }
+
+    /**
+     * The chunk index as it was implemented with a single read/write lock.
+     */
+    private static class LockedIndex {
+        private final TLongObjectHashMap<Boolean> states = new TLongObjectHashMap<>();
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+        public void queue(WorldVector3i position) {
+            Lock lock = this.lock.writeLock();
+            lock.lock();
+            try {
+                states.putIfAbsent(toLong(position), Boolean.TRUE);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public void invalidate(WorldVector3i position) {
+            Lock lock = this.lock.writeLock();
+            lock.lock();
+            try {
+                states.remove(toLong(position));
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public boolean get(WorldVector3i position) {
+            Lock lock = this.lock.readLock();
+            lock.lock();
+            try {
+                return states.get(toLong(position)) != null;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static class NullClaimMap implements ClaimMap {
+        @Override
+        public Claim get(WorldVector3i position) {
+            return null;
+        }
+
+        @Override
+        public Map<WorldVector3i, Claim> getAll(Collection<WorldVector3i> positions) {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public int save(Collection<WorldVector3i> positions, MojangId owner, String party) {
+            return 0;
+        }
+
+        @Override
+        public Set<WorldVector3i> update(Collection<WorldVector3i> positions, MojangId owner, String party, MojangId existingOwner) {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public int remove(Collection<WorldVector3i> positions) {
+            return 0;
+        }
+
+        @Override
+        public int getCountByOwner(MojangId owner) {
+            return 0;
+        }
+    }
+
+    private static class NullPartyManager implements PartyManager {
+        @Override
+        public Map<String, Party> getAll(Collection<String> names) {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public Set<String> refreshAll(Collection<Party> parties) {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public void create(Party party) {
+        }
+
+        @Override
+        public void addMembers(String party, Set<Member> members) {
+        }
+
+        @Override
+        public void removeMembers(String party, Set<MojangId> members) {
+        }
+    }
+
+}
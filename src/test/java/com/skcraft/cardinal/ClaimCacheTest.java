@@ -0,0 +1,331 @@
+package com.skcraft.cardinal;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.skcraft.cardinal.event.claim.ClaimsChangedEvent;
+import com.skcraft.cardinal.event.claim.ClaimsLoadedEvent;
+import com.skcraft.cardinal.service.claim.ClaimCache;
+import com.skcraft.cardinal.service.claim.ClaimCacheConfig;
+import com.skcraft.cardinal.service.claim.ClaimCacheStats;
+import com.skcraft.cardinal.service.claim.ClaimEntry;
+import com.skcraft.cardinal.service.claim.ClaimRequest;
+import com.skcraft.cardinal.service.party.PartyCache;
+import com.skcraft.cardinal.util.ChunkArea;
+import com.skcraft.cardinal.util.ChunkPosition;
+import com.skcraft.cardinal.util.WorldVector3i;
+import com.skcraft.cardinal.util.event.EventBus;
+import com.skcraft.cardinal.util.event.MultimapEventBus;
+import com.skcraft.cardinal.util.event.Subscribe;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+public class ClaimCacheTest {
+
+    private final ListeningExecutorService executor = MoreExecutors.sameThreadExecutor();
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private MemoryClaimMap claims;
+    private EventBus eventBus;
+    private ClaimCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        claims = new MemoryClaimMap();
+        claims.save(Lists.newArrayList(new WorldVector3i("main", 10, 0, 20)), MockDatabase.SK_USER, null);
+        eventBus = new MultimapEventBus();
+        cache = new ClaimCache(claims, new PartyCache(new MemoryPartyManager(), eventBus), eventBus);
+    }
+
+    @Test
+    public void testQueueChunkCompletes() throws Exception {
+        ClaimEntry entry = cache.queueChunk(ChunkPosition.of("main", 10, 20), executor).get(5, TimeUnit.SECONDS);
+        assertThat(entry.isLoaded(), is(true));
+        assertThat(entry.getClaim().getOwner(), equalTo(MockDatabase.SK_USER));
+
+        ClaimEntry cached = cache.queueChunk(ChunkPosition.of("main", 10, 20), executor).get(0, TimeUnit.SECONDS);
+        assertThat(cached.getClaim(), equalTo(entry.getClaim()));
+    }
+
+    @Test
+    public void testEvents() throws Exception {
+        EventRecorder recorder = new EventRecorder();
+        eventBus.register(recorder);
+
+        ChunkPosition chunk = ChunkPosition.of("main", 10, 20);
+        cache.queueChunk(chunk, executor).get(5, TimeUnit.SECONDS);
+        assertThat(recorder.loaded.poll(5, TimeUnit.SECONDS).getChunks(), equalTo(Lists.newArrayList(chunk)));
+
+        cache.putAsUnclaimed(Lists.newArrayList(chunk.toVector()));
+        assertThat(recorder.changed.poll(5, TimeUnit.SECONDS).getChunks(), equalTo(Lists.newArrayList(chunk)));
+
+        cache.putAsUnclaimed(Lists.newArrayList(chunk.toVector()));
+        assertThat(recorder.changed.isEmpty(), is(true));
+    }
+
+    @Test
+    public void testPutArea() throws Exception {
+        EventRecorder recorder = new EventRecorder();
+        eventBus.register(recorder);
+
+        // Chunks that were never cached are not reported as changed
+        cache.putArea(Lists.newArrayList(ChunkArea.of("main", 30, 20, 31, 21)), "test", MockDatabase.VINCENT_USER, null);
+        assertThat(recorder.changed.isEmpty(), is(true));
+
+        List<ChunkPosition> chunks = new ArrayList<>();
+        ChunkArea.of("main", 10, 20, 11, 21).forEach(chunks::add);
+        cache.queueChunks(chunks, executor).get(5, TimeUnit.SECONDS);
+        cache.putArea(Lists.newArrayList(ChunkArea.of("main", 10, 20, 11, 21)), "test", MockDatabase.VINCENT_USER, null);
+        assertThat(recorder.changed.poll(5, TimeUnit.SECONDS).getChunks().size(), is(4));
+        assertThat(cache.getIfPresent(ChunkPosition.of("main", 11, 21)).getClaim().getOwner(), equalTo(MockDatabase.VINCENT_USER));
+
+        cache.putAreaAsUnclaimed(Lists.newArrayList(ChunkArea.of("main", 10, 20, 10, 21)));
+        assertThat(recorder.changed.poll(5, TimeUnit.SECONDS).getChunks().size(), is(2));
+        assertThat(cache.getIfPresent(ChunkPosition.of("main", 10, 21)).getClaim(), nullValue());
+        assertThat(cache.getIfPresent(ChunkPosition.of("main", 11, 20)).getClaim().getOwner(), equalTo(MockDatabase.VINCENT_USER));
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        ClaimCacheConfig config = new ClaimCacheConfig();
+        config.setMaxChunks(1500);
+        config.setEvictionInterval(TimeUnit.HOURS.toMillis(1));
+        ClaimCache bounded = new ClaimCache(claims, new PartyCache(new MemoryPartyManager(), eventBus), eventBus, config);
+        bounded.updatePlayerChunks(Lists.newArrayList(ChunkPosition.of("main", 10, 20)));
+
+        // Two full regions, the first of which has the player in it
+        bounded.putAreaAsUnclaimed(Lists.newArrayList(ChunkArea.of("main", 0, 0, 31, 31), ChunkArea.of("main", 320, 0, 351, 31)));
+        assertThat(bounded.getResidentCounts().get("main"), is(2048));
+
+        assertThat(bounded.evict(), is(1024));
+        assertThat(bounded.getIfPresent(ChunkPosition.of("main", 320, 0)), nullValue());
+        assertThat(bounded.getIfPresent(ChunkPosition.of("main", 10, 20)), notNullValue());
+        assertThat(bounded.getResidentCounts().get("main"), is(1024));
+        assertThat(bounded.getEvictedRegionCount(), is(1L));
+    }
+
+    @Test
+    public void testEvictionKeepsRegionsNearPlayers() throws Exception {
+        ClaimCacheConfig config = new ClaimCacheConfig();
+        config.setMaxChunks(1000);
+        config.setEvictionInterval(TimeUnit.HOURS.toMillis(1));
+        ClaimCache bounded = new ClaimCache(claims, new PartyCache(new MemoryPartyManager(), eventBus), eventBus, config);
+        bounded.updatePlayerChunks(Lists.newArrayList(ChunkPosition.of("main", 30, 20)));
+
+        // The player can see into the second region
+        bounded.putAreaAsUnclaimed(Lists.newArrayList(ChunkArea.of("main", 0, 0, 63, 31)));
+        assertThat(bounded.evict(), is(0));
+        assertThat(bounded.getIfPresent(ChunkPosition.of("main", 63, 31)), notNullValue());
+
+        bounded.putAreaAsUnclaimed(Lists.newArrayList(ChunkArea.of("main", 320, 0, 351, 31)));
+        assertThat(bounded.evict(), is(1024));
+        assertThat(bounded.getIfPresent(ChunkPosition.of("main", 320, 0)), nullValue());
+        assertThat(bounded.getResidentCounts().get("main"), is(2048));
+    }
+
+    @Test
+    public void testEvictionWithCompactStates() throws Exception {
+        ClaimCacheConfig config = new ClaimCacheConfig();
+        config.setCompactStates(true);
+        config.setMaxChunks(3000);
+        config.setEvictionInterval(TimeUnit.HOURS.toMillis(1));
+        ClaimCache bounded = new ClaimCache(claims, new PartyCache(new MemoryPartyManager(), eventBus), eventBus, config);
+
+        bounded.putAreaAsUnclaimed(Lists.newArrayList(ChunkArea.of("main", 0, 0, 31, 31), ChunkArea.of("main", 320, 0, 351, 31)));
+        assertThat(bounded.evict(), is(0));
+        Thread.sleep(1100); // Let the eviction clock advance
+        assertThat(bounded.evict(), is(0));
+
+        // Reading a chunk of the first region makes it the more recently used
+        assertThat(bounded.getIfPresent(ChunkPosition.of("main", 10, 20)), notNullValue());
+        bounded.putAreaAsUnclaimed(Lists.newArrayList(ChunkArea.of("main", 640, 0, 671, 31)));
+        assertThat(bounded.evict(), is(1024));
+        assertThat(bounded.getIfPresent(ChunkPosition.of("main", 320, 0)), nullValue());
+        assertThat(bounded.getIfPresent(ChunkPosition.of("main", 10, 20)), notNullValue());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRegionPrefetchRequiresLimit() throws Exception {
+        ClaimCacheConfig config = new ClaimCacheConfig();
+        config.setRegionPrefetch(true);
+        new ClaimCache(claims, new PartyCache(new MemoryPartyManager(), eventBus), eventBus, config);
+    }
+
+    @Test
+    public void testPreload() throws Exception {
+        ClaimCacheConfig config = new ClaimCacheConfig();
+        config.setPreload(true);
+        ClaimCache preloaded = new ClaimCache(claims, new PartyCache(new MemoryPartyManager(), eventBus), eventBus, config);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!preloaded.getPreloadProgress().isComplete() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertThat(preloaded.getIfPresent(ChunkPosition.of("main", 10, 20)).getClaim().getOwner(), equalTo(MockDatabase.SK_USER));
+        ClaimEntry unclaimed = preloaded.getIfPresent(ChunkPosition.of("main", 11, 20));
+        assertThat(unclaimed.getClaim(), nullValue());
+        assertThat(unclaimed.isLoaded(), is(true));
+        assertThat(preloaded.getIfPresent(ChunkPosition.of("main", 12, 20)), sameInstance(unclaimed));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPreloadRejectsPresenceIndex() throws Exception {
+        ClaimCacheConfig config = new ClaimCacheConfig();
+        config.setPreload(true);
+        config.setPresenceIndex(true);
+        new ClaimCache(claims, new PartyCache(new MemoryPartyManager(), eventBus), eventBus, config);
+    }
+
+    @Test
+    public void testStats() throws Exception {
+        ChunkPosition chunk = ChunkPosition.of("main", 10, 20);
+        assertThat(cache.getIfPresent(chunk), nullValue());
+        cache.queueChunk(chunk, executor).get(5, TimeUnit.SECONDS);
+        assertThat(cache.getIfPresent(chunk), notNullValue());
+
+        ClaimCacheStats stats = cache.getStats();
+        assertThat(stats.getHitCount(), is(1L));
+        assertThat(stats.getMissCount(), is(1L));
+        assertThat(stats.getLoadLatency().getCount(), is(1L));
+        assertThat(stats.getBatchLatency().getCount(), is(1L));
+        assertThat(stats.getFailedBatchCount(), is(0L));
+    }
+
+    @Test
+    public void testQueueChunks() throws Exception {
+        List<ClaimEntry> entries = cache.queueChunks(Lists.newArrayList(ChunkPosition.of("main", 10, 20), ChunkPosition.of("main", 11, 20)), executor)
+                .get(5, TimeUnit.SECONDS);
+        assertThat(entries.size(), is(2));
+        assertThat(entries.get(0).getClaim(), notNullValue());
+        assertThat(entries.get(1).getClaim(), nullValue());
+        assertThat(entries.get(1).isLoaded(), is(true));
+    }
+
+    @Test
+    public void testClaimRequestReadsThroughCache() throws Exception {
+        ChunkPosition cached = ChunkPosition.of("main", 10, 20);
+        ChunkPosition missed = ChunkPosition.of("main", 12, 20);
+        cache.queueChunk(cached, executor).get(5, TimeUnit.SECONDS);
+        int queryCount = claims.getQueryCount();
+
+        ClaimRequest request = new ClaimRequest(cache, MockDatabase.SK_USER, null, executor);
+        request.addChunks(Lists.newArrayList(cached, missed));
+        assertThat(request.getCacheHitCount(), is(1));
+        assertThat(claims.getQueryCount(), is(queryCount + 1));
+        assertThat(request.getAlreadyOwned().contains(cached.toVector()), is(true));
+        assertThat(request.getUnclaimed().contains(missed.toVector()), is(true));
+        assertThat(request.getCurrentTotalOwnedCount(), is(1));
+    }
+
+    @Test
+    public void testSnapshot() throws Exception {
+        ClaimCacheConfig config = new ClaimCacheConfig();
+        config.setSnapshotFile(new File(folder.getRoot(), "claims.snapshot"));
+        config.setServerId(MemoryClaimMap.SERVER);
+        ClaimCache first = new ClaimCache(claims, new PartyCache(new MemoryPartyManager(), eventBus), eventBus, config);
+        first.queueChunk(ChunkPosition.of("main", 10, 20), executor).get(5, TimeUnit.SECONDS);
+        first.saveSnapshot();
+
+        ClaimCache restarted = new ClaimCache(claims, new PartyCache(new MemoryPartyManager(), eventBus), eventBus, config);
+        ClaimEntry entry = restarted.getIfPresent(ChunkPosition.of("main", 10, 20));
+        assertThat(entry, notNullValue());
+        assertThat(entry.getClaim().getOwner(), equalTo(MockDatabase.SK_USER));
+        assertThat(restarted.getIfPresent(ChunkPosition.of("main", 11, 20)), nullValue());
+    }
+
+    @Test
+    public void testSnapshotOfOtherServerIsIgnored() throws Exception {
+        ClaimCacheConfig config = new ClaimCacheConfig();
+        config.setSnapshotFile(new File(folder.getRoot(), "claims.snapshot"));
+        config.setServerId("other");
+        ClaimCache first = new ClaimCache(claims, new PartyCache(new MemoryPartyManager(), eventBus), eventBus, config);
+        first.queueChunk(ChunkPosition.of("main", 10, 20), executor).get(5, TimeUnit.SECONDS);
+        first.saveSnapshot();
+
+        config.setServerId(MemoryClaimMap.SERVER);
+        ClaimCache restarted = new ClaimCache(claims, new PartyCache(new MemoryPartyManager(), eventBus), eventBus, config);
+        assertThat(restarted.getIfPresent(ChunkPosition.of("main", 10, 20)), nullValue());
+    }
+
+    @Test
+    public void testCompactStates() throws Exception {
+        ClaimCacheConfig config = new ClaimCacheConfig();
+        config.setCompactStates(true);
+        ClaimCache compact = new ClaimCache(claims, new PartyCache(new MemoryPartyManager(), eventBus), eventBus, config);
+        compact.queueChunk(ChunkPosition.of("main", 10, 20), executor).get(5, TimeUnit.SECONDS);
+        compact.queueChunk(ChunkPosition.of("main", 11, 20), executor).get(5, TimeUnit.SECONDS);
+
+        ClaimEntry entry = compact.getIfPresent(ChunkPosition.of("main", 10, 20));
+        assertThat(entry, notNullValue());
+        assertThat(entry.getClaim().getOwner(), equalTo(MockDatabase.SK_USER));
+        entry = compact.getIfPresent(ChunkPosition.of("main", 11, 20));
+        assertThat(entry, notNullValue());
+        assertThat(entry.getClaim(), nullValue());
+
+        compact.invalidateChunk(ChunkPosition.of("main", 10, 20));
+        assertThat(compact.getIfPresent(ChunkPosition.of("main", 10, 20)), nullValue());
+        compact.queueChunk(ChunkPosition.of("main", 10, 20), executor).get(5, TimeUnit.SECONDS);
+        assertThat(compact.getIfPresent(ChunkPosition.of("main", 10, 20)).getClaim().getOwner(), equalTo(MockDatabase.SK_USER));
+    }
+
+    @Test
+    public void testCompactStatesAreSeenWhileMoving() throws Exception {
+        ClaimCacheConfig config = new ClaimCacheConfig();
+        config.setCompactStates(true);
+        ClaimCache compact = new ClaimCache(claims, new PartyCache(new MemoryPartyManager(), eventBus), eventBus, config);
+        List<ChunkArea> area = Lists.newArrayList(ChunkArea.of("main", 0, 0, 15, 15));
+        compact.putAreaAsUnclaimed(area);
+
+        // States move from the compact store back into the table when they
+        // are refreshed or replaced, and back into the store once loaded
+        Thread mover = new Thread(() -> {
+            for (int i = 0; i < 200; i++) {
+                compact.refreshAll();
+                compact.putAreaAsUnclaimed(area);
+            }
+        });
+        mover.start();
+
+        int misses = 0;
+        while (mover.isAlive()) {
+            for (int x = 0; x <= 15; x++) {
+                for (int z = 0; z <= 15; z++) {
+                    if (compact.getIfPresent(ChunkPosition.of("main", x, z)) == null) {
+                        misses++;
+                    }
+                }
+            }
+        }
+        mover.join();
+
+        assertThat(misses, is(0));
+    }
+
+    public static class EventRecorder {
+        private final BlockingQueue<ClaimsLoadedEvent> loaded = new LinkedBlockingQueue<>();
+        private final BlockingQueue<ClaimsChangedEvent> changed = new LinkedBlockingQueue<>();
+
+        @Subscribe
+        public void onLoaded(ClaimsLoadedEvent event) {
+            loaded.add(event);
+        }
+
+        @Subscribe
+        public void onChanged(ClaimsChangedEvent event) {
+            changed.add(event);
+        }
+    }
+
+}
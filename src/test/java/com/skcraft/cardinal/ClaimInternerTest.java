@@ -0,0 +1,34 @@
+package com.skcraft.cardinal;
+
+import com.skcraft.cardinal.profile.MojangId;
+import com.skcraft.cardinal.service.claim.ClaimInterner;
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+public class ClaimInternerTest {
+
+    @Test
+    public void testOwners() throws Exception {
+        UUID uuid = UUID.randomUUID();
+        MojangId first = ClaimInterner.owner(uuid, "alice");
+        assertThat(ClaimInterner.owner(uuid, "alice"), sameInstance(first));
+        assertThat(ClaimInterner.intern(new MojangId(uuid, "alice")), sameInstance(first));
+
+        MojangId renamed = ClaimInterner.owner(uuid, "alicia");
+        assertThat(renamed, not(sameInstance(first)));
+        assertThat(renamed.getName(), equalTo("alicia"));
+        assertThat(ClaimInterner.owner(uuid, "alicia"), sameInstance(renamed));
+    }
+
+    @Test
+    public void testNames() throws Exception {
+        String name = ClaimInterner.name(new String("friends"));
+        assertThat(ClaimInterner.name(new String("friends")), sameInstance(name));
+        assertThat(ClaimInterner.name(null), nullValue());
+    }
+
+}
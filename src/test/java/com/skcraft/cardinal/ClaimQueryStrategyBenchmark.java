@@ -0,0 +1,122 @@
+package com.skcraft.cardinal;
+
+import com.google.common.collect.Lists;
+import com.skcraft.cardinal.profile.DatabaseMojangIdMapping;
+import com.skcraft.cardinal.profile.MojangIdMapping;
+import com.skcraft.cardinal.service.claim.DatabaseClaimMap;
+import com.skcraft.cardinal.service.claim.query.AdaptiveQueryStrategy;
+import com.skcraft.cardinal.service.claim.query.BoundingBoxQueryStrategy;
+import com.skcraft.cardinal.service.claim.query.ClaimQueryStrategy;
+import com.skcraft.cardinal.service.claim.query.DerivedTableQueryStrategy;
+import com.skcraft.cardinal.service.claim.query.PointQueryStrategy;
+import com.skcraft.cardinal.service.claim.query.TupleQueryStrategy;
+import com.skcraft.cardinal.util.ChunkPosition;
+import com.skcraft.cardinal.util.WorldVector3i;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Compares the claim query strategies on a large synthetic set of claims.
+ *
+ * <p>Requires the MySQL database used by {@link MockDatabase}. Not run as
+ * part of the test suite.</p>
+ */
+public class ClaimQueryStrategyBenchmark {
+
+    private static final String SERVER = "benchmark";
+    private static final int WORLD_RADIUS = 2000; // Chunks
+    private static final int CLAIM_COUNT = 500000;
+    private static final int INSERT_BATCH = 1000;
+    private static final int ROUNDS = 50;
+
+    public static void main(String[] args) throws Exception {
+        MockDatabase db = MockDatabase.getInstance();
+        db.loadData();
+        DataSource ds = db.createDataSource();
+        MojangIdMapping idMapping = new DatabaseMojangIdMapping(ds);
+        DatabaseClaimMap claims = new DatabaseClaimMap(ds, idMapping, SERVER);
+        Random random = new Random(1);
+
+        System.out.println("Inserting " + CLAIM_COUNT + " claims...");
+        List<WorldVector3i> batch = new ArrayList<>();
+        for (int i = 0; i < CLAIM_COUNT; i++) {
+            batch.add(new WorldVector3i(random.nextBoolean() ? "main" : "second", randomCoordinate(random), 0, randomCoordinate(random)));
+            if (batch.size() == INSERT_BATCH) {
+                claims.save(batch, MockDatabase.SK_USER, null);
+                batch.clear();
+            }
+        }
+
+        Map<String, List<List<ChunkPosition>>> shapes = new LinkedHashMap<>();
+        shapes.put("tiny (3 chunks)", generate(random, () -> randomChunks(random, 3)));
+        shapes.put("dense (20x20 square)", generate(random, () -> square(random, 20)));
+        shapes.put("sparse (300 random chunks)", generate(random, () -> randomChunks(random, 300)));
+        shapes.put("mixed (10x10 square + 100 random)", generate(random, () -> {
+            List<ChunkPosition> positions = square(random, 10);
+            positions.addAll(randomChunks(random, 100));
+            return positions;
+        }));
+
+        Map<String, ClaimQueryStrategy> strategies = new LinkedHashMap<>();
+        strategies.put("tuple IN (old)", new TupleQueryStrategy());
+        strategies.put("point lookups", new PointQueryStrategy());
+        strategies.put("bounding box", new BoundingBoxQueryStrategy());
+        strategies.put("derived table", new DerivedTableQueryStrategy());
+        strategies.put("adaptive", new AdaptiveQueryStrategy());
+
+        for (Map.Entry<String, List<List<ChunkPosition>>> shape : shapes.entrySet()) {
+            System.out.println(shape.getKey() + ":");
+            for (Map.Entry<String, ClaimQueryStrategy> strategy : strategies.entrySet()) {
+                claims.setQueryStrategy(strategy.getValue());
+                for (List<ChunkPosition> positions : shape.getValue().subList(0, 5)) { // Warm up
+                    claims.getAllChunks(positions);
+                }
+                long start = System.nanoTime();
+                for (List<ChunkPosition> positions : shape.getValue()) {
+                    claims.getAllChunks(positions);
+                }
+                double average = (System.nanoTime() - start) / 1e6 / shape.getValue().size();
+                System.out.println(String.format("  %-16s %8.2f ms/query", strategy.getKey(), average));
+            }
+        }
+    }
+
+    private static List<List<ChunkPosition>> generate(Random random, Supplier<List<ChunkPosition>> supplier) {
+        List<List<ChunkPosition>> queries = new ArrayList<>();
+        for (int i = 0; i < ROUNDS; i++) {
+            queries.add(supplier.get());
+        }
+        return queries;
+    }
+
+    private static int randomCoordinate(Random random) {
+        return random.nextInt(WORLD_RADIUS * 2) - WORLD_RADIUS;
+    }
+
+    private static List<ChunkPosition> randomChunks(Random random, int count) {
+        List<ChunkPosition> positions = Lists.newArrayList();
+        for (int i = 0; i < count; i++) {
+            positions.add(ChunkPosition.of(random.nextBoolean() ? "main" : "second", randomCoordinate(random), randomCoordinate(random)));
+        }
+        return positions;
+    }
+
+    private static List<ChunkPosition> square(Random random, int size) {
+        int originX = randomCoordinate(random);
+        int originZ = randomCoordinate(random);
+        List<ChunkPosition> positions = Lists.newArrayList();
+        for (int x = 0; x < size; x++) {
+            for (int z = 0; z < size; z++) {
+                positions.add(ChunkPosition.of("main", originX + x, originZ + z));
+            }
+        }
+        return positions;
+    }
+
+}
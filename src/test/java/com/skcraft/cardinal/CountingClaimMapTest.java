@@ -0,0 +1,140 @@
+package com.skcraft.cardinal;
+
+import com.google.common.collect.Lists;
+import com.skcraft.cardinal.profile.MojangId;
+import com.skcraft.cardinal.service.claim.CountingClaimMap;
+import com.skcraft.cardinal.util.ChunkArea;
+import com.skcraft.cardinal.util.WorldVector3i;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+public class CountingClaimMapTest {
+
+    private MemoryClaimMap backing;
+    private CountingClaimMap claims;
+
+    @Before
+    public void setUp() throws Exception {
+        backing = new MemoryClaimMap();
+        backing.save(Lists.newArrayList(new WorldVector3i("main", 0, 0, 0)), MockDatabase.SK_USER, null);
+        claims = new CountingClaimMap(backing, TimeUnit.HOURS.toMillis(1));
+    }
+
+    @Test
+    public void testCountsAreAdjusted() throws Exception {
+        assertThat(claims.getCountByOwner(MockDatabase.SK_USER), is(1));
+        assertThat(claims.getCountByOwner(MockDatabase.VINCENT_USER), is(0));
+
+        claims.save(Lists.newArrayList(new WorldVector3i("main", 1, 0, 0), new WorldVector3i("main", 2, 0, 0)), MockDatabase.SK_USER, null);
+        assertThat(claims.getCountByOwner(MockDatabase.SK_USER), is(3));
+
+        claims.save(Lists.newArrayList(new WorldVector3i("main", 0, 0, 0)), MockDatabase.VINCENT_USER, null);
+        assertThat(claims.getCountByOwner(MockDatabase.SK_USER), is(2));
+        assertThat(claims.getCountByOwner(MockDatabase.VINCENT_USER), is(1));
+
+        claims.remove(Lists.newArrayList(new WorldVector3i("main", 1, 0, 0), new WorldVector3i("main", 5, 0, 0)));
+        assertThat(claims.getCountByOwner(MockDatabase.SK_USER), is(1));
+        assertThat(claims.getCountByOwner(MockDatabase.SK_USER), is(backing.getCountByOwner(MockDatabase.SK_USER)));
+
+        claims.update(Lists.newArrayList(new WorldVector3i("main", 0, 0, 0), new WorldVector3i("main", 7, 0, 0)), MockDatabase.SK_USER, null, null);
+        assertThat(claims.getCountByOwner(MockDatabase.SK_USER), is(2));
+        assertThat(claims.getCountByOwner(MockDatabase.VINCENT_USER), is(1));
+    }
+
+    @Test
+    public void testAreas() throws Exception {
+        assertThat(claims.getCountByOwner(MockDatabase.SK_USER), is(1));
+
+        // Overlapping areas covering 4 x 4 + 2 chunks, including the existing claim
+        claims.saveArea(Lists.newArrayList(ChunkArea.of("main", 3, 3, 0, 0), ChunkArea.of("main", 3, 0, 4, 1)), MockDatabase.VINCENT_USER, null);
+        assertThat(claims.getCountByOwner(MockDatabase.SK_USER), is(0));
+        assertThat(claims.getCountByOwner(MockDatabase.VINCENT_USER), is(18));
+        assertThat(claims.get(new WorldVector3i("main", 4, 0, 1)).getOwner(), equalTo(MockDatabase.VINCENT_USER));
+
+        assertThat(claims.removeArea(Lists.newArrayList(ChunkArea.of("main", 0, 0, 1, 1))), is(4));
+        assertThat(claims.getCountByOwner(MockDatabase.VINCENT_USER), is(14));
+        assertThat(claims.get(new WorldVector3i("main", 0, 0, 0)), nullValue());
+    }
+
+    @Test
+    public void testCountsAreCached() throws Exception {
+        assertThat(claims.getCountByOwner(MockDatabase.SK_USER), is(1));
+
+        backing.save(Lists.newArrayList(new WorldVector3i("main", 1, 0, 0)), MockDatabase.SK_USER, null);
+        assertThat(claims.getCountByOwner(MockDatabase.SK_USER), is(1));
+
+        claims.invalidateCount(MockDatabase.SK_USER);
+        assertThat(claims.getCountByOwner(MockDatabase.SK_USER), is(2));
+    }
+
+    @Test
+    public void testWritesDoNotRead() throws Exception {
+        assertThat(claims.getCountByOwner(MockDatabase.SK_USER), is(1));
+        int queries = backing.getQueryCount();
+
+        claims.save(Lists.newArrayList(new WorldVector3i("main", 1, 0, 0), new WorldVector3i("main", 1, 0, 0)), MockDatabase.SK_USER, null);
+        claims.remove(Lists.newArrayList(new WorldVector3i("main", 0, 0, 0)));
+        assertThat(backing.getQueryCount(), is(queries));
+        assertThat(claims.getCountByOwner(MockDatabase.SK_USER), is(1));
+    }
+
+    @Test
+    public void testOtherCountsAreKept() throws Exception {
+        assertThat(claims.getCountByOwner(MockDatabase.SK_USER), is(1));
+        assertThat(claims.getCountByOwner(MockDatabase.VINCENT_USER), is(0));
+        backing.save(Lists.newArrayList(new WorldVector3i("main", 9, 0, 0)), MockDatabase.VINCENT_USER, null); // Made elsewhere
+
+        claims.save(Lists.newArrayList(new WorldVector3i("main", 0, 0, 0), new WorldVector3i("main", 1, 0, 0)), MockDatabase.SK_USER, null);
+        claims.remove(Lists.newArrayList(new WorldVector3i("main", 1, 0, 0)));
+        claims.removeArea(Lists.newArrayList(ChunkArea.of("main", 0, 0, 0, 0)));
+        assertThat(claims.getCountByOwner(MockDatabase.SK_USER), is(0));
+        assertThat(claims.getCountByOwner(MockDatabase.VINCENT_USER), is(0)); // Not reloaded
+    }
+
+    @Test
+    public void testAdjustmentsDuringReloadAreKept() throws Exception {
+        CountDownLatch counted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        MemoryClaimMap slow = new MemoryClaimMap() {
+            private int calls;
+
+            @Override
+            public int getCountByOwner(MojangId owner) {
+                int count = super.getCountByOwner(owner);
+                if (++calls == 2) { // The reload
+                    counted.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                return count;
+            }
+        };
+        CountingClaimMap claims = new CountingClaimMap(slow, 1);
+
+        assertThat(claims.getCountByOwner(MockDatabase.SK_USER), is(0));
+        slow.save(Lists.newArrayList(new WorldVector3i("main", 0, 0, 0)), MockDatabase.SK_USER, null); // Made elsewhere
+        Thread.sleep(10);
+        assertThat(claims.getCountByOwner(MockDatabase.SK_USER), is(0)); // Starts the reload
+        counted.await();
+
+        claims.save(Lists.newArrayList(new WorldVector3i("main", 1, 0, 0)), MockDatabase.SK_USER, null);
+        release.countDown();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (claims.getCountByOwner(MockDatabase.SK_USER) != 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(claims.getCountByOwner(MockDatabase.SK_USER), is(2));
+        assertThat(claims.getDriftCount(), is(1L));
+    }
+
+}
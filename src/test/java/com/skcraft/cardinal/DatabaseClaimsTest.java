@@ -5,6 +5,14 @@ import com.skcraft.cardinal.profile.DatabaseMojangIdMapping;
 import com.skcraft.cardinal.profile.MojangIdMapping;
 import com.skcraft.cardinal.service.claim.Claim;
 import com.skcraft.cardinal.service.claim.DatabaseClaimMap;
+import com.skcraft.cardinal.service.claim.query.AdaptiveQueryStrategy;
+import com.skcraft.cardinal.service.claim.query.BoundingBoxQueryStrategy;
+import com.skcraft.cardinal.service.claim.query.ClaimQueryStrategy;
+import com.skcraft.cardinal.service.claim.query.DerivedTableQueryStrategy;
+import com.skcraft.cardinal.service.claim.query.PointQueryStrategy;
+import com.skcraft.cardinal.service.claim.query.TupleQueryStrategy;
+import com.skcraft.cardinal.util.ChunkArea;
+import com.skcraft.cardinal.util.ChunkPosition;
 import com.skcraft.cardinal.util.WorldVector3i;
 import org.junit.Before;
 import org.junit.Test;
@@ -12,6 +20,8 @@ import uk.co.it.modular.hamcrest.date.DateMatchers;
 
 import javax.sql.DataSource;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import static org.hamcrest.CoreMatchers.*;
 import static org.hamcrest.Matchers.containsInAnyOrder;
@@ -116,6 +126,62 @@ public class DatabaseClaimsTest {
         assertThat(claim.getIssueTime(), DateMatchers.sameInstant(MockDatabase.parseDate("2005-01-02 02:04:06")));
     }
 
+    @Test
+    public void testFindClaimsInArea() throws Exception {
+        DatabaseClaimMap claims = createClaims(MockDatabase.MOCK_SERVER);
+        Map<ChunkPosition, Claim> found;
+
+        found = claims.getAllInArea("main", 0, -31, 31, 0);
+        assertThat(found.keySet(), containsInAnyOrder(ChunkPosition.of(SK_OWNED), ChunkPosition.of(VINCENT_OWNED)));
+        assertThat(found.get(ChunkPosition.of(SK_OWNED)).getOwner(), equalTo(MockDatabase.SK_USER));
+
+        found = claims.getAllInArea("main", 21, -30, 60, -30);
+        assertThat(found.keySet(), containsInAnyOrder(ChunkPosition.of(VINCENT_OWNED)));
+
+        found = claims.getAllInArea("main", 22, -30, 60, -30);
+        assertThat(found.isEmpty(), is(true));
+    }
+
+    @Test
+    public void testQueryStrategies() throws Exception {
+        List<ClaimQueryStrategy> strategies = Lists.newArrayList(new TupleQueryStrategy(), new PointQueryStrategy(),
+                new BoundingBoxQueryStrategy(), new DerivedTableQueryStrategy(), new AdaptiveQueryStrategy());
+
+        for (ClaimQueryStrategy strategy : strategies) {
+            DatabaseClaimMap claims = createClaims(MockDatabase.MOCK_SERVER);
+            claims.setQueryStrategy(strategy);
+
+            Map<WorldVector3i, Claim> found = claims.getAll(Lists.newArrayList(SK_OWNED, SK_OWNED2, VINCENT_OWNED, UNOWNED));
+            assertThat(found.keySet(), containsInAnyOrder(SK_OWNED, SK_OWNED2, VINCENT_OWNED));
+            assertThat(found.get(VINCENT_OWNED).getOwner(), equalTo(MockDatabase.VINCENT_USER));
+
+            assertThat(claims.remove(Lists.newArrayList(SK_OWNED, UNOWNED)), is(1));
+            assertThat(claims.get(SK_OWNED), nullValue());
+            assertThat(claims.get(VINCENT_OWNED), notNullValue());
+        }
+    }
+
+    @Test
+    public void testScanClaims() throws Exception {
+        DatabaseClaimMap claims = createClaims(MockDatabase.MOCK_SERVER);
+        List<Claim> scanned = Lists.newArrayList();
+        List<ChunkPosition> chunks = Lists.newArrayList();
+
+        claims.scanClaims(scanned::add);
+        claims.scanClaimedChunks(chunks::add);
+
+        assertThat(scanned, containsInAnyOrder(
+                new Claim(MockDatabase.MOCK_SERVER, SK_OWNED),
+                new Claim(MockDatabase.MOCK_SERVER, SK_OWNED2),
+                new Claim(MockDatabase.MOCK_SERVER, VINCENT_OWNED),
+                new Claim(MockDatabase.MOCK_SERVER, VINCENT_OWNED2)));
+        assertThat(chunks, containsInAnyOrder(
+                ChunkPosition.of(SK_OWNED),
+                ChunkPosition.of(SK_OWNED2),
+                ChunkPosition.of(VINCENT_OWNED),
+                ChunkPosition.of(VINCENT_OWNED2)));
+    }
+
     @Test
     public void testGetClaimCount() throws Exception {
         DatabaseClaimMap claims = createClaims(MockDatabase.MOCK_SERVER);
@@ -165,7 +231,8 @@ public class DatabaseClaimsTest {
         DatabaseClaimMap claims = createClaims(MockDatabase.MOCK_SERVER);
         Claim claim;
 
-        claims.update(Lists.newArrayList(SK_OWNED, VINCENT_OWNED, UNOWNED), MockDatabase.VINCENT_USER, "guests", MockDatabase.VINCENT_USER);
+        Set<WorldVector3i> changed = claims.update(Lists.newArrayList(SK_OWNED, VINCENT_OWNED, UNOWNED), MockDatabase.VINCENT_USER, "guests", MockDatabase.VINCENT_USER);
+        assertThat(changed, containsInAnyOrder(VINCENT_OWNED, UNOWNED));
 
         verifySKOwned(claims);
 
@@ -197,7 +264,8 @@ public class DatabaseClaimsTest {
         DatabaseClaimMap claims = createClaims(MockDatabase.MOCK_SERVER);
         Claim claim;
 
-        claims.update(Lists.newArrayList(SK_OWNED, VINCENT_OWNED, UNOWNED), MockDatabase.VINCENT_USER, "guests", null);
+        Set<WorldVector3i> changed = claims.update(Lists.newArrayList(SK_OWNED, VINCENT_OWNED, UNOWNED), MockDatabase.VINCENT_USER, "guests", null);
+        assertThat(changed, containsInAnyOrder(UNOWNED));
 
         verifySKOwned(claims);
         verifyVincentOwned(claims);
@@ -214,4 +282,92 @@ public class DatabaseClaimsTest {
         assertThat(claim.getPosition().getZ(), is(UNOWNED.getZ()));
     }
 
+    @Test
+    public void testSaveClaim_OverwrittenCount() throws Exception {
+        DatabaseClaimMap claims = createClaims(MockDatabase.MOCK_SERVER);
+
+        // Three chunks are sent as a padded batch of four rows
+        assertThat(claims.save(Lists.newArrayList(
+                new WorldVector3i("third", 0, 0, 0),
+                new WorldVector3i("third", 1, 0, 0),
+                new WorldVector3i("third", 2, 0, 0)), MockDatabase.SK_USER, null), is(0));
+
+        List<Claim> replaced = Lists.newArrayList();
+        assertThat(claims.save(Lists.newArrayList(SK_OWNED, VINCENT_OWNED, UNOWNED), MockDatabase.SK_USER, null, replaced::add), is(2));
+        assertThat(replaced, containsInAnyOrder(
+                new Claim(MockDatabase.MOCK_SERVER, SK_OWNED),
+                new Claim(MockDatabase.MOCK_SERVER, VINCENT_OWNED)));
+        assertThat(claims.getCountByOwner(MockDatabase.SK_USER), is(2 + 3 + 2));
+    }
+
+    @Test
+    public void testRemoveClaim_Reported() throws Exception {
+        DatabaseClaimMap claims = createClaims(MockDatabase.MOCK_SERVER);
+
+        List<Claim> removed = Lists.newArrayList();
+        assertThat(claims.remove(Lists.newArrayList(SK_OWNED, VINCENT_OWNED2, UNOWNED), removed::add), is(2));
+        assertThat(removed.size(), is(2));
+        for (Claim claim : removed) {
+            if (claim.getPosition().equals(SK_OWNED)) {
+                assertThat(claim.getOwner(), equalTo(MockDatabase.SK_USER));
+            } else {
+                assertThat(claim.getPosition(), equalTo(VINCENT_OWNED2));
+                assertThat(claim.getOwner(), equalTo(MockDatabase.VINCENT_USER));
+            }
+        }
+
+        removed.clear();
+        assertThat(claims.removeArea(Lists.newArrayList(ChunkArea.of("main", 0, -31, 30, 0), ChunkArea.of("main", 21, -30, 21, -30)), removed::add), is(1));
+        assertThat(removed, containsInAnyOrder(new Claim(MockDatabase.MOCK_SERVER, VINCENT_OWNED)));
+    }
+
+    @Test
+    public void testSaveArea() throws Exception {
+        DatabaseClaimMap claims = createClaims(MockDatabase.MOCK_SERVER);
+
+        // Overlapping areas covering 3 x 3 + 1 chunks, including both claims in "main"
+        claims.saveArea(Lists.newArrayList(ChunkArea.of("main", 19, -31, 21, -29), ChunkArea.of("main", 21, -29, 22, -29)), MockDatabase.VINCENT_USER, "guests");
+
+        Map<ChunkPosition, Claim> found = claims.getAllInArea("main", 0, -100, 100, 0);
+        assertThat(found.size(), is(10));
+        for (Claim claim : found.values()) {
+            assertThat(claim.getServer(), equalTo(MockDatabase.MOCK_SERVER));
+            assertThat(claim.getOwner(), equalTo(MockDatabase.VINCENT_USER));
+            assertThat(claim.getParty(), equalTo("guests"));
+        }
+        assertThat(found.keySet(), hasItem(ChunkPosition.of("main", 22, -29)));
+
+        verifySKOwned2(claims);
+        verifyVincentOwned2(claims);
+        assertThat(claims.getCountByOwner(MockDatabase.SK_USER), is(1));
+        assertThat(claims.getCountByOwner(MockDatabase.VINCENT_USER), is(11));
+    }
+
+    @Test
+    public void testSaveArea_Large() throws Exception {
+        DatabaseClaimMap claims = createClaims(MockDatabase.MOCK_SERVER);
+
+        // Longer than the side of an area that is generated at once
+        claims.saveArea(Lists.newArrayList(ChunkArea.of("third", -500, 7, 1500, 8)), MockDatabase.SK_USER, null);
+
+        assertThat(claims.getCountByOwner(MockDatabase.SK_USER), is(2 + 2001 * 2));
+        assertThat(claims.get(new WorldVector3i("third", -500, 0, 7)), notNullValue());
+        assertThat(claims.get(new WorldVector3i("third", 1500, 0, 8)), notNullValue());
+        assertThat(claims.get(new WorldVector3i("third", 1501, 0, 8)), nullValue());
+        assertThat(claims.get(new WorldVector3i("third", 0, 0, 9)), nullValue());
+    }
+
+    @Test
+    public void testRemoveArea() throws Exception {
+        DatabaseClaimMap claims = createClaims(MockDatabase.MOCK_SERVER);
+
+        assertThat(claims.removeArea(Lists.newArrayList(ChunkArea.of("main", 0, -31, 20, 0), ChunkArea.of("main", 20, -30, 40, -30))), is(2));
+        assertThat(claims.get(SK_OWNED), nullValue());
+        assertThat(claims.get(VINCENT_OWNED), nullValue());
+        verifySKOwned2(claims);
+        verifyVincentOwned2(claims);
+
+        assertThat(claims.removeArea(Lists.newArrayList(ChunkArea.of("main", 0, -31, 31, 0))), is(0));
+    }
+
 }
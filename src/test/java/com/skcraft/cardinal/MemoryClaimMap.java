@@ -0,0 +1,126 @@
+package com.skcraft.cardinal;
+
+import com.skcraft.cardinal.profile.MojangId;
+import com.skcraft.cardinal.service.claim.Claim;
+import com.skcraft.cardinal.service.claim.ClaimMap;
+import com.skcraft.cardinal.util.WorldVector3i;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * A {@link ClaimMap} backed by a map in memory, for tests that don't need
+ * a database.
+ */
+public class MemoryClaimMap implements ClaimMap {
+
+    public static final String SERVER = "test";
+
+    private final Map<WorldVector3i, Claim> claims = new ConcurrentHashMap<>();
+    private final AtomicInteger queryCount = new AtomicInteger();
+
+    public int getQueryCount() {
+        return queryCount.get();
+    }
+
+    @Override
+    public Claim get(WorldVector3i position) {
+        queryCount.incrementAndGet();
+        return claims.get(position);
+    }
+
+    @Override
+    public Map<WorldVector3i, Claim> getAll(Collection<WorldVector3i> positions) {
+        queryCount.incrementAndGet();
+        Map<WorldVector3i, Claim> results = new HashMap<>();
+        for (WorldVector3i position : positions) {
+            Claim claim = claims.get(position);
+            if (claim != null) {
+                results.put(position, claim);
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public int save(Collection<WorldVector3i> positions, MojangId owner, String party) {
+        return save(positions, owner, party, claim -> {});
+    }
+
+    @Override
+    public int save(Collection<WorldVector3i> positions, MojangId owner, String party, Consumer<? super Claim> replaced) {
+        int count = 0;
+        for (WorldVector3i position : new LinkedHashSet<>(positions)) {
+            Claim claim = new Claim(SERVER, position);
+            claim.setOwner(owner);
+            claim.setParty(party);
+            Claim previous = claims.put(position, claim);
+            if (previous != null) {
+                replaced.accept(previous);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public Set<WorldVector3i> update(Collection<WorldVector3i> positions, MojangId owner, String party, MojangId existingOwner) {
+        Set<WorldVector3i> changed = new HashSet<>();
+        for (WorldVector3i position : positions) {
+            Claim claim = claims.get(position);
+            if (claim == null) {
+                claim = new Claim(SERVER, position);
+                claims.put(position, claim);
+            } else if (existingOwner == null || !existingOwner.equals(claim.getOwner())) {
+                continue;
+            }
+            claim.setOwner(owner);
+            claim.setParty(party);
+            changed.add(position);
+        }
+        return changed;
+    }
+
+    @Override
+    public int remove(Collection<WorldVector3i> positions) {
+        return remove(positions, claim -> {});
+    }
+
+    @Override
+    public int remove(Collection<WorldVector3i> positions, Consumer<? super Claim> removed) {
+        int count = 0;
+        for (WorldVector3i position : positions) {
+            Claim previous = claims.remove(position);
+            if (previous != null) {
+                removed.accept(previous);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void scanClaims(Consumer<Claim> consumer) {
+        queryCount.incrementAndGet();
+        claims.values().forEach(consumer);
+    }
+
+    @Override
+    public int getCountByOwner(MojangId owner) {
+        int count = 0;
+        for (Claim claim : claims.values()) {
+            if (owner.equals(claim.getOwner())) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+}
@@ -0,0 +1,58 @@
+package com.skcraft.cardinal;
+
+import com.skcraft.cardinal.profile.MojangId;
+import com.skcraft.cardinal.service.party.Member;
+import com.skcraft.cardinal.service.party.Party;
+import com.skcraft.cardinal.service.party.PartyExistsException;
+import com.skcraft.cardinal.service.party.PartyManager;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A {@link PartyManager} backed by a map in memory, for tests that don't
+ * need a database.
+ */
+public class MemoryPartyManager implements PartyManager {
+
+    private final Map<String, Party> parties = new ConcurrentHashMap<>();
+
+    @Override
+    public Map<String, Party> getAll(Collection<String> names) {
+        Map<String, Party> results = new HashMap<>();
+        for (String name : names) {
+            Party party = parties.get(name.toLowerCase());
+            if (party != null) {
+                results.put(name.toLowerCase(), party);
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public Set<String> refreshAll(Collection<Party> parties) {
+        return Collections.emptySet();
+    }
+
+    @Override
+    public void create(Party party) throws PartyExistsException {
+        if (parties.putIfAbsent(party.getName().toLowerCase(), party) != null) {
+            throw new PartyExistsException("The party " + party.getName() + " already exists");
+        }
+    }
+
+    @Override
+    public void addMembers(String party, Set<Member> members) {
+        parties.get(party.toLowerCase()).getMembers().addAll(members);
+    }
+
+    @Override
+    public void removeMembers(String party, Set<MojangId> members) {
+        parties.get(party.toLowerCase()).getMembers().removeIf(member -> members.contains(member.getUserId()));
+    }
+
+}
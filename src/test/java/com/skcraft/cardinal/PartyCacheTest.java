@@ -0,0 +1,106 @@
+package com.skcraft.cardinal;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.skcraft.cardinal.profile.MojangId;
+import com.skcraft.cardinal.service.party.Member;
+import com.skcraft.cardinal.service.party.Party;
+import com.skcraft.cardinal.service.party.PartyCache;
+import com.skcraft.cardinal.service.party.PartyManager;
+import com.skcraft.cardinal.util.event.MultimapEventBus;
+import org.junit.Test;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+public class PartyCacheTest {
+
+    @Test
+    public void testGetAll() throws Exception {
+        CountingPartyManager manager = new CountingPartyManager();
+        PartyCache cache = new PartyCache(manager, new MultimapEventBus());
+
+        Map<String, Party> parties = cache.getAll(Lists.newArrayList("Alpha", "beta", "missing"));
+        assertThat(parties.keySet(), equalTo(Sets.newHashSet("alpha", "beta")));
+        assertThat(manager.calls.get(), is(1));
+
+        assertThat(cache.get("ALPHA"), sameInstance(parties.get("alpha")));
+        assertThat(manager.calls.get(), is(1));
+    }
+
+    @Test
+    public void testConcurrentLoadsAreShared() throws Exception {
+        CountingPartyManager manager = new CountingPartyManager();
+        manager.blocked = new CountDownLatch(1);
+        PartyCache cache = new PartyCache(manager, new MultimapEventBus());
+
+        Thread first = new Thread(() -> cache.getAll(Lists.newArrayList("alpha")));
+        first.start();
+        assertThat(manager.entered.await(5, TimeUnit.SECONDS), is(true));
+
+        AtomicReference<Map<String, Party>> second = new AtomicReference<>();
+        Thread waiter = new Thread(() -> second.set(cache.getAll(Lists.newArrayList("alpha"))));
+        waiter.start();
+        Thread.sleep(100);
+        manager.blocked.countDown();
+        first.join();
+        waiter.join();
+
+        assertThat(manager.calls.get(), is(1));
+        assertThat(second.get().get("alpha").getName(), equalTo("alpha"));
+    }
+
+    private static class CountingPartyManager implements PartyManager {
+        private final AtomicInteger calls = new AtomicInteger();
+        private final CountDownLatch entered = new CountDownLatch(1);
+        private volatile CountDownLatch blocked;
+
+        @Override
+        public Map<String, Party> getAll(Collection<String> names) {
+            calls.incrementAndGet();
+            entered.countDown();
+            if (blocked != null) {
+                try {
+                    blocked.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            Map<String, Party> parties = new HashMap<>();
+            for (String name : names) {
+                if (!name.equalsIgnoreCase("missing")) {
+                    parties.put(name.toLowerCase(), new Party(name.toLowerCase()));
+                }
+            }
+            return parties;
+        }
+
+        @Override
+        public Set<String> refreshAll(Collection<Party> parties) {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public void create(Party party) {
+        }
+
+        @Override
+        public void addMembers(String party, Set<Member> members) {
+        }
+
+        @Override
+        public void removeMembers(String party, Set<MojangId> members) {
+        }
+    }
+
+}
@@ -0,0 +1,61 @@
+package com.skcraft.cardinal;
+
+import com.google.common.collect.Lists;
+import com.skcraft.cardinal.util.DataAccessException;
+import com.skcraft.cardinal.util.sql.RoutingDataSource;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+public class RoutingDataSourceTest {
+
+    @Test
+    public void testRouting() throws Exception {
+        AtomicInteger primaryCount = new AtomicInteger();
+        AtomicInteger replicaCount = new AtomicInteger();
+        RoutingDataSource ds = new RoutingDataSource(createDataSource(primaryCount), Lists.newArrayList(createDataSource(replicaCount)), 60 * 1000);
+
+        ds.getConnection().close();
+        assertThat(primaryCount.get(), is(1));
+
+        readFromReplica(ds);
+        assertThat(replicaCount.get(), is(1));
+
+        // Reads go to the primary right after a write
+        try (Connection conn = ds.getConnection()) {
+            conn.prepareStatement("UPDATE claim SET party_name = NULL");
+        }
+        readFromReplica(ds);
+        assertThat(replicaCount.get(), is(1));
+        assertThat(primaryCount.get(), is(3));
+        assertThat(ds.getRedirectedReadCount(), is(1L));
+    }
+
+    private static void readFromReplica(DataSource ds) {
+        RoutingDataSource.readFromReplica(() -> {
+            try {
+                ds.getConnection().close();
+            } catch (SQLException e) {
+                throw new DataAccessException(e);
+            }
+        });
+    }
+
+    private static DataSource createDataSource(AtomicInteger count) {
+        return (DataSource) Proxy.newProxyInstance(DataSource.class.getClassLoader(), new Class<?>[] { DataSource.class }, (proxy, method, args) -> {
+            if (method.getName().equals("getConnection")) {
+                count.incrementAndGet();
+                return Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class }, (conn, connMethod, connArgs) -> null);
+            }
+            throw new UnsupportedOperationException(method.getName());
+        });
+    }
+
+}
@@ -0,0 +1,158 @@
+package com.skcraft.cardinal;
+
+import com.google.common.collect.Lists;
+import com.skcraft.cardinal.profile.MojangId;
+import com.skcraft.cardinal.service.claim.Claim;
+import com.skcraft.cardinal.service.claim.WriteBehindClaimMap;
+import com.skcraft.cardinal.util.DataAccessException;
+import com.skcraft.cardinal.util.WorldVector3i;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+public class WriteBehindClaimMapTest {
+
+    private static final long FLUSH_INTERVAL = TimeUnit.HOURS.toMillis(1);
+    private static final WorldVector3i FIRST = new WorldVector3i("main", 1, 0, 1);
+    private static final WorldVector3i SECOND = new WorldVector3i("main", 2, 0, 2);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private MemoryClaimMap backing;
+    private File journalFile;
+
+    @Before
+    public void setUp() throws Exception {
+        backing = new MemoryClaimMap();
+        journalFile = new File(folder.getRoot(), "claims.journal");
+    }
+
+    @Test
+    public void testWritesAreDeferred() throws Exception {
+        WriteBehindClaimMap claims = new WriteBehindClaimMap(backing, MemoryClaimMap.SERVER, null, FLUSH_INTERVAL);
+        claims.save(Lists.newArrayList(FIRST, SECOND), MockDatabase.SK_USER, null);
+
+        assertThat(backing.get(FIRST), nullValue());
+        assertThat(claims.get(FIRST).getOwner(), equalTo(MockDatabase.SK_USER));
+        assertThat(claims.getQueueDepth(), is(2));
+
+        claims.flush();
+        assertThat(backing.get(FIRST).getOwner(), equalTo(MockDatabase.SK_USER));
+        assertThat(backing.get(SECOND).getOwner(), equalTo(MockDatabase.SK_USER));
+        assertThat(claims.getQueueDepth(), is(0));
+        assertThat(claims.getFlushLag(), is(0L));
+    }
+
+    @Test
+    public void testWritesAreCoalesced() throws Exception {
+        WriteBehindClaimMap claims = new WriteBehindClaimMap(backing, MemoryClaimMap.SERVER, null, FLUSH_INTERVAL);
+        claims.save(Lists.newArrayList(FIRST), MockDatabase.SK_USER, null);
+        claims.save(Lists.newArrayList(FIRST), MockDatabase.VINCENT_USER, null);
+        assertThat(claims.remove(Lists.newArrayList(FIRST, SECOND)), is(1));
+        assertThat(claims.get(FIRST), nullValue());
+
+        claims.flush();
+        assertThat(claims.getFlushedCount(), is(2L));
+        assertThat(backing.get(FIRST), nullValue());
+    }
+
+    @Test
+    public void testJournalIsReplayed() throws Exception {
+        WriteBehindClaimMap claims = new WriteBehindClaimMap(backing, MemoryClaimMap.SERVER, journalFile, FLUSH_INTERVAL);
+        claims.save(Lists.newArrayList(FIRST), MockDatabase.SK_USER, "guests");
+        claims.save(Lists.newArrayList(SECOND), MockDatabase.SK_USER, null);
+        claims.remove(Lists.newArrayList(SECOND));
+        assertThat(journalFile.exists(), is(true));
+
+        // Simulate a crash by not flushing
+        WriteBehindClaimMap restarted = new WriteBehindClaimMap(backing, MemoryClaimMap.SERVER, journalFile, FLUSH_INTERVAL);
+        assertThat(restarted.getQueueDepth(), is(2));
+        restarted.flush();
+        assertThat(backing.get(FIRST).getOwner(), equalTo(MockDatabase.SK_USER));
+        assertThat(backing.get(FIRST).getParty(), equalTo("guests"));
+        assertThat(backing.get(SECOND), nullValue());
+        assertThat(journalFile.exists(), is(false));
+    }
+
+    @Test
+    public void testCountIncludesWaitingChanges() throws Exception {
+        backing.save(Lists.newArrayList(FIRST), MockDatabase.SK_USER, null);
+        WriteBehindClaimMap claims = new WriteBehindClaimMap(backing, MemoryClaimMap.SERVER, null, FLUSH_INTERVAL);
+        claims.save(Lists.newArrayList(FIRST), MockDatabase.VINCENT_USER, null);
+        claims.save(Lists.newArrayList(SECOND), MockDatabase.VINCENT_USER, null);
+
+        assertThat(claims.getCountByOwner(MockDatabase.SK_USER), is(0));
+        assertThat(claims.getCountByOwner(MockDatabase.VINCENT_USER), is(2));
+        assertThat(claims.getQueueDepth(), is(2));
+
+        assertThat(claims.remove(Lists.newArrayList(SECOND)), is(1));
+        assertThat(claims.getCountByOwner(MockDatabase.VINCENT_USER), is(1));
+
+        claims.flush();
+        assertThat(claims.getCountByOwner(MockDatabase.SK_USER), is(0));
+        assertThat(claims.getCountByOwner(MockDatabase.VINCENT_USER), is(1));
+    }
+
+    @Test
+    public void testFailingWritesAreSetAside() throws Exception {
+        MemoryClaimMap failing = new MemoryClaimMap() {
+            @Override
+            public int save(Collection<WorldVector3i> positions, MojangId owner, String party) {
+                if (owner.equals(MockDatabase.VINCENT_USER)) {
+                    throw new DataAccessException("Rejected");
+                }
+                return super.save(positions, owner, party);
+            }
+        };
+        WriteBehindClaimMap claims = new WriteBehindClaimMap(failing, MemoryClaimMap.SERVER, journalFile, FLUSH_INTERVAL);
+        claims.save(Lists.newArrayList(FIRST), MockDatabase.VINCENT_USER, null);
+
+        for (int i = 0; i < WriteBehindClaimMap.MAX_WRITE_ATTEMPTS; i++) {
+            claims.save(Lists.newArrayList(new WorldVector3i("main", 10 + i, 0, 0)), MockDatabase.SK_USER, null);
+            try {
+                claims.flush();
+            } catch (DataAccessException ignored) {
+            }
+            // Other changes are not held back
+            assertThat(failing.get(new WorldVector3i("main", 10 + i, 0, 0)).getOwner(), equalTo(MockDatabase.SK_USER));
+        }
+
+        assertThat(claims.getSetAsideCount(), is(1L));
+        assertThat(claims.getQueueDepth(), is(0));
+        assertThat(claims.get(FIRST), nullValue());
+        assertThat(new File(journalFile.getPath() + ".failed").exists(), is(true));
+        claims.flush();
+    }
+
+    @Test
+    public void testChangesDuringReadsAreSeen() throws Exception {
+        AtomicReference<Runnable> duringRead = new AtomicReference<>();
+        MemoryClaimMap slow = new MemoryClaimMap() {
+            @Override
+            public Map<WorldVector3i, Claim> getAll(Collection<WorldVector3i> positions) {
+                Map<WorldVector3i, Claim> results = super.getAll(positions);
+                Runnable task = duringRead.getAndSet(null);
+                if (task != null) {
+                    task.run();
+                }
+                return results;
+            }
+        };
+        WriteBehindClaimMap claims = new WriteBehindClaimMap(slow, MemoryClaimMap.SERVER, null, FLUSH_INTERVAL);
+
+        duringRead.set(() -> claims.save(Lists.newArrayList(FIRST), MockDatabase.SK_USER, null));
+        assertThat(claims.get(FIRST).getOwner(), equalTo(MockDatabase.SK_USER));
+        assertThat(claims.getAllInArea("unknown", 0, 0, 10, 10).isEmpty(), is(true));
+    }
+
+}